@@ -29,9 +29,32 @@ import org.eclipse.jetty.util.resource.Resource;
  */
 public class ChatServer {
     public static void main(String[] args) throws Exception {
+        final Server server = start(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.stop();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                server.destroy();
+            }
+        });
+        server.join();
+    }
+
+    /**
+     * Starts the chat server
+     * @param port the HTTP port to listen to
+     * @return the started server
+     * @throws Exception if the server could not be started
+     */
+    public static Server start(int port) throws Exception {
         // Prepare jetty to serve static files and setup the Chat Servlet
 
-        final Server server = new Server(8080);
+        final Server server = new Server(port);
         ResourceHandler resourceHandler = new ResourceHandler();
         resourceHandler.setWelcomeFiles(new String[] {"index.html"});
 
@@ -49,27 +72,7 @@ public class ChatServer {
         handlerCollection.addHandler(sh);
 
         server.setHandler(handlerCollection);
-        new Thread(() -> {
-            try {
-                server.start();
-                server.join();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
-
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                try {
-                    server.stop();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                server.destroy();
-            }
-        });
-
-
+        server.start();
+        return server;
     }
 }
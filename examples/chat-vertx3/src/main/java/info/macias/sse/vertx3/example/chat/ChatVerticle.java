@@ -16,10 +16,11 @@ limitations under the License.
 
 package info.macias.sse.vertx3.example.chat;
 
-import info.macias.sse.EventBroadcast;
 import info.macias.sse.events.MessageEvent;
+import info.macias.sse.vertx3.VertxEventBroadcast;
 import info.macias.sse.vertx3.VertxEventTarget;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServer;
@@ -35,11 +36,11 @@ import java.util.Scanner;
  * @author Mario Macias (http://github.com/mariomac)
  */
 public class ChatVerticle extends AbstractVerticle {
-	private EventBroadcast broadcaster;
+	private VertxEventBroadcast broadcaster;
 
 	@Override
-	public void start() throws Exception {
-		broadcaster = new EventBroadcast();
+	public void start(Future<Void> startFuture) throws Exception {
+		broadcaster = new VertxEventBroadcast();
 
 		Router router = Router.router(vertx);
 
@@ -65,15 +66,22 @@ public class ChatVerticle extends AbstractVerticle {
 				sb.append(scanner.nextLine());
 			}
 			broadcaster.broadcast("message",dirtyJsonParse(sb.toString()));
+			ctx.response().end();
 		});
 
 
 		router.route("/*").method(HttpMethod.GET).handler(StaticHandler.create("static"));
 		
-		// Instantiate HTTP server
+		// Instantiate HTTP server. The port can be set in the "http.port" entry of the configuration
 		vertx.createHttpServer()
 				.requestHandler(router::accept)
-				.listen(8080);
+				.listen(config().getInteger("http.port", 8080), ar -> {
+					if (ar.succeeded()) {
+						startFuture.complete();
+					} else {
+						startFuture.fail(ar.cause());
+					}
+				});
 
 	}
 
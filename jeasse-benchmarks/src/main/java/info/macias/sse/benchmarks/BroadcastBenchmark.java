@@ -0,0 +1,93 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.OverflowPolicy;
+import info.macias.sse.events.MessageEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures {@link EventBroadcast#broadcast(MessageEvent)} to in-memory subscribers.</p>
+ *
+ * <p>In "sync" mode, the measured time includes the writes to all the subscribers. In "fanout" mode, it only
+ * includes queuing the message for each subscriber. The queues drop the oldest messages when they are full, so the
+ * number of subscribers does not change during the benchmark.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"1", "100", "10000", "100000"})
+    public int subscribers;
+
+    @Param({"sync", "fanout"})
+    public String mode;
+
+    private ExecutorService executor;
+    private EventBroadcast broadcast;
+    private MessageEvent event;
+
+    @Setup
+    public void setup() throws IOException {
+        EventBroadcast.Builder builder = new EventBroadcast.Builder();
+        if ("fanout".equals(mode)) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            builder.setExecutor(executor).setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        }
+        broadcast = builder.build();
+        for (int i = 0; i < subscribers; i++) {
+            broadcast.addSubscriber(new NullEventTarget());
+        }
+        event = new MessageEvent.Builder().setEvent("message").setData(Payloads.get("small")).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        broadcast.close();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void broadcast() {
+        broadcast.broadcast(event);
+    }
+}
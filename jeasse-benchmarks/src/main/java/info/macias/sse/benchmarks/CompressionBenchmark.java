@@ -0,0 +1,149 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.compression.StreamCompression;
+import info.macias.sse.compression.StreamCompressor;
+import info.macias.sse.events.MessageEvent;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Compares writing a stream of messages to a connection with identity encoding and with compression (see
+ * {@link StreamCompressor}). Each operation writes one of a set of messages with the same structure and different
+ * values, as a stream of state updates would. The <code>bytesWritten</code> and <code>bytesRead</code> counters
+ * report the bytes written to the connection and the uncompressed bytes of the messages, so their ratio is the
+ * compression ratio.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int MESSAGES = 64;
+
+    @Param({"small", "multiline", "large"})
+    public String payload;
+
+    @Param({"identity", "gzip-fastest", "gzip-default"})
+    public String encoding;
+
+    private MessageEvent[] messages;
+    private StreamCompressor compressor;
+    private int next = 0;
+
+    /**
+     * Connection that copies the written bytes into a scratch buffer, as writing into a socket copies them into the
+     * kernel, and counts them. The sums of the counters are reported by JMH
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Connection extends OutputStream {
+        public long bytesWritten;
+        public long bytesRead;
+
+        private final byte[] scratch = new byte[128 * 1024];
+
+        @Override
+        public void write(int b) {
+            scratch[0] = (byte) b;
+            bytesWritten++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            for (int copied = 0; copied < length; copied += scratch.length) {
+                System.arraycopy(bytes, offset + copied, scratch, 0, Math.min(scratch.length, length - copied));
+            }
+            bytesWritten += length;
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesWritten = 0;
+            bytesRead = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        String data = Payloads.get(payload);
+        messages = new MessageEvent[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            // same structure, different values
+            messages[i] = new MessageEvent.Builder()
+                    .setEvent("update")
+                    .setId(String.valueOf(i))
+                    .setData(data.replace("value", "v" + (i * 7919 % 1000)))
+                    .build();
+        }
+        switch (encoding) {
+            case "identity":
+                compressor = null;
+                break;
+            case "gzip-fastest":
+                compressor = new StreamCompression(Deflater.BEST_SPEED, 1).open("gzip");
+                break;
+            case "gzip-default":
+                compressor = new StreamCompression().open("gzip");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown encoding: " + encoding);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (compressor != null) {
+            compressor.close();
+        }
+    }
+
+    @Benchmark
+    public void send(Connection connection) throws IOException {
+        MessageEvent message = messages[next];
+        next = (next + 1) % MESSAGES;
+        connection.bytesRead += message.getByteLength();
+        if (compressor == null) {
+            message.writeTo(connection);
+        } else {
+            compressor.write(message, connection);
+        }
+    }
+}
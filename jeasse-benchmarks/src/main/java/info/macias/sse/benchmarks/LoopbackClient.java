@@ -0,0 +1,83 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal HTTP client that opens an event stream over a loopback socket, and counts the received bytes without
+ * parsing them.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class LoopbackClient implements AutoCloseable {
+
+    private final Socket socket;
+    private final Thread reader;
+    private final AtomicLong received = new AtomicLong();
+
+    LoopbackClient(int port, String path) throws IOException {
+        socket = new Socket("127.0.0.1", port);
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\n"
+                + "Host: 127.0.0.1:" + port + "\r\n"
+                + "Accept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+        reader = new Thread(this::read, "loopback-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read() {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = socket.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                received.addAndGet(read);
+            }
+        } catch (IOException e) {
+            // socket closed
+        }
+    }
+
+    /**
+     * Returns the number of bytes received so far, including the HTTP response headers
+     * @return the number of received bytes
+     */
+    long getReceivedBytes() {
+        return received.get();
+    }
+
+    /**
+     * Waits until the given number of bytes have been received
+     * @param bytes the number of bytes to wait for
+     */
+    void awaitReceivedBytes(long bytes) {
+        while (received.get() < bytes && reader.isAlive()) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        socket.close();
+        reader.join();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.servlet3.NonBlockingServletEventTarget;
+import info.macias.sse.servlet3.ServletEventTarget;
+import info.macias.sse.vertx3.VertxEventTarget;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the throughput of {@link ServletEventTarget}, {@link NonBlockingServletEventTarget} (both on an
+ * embedded Jetty server) and {@link VertxEventTarget} writing to a client connected through the loopback
+ * interface.</p>
+ *
+ * <p>The benchmark thread does not send more than {@link #WINDOW_BYTES} ahead of what the client has received, nor
+ * while the target is not writable, so the measured time includes the transmission of the messages and not only
+ * their buffering.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackTargetBenchmark {
+
+    private static final long WINDOW_BYTES = 1024 * 1024;
+    private static final long START_TIMEOUT_SECONDS = 10;
+
+    @Param({"servlet", "servlet-nonblocking", "vertx"})
+    public String server;
+
+    @Param({"small", "large"})
+    public String payload;
+
+    private Server jetty;
+    private Vertx vertx;
+    private LoopbackClient client;
+    private EventTarget target;
+    private MessageEvent event;
+    private long sentBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        CompletableFuture<EventTarget> connected = new CompletableFuture<>();
+        int port = "vertx".equals(server) ? startVertx(connected) : startJetty(connected);
+        client = new LoopbackClient(port, "/sse");
+        target = connected.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        event = new MessageEvent.Builder().setEvent("message").setData(Payloads.get(payload)).build();
+        // the response headers and the open event are already accounted by the client
+        client.awaitReceivedBytes(1);
+        sentBytes = client.getReceivedBytes();
+    }
+
+    private int startJetty(CompletableFuture<EventTarget> connected) throws Exception {
+        jetty = new Server(new InetSocketAddress("127.0.0.1", 0));
+        ServletContextHandler context = new ServletContextHandler();
+        ServletHolder holder = new ServletHolder(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                connected.complete("servlet".equals(server)
+                        ? new ServletEventTarget(req).ok().open()
+                        : new NonBlockingServletEventTarget(req, Integer.MAX_VALUE).ok().open());
+            }
+        });
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, "/sse");
+        jetty.setHandler(context);
+        jetty.start();
+        return ((ServerConnector) jetty.getConnectors()[0]).getLocalPort();
+    }
+
+    private int startVertx(CompletableFuture<EventTarget> connected) throws Exception {
+        vertx = Vertx.vertx();
+        CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+        vertx.createHttpServer()
+                .requestHandler(req -> {
+                    try {
+                        connected.complete(new VertxEventTarget(req).ok().open());
+                    } catch (IOException e) {
+                        connected.completeExceptionally(e);
+                    }
+                })
+                .listen(0, "127.0.0.1", ar -> {
+                    if (ar.succeeded()) {
+                        listening.complete(ar.result());
+                    } else {
+                        listening.completeExceptionally(ar.cause());
+                    }
+                });
+        return listening.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS).actualPort();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        // closing the client side is enough to release the connection on both servers
+        client.close();
+        if (jetty != null) {
+            jetty.stop();
+        }
+        if (vertx != null) {
+            CompletableFuture<Void> closed = new CompletableFuture<>();
+            vertx.close(ar -> closed.complete(null));
+            closed.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        while (!target.isWritable()) {
+            Thread.yield();
+        }
+        target.send(event);
+        sentBytes += event.getByteLength();
+        client.awaitReceivedBytes(sentBytes - WINDOW_BYTES);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.events.MessageEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of a {@link MessageEvent} through its builder: into a new message
+ * ({@link MessageEvent.Builder#build()}) and into a reusable buffer ({@link MessageEvent.Builder#writeTo(ByteBuffer)}).
+ * Run with <code>-prof gc</code> to see the allocated bytes per operation: only the final payload in the first case,
+ * and none in the second.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEventBenchmark {
+
+    @Param({"small", "multiline", "large"})
+    public String payload;
+
+    private String data;
+    private MessageEvent.Builder builder;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        data = Payloads.get(payload);
+        builder = new MessageEvent.Builder()
+                .setEvent("message")
+                .setId("1234")
+                .setData(data);
+        buffer = ByteBuffer.allocateDirect(builder.build().getByteLength());
+    }
+
+    @Benchmark
+    public MessageEvent build() {
+        return new MessageEvent.Builder()
+                .setEvent("message")
+                .setId("1234")
+                .setData(data)
+                .build();
+    }
+
+    @Benchmark
+    public int writeTo() {
+        buffer.clear();
+        return builder.writeTo(buffer);
+    }
+}
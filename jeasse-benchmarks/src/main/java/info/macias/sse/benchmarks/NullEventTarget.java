@@ -0,0 +1,80 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+
+/**
+ * In-memory event target that discards the messages, and optionally disconnects after receiving a given number
+ * of them.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class NullEventTarget implements EventTarget {
+    private final long messagesBeforeDisconnecting;
+    private final Runnable onDisconnect;
+    private long messages = 0;
+    // accumulated to avoid the JIT discarding the writes
+    long bytes = 0;
+
+    NullEventTarget() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * @param messagesBeforeDisconnecting number of messages that are received before disconnecting
+     * @param onDisconnect invoked when the target disconnects. May be <code>null</code>
+     */
+    NullEventTarget(long messagesBeforeDisconnecting, Runnable onDisconnect) {
+        this.messagesBeforeDisconnecting = messagesBeforeDisconnecting;
+        this.onDisconnect = onDisconnect;
+    }
+
+    @Override
+    public EventTarget ok() {
+        return this;
+    }
+
+    @Override
+    public EventTarget open() throws IOException {
+        return this;
+    }
+
+    @Override
+    public EventTarget send(String event, String data) throws IOException {
+        return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+    }
+
+    @Override
+    public EventTarget send(MessageEvent messageEvent) throws IOException {
+        if (messages++ >= messagesBeforeDisconnecting) {
+            if (messages == messagesBeforeDisconnecting + 1 && onDisconnect != null) {
+                onDisconnect.run();
+            }
+            throw new IOException("disconnected");
+        }
+        bytes += messageEvent.getByteLength();
+        return this;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,57 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.benchmarks;
+
+/**
+ * Sample 'data' fields for the benchmarks
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+final class Payloads {
+    private Payloads() {
+    }
+
+    /**
+     * Returns a sample payload
+     * @param name "small" (a short line of text), "multiline" (a pretty-printed JSON document of about 1KB) or "large"
+     *             (a single-line JSON document of about 64KB)
+     * @return the payload
+     */
+    static String get(String name) {
+        switch (name) {
+            case "small":
+                return "{\"symbol\":\"ACME\",\"price\":123.45}";
+            case "multiline":
+                return json(20, "\n");
+            case "large":
+                return json(1500, "");
+            default:
+                throw new IllegalArgumentException("Unknown payload: " + name);
+        }
+    }
+
+    private static String json(int entries, String separator) {
+        StringBuilder sb = new StringBuilder("{").append(separator);
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                sb.append(',').append(separator);
+            }
+            sb.append("  \"field").append(i).append("\": \"value ").append(i).append(" of the payload\"");
+        }
+        return sb.append(separator).append('}').toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.benchmarks;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.MessageEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures {@link EventBroadcast#broadcast(MessageEvent)} while other threads continuously add subscribers that
+ * disconnect on their first message, so they are removed by the next broadcast, and another thread checks whether
+ * there are subscribers (as the publishers do before building a message). To keep the memory bounded, the number of
+ * these short-lived subscribers never exceeds the number of long-lived ones.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriberChurnBenchmark {
+
+    @Param({"1000", "100000"})
+    public int subscribers;
+
+    private EventBroadcast broadcast;
+    private MessageEvent event;
+    private final AtomicInteger shortLived = new AtomicInteger();
+
+    @Setup
+    public void setup() throws IOException {
+        broadcast = new EventBroadcast();
+        for (int i = 0; i < subscribers; i++) {
+            broadcast.addSubscriber(new NullEventTarget());
+        }
+        event = new MessageEvent.Builder().setEvent("message").setData(Payloads.get("small")).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        broadcast.close();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void broadcast() {
+        broadcast.broadcast(event);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public boolean hasSubscribers() {
+        return broadcast.hasSubscribers();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void subscribe() throws IOException {
+        if (shortLived.incrementAndGet() <= subscribers) {
+            broadcast.addSubscriber(new NullEventTarget(0, shortLived::decrementAndGet));
+        } else {
+            shortLived.decrementAndGet();
+            Thread.yield();
+        }
+    }
+}
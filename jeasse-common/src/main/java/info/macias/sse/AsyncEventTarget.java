@@ -0,0 +1,472 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.BroadcastMetrics;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * {@link EventTarget} decorator that queues the sent messages and writes them to the decorated target from an
+ * {@link Executor}, so the thread invoking {@link #send(MessageEvent)} never blocks on the subscriber's connection.
+ *
+ * <p>At most one task per target is running on the executor at a given time, so the messages are written in the
+ * same order as they were sent, and never concurrently to the same connection.</p>
+ *
+ * <p>The queue of pending messages is bounded. When it is full, the {@link OverflowPolicy} decides whether the
+ * oldest or the newest message is discarded, or the subscriber is disconnected.</p>
+ *
+ * <p>If a conflation key function is provided, a message whose key is the same as the key of a message that is
+ * still pending replaces it in its position of the queue, so a lagging subscriber skips the intermediate values and
+ * directly receives the latest one.</p>
+ *
+ * <p>If a high priority predicate is provided, the high priority messages are kept in a separate queue, with its
+ * own capacity, and they are written before any message of the normal queue. They are written even while the
+ * decorated target is not writable, so they never wait behind a flood of normal messages.</p>
+ *
+ * <p>While the decorated target is not writable (see {@link EventTarget#isWritable()}), the messages are kept in
+ * the queue, and they are written when the decorated target notifies that it is writable again.</p>
+ *
+ * <p>If the decorated target is a {@link RateLimitedEventTarget}, the messages it held are also written from the
+ * executor when its rate limit releases them, so the scheduler of the rate limit never writes to the connection.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class AsyncEventTarget implements EventTarget, Runnable {
+
+    // Maximum number of messages written on each executor task, to allow other targets sharing the executor progress
+    private static final int MAX_WRITES_PER_RUN = 64;
+
+    private final EventTarget delegate;
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final MessageEvent disconnectMessage;
+    private final BroadcastMetrics metrics;
+    private final Function<MessageEvent, String> conflationKey;
+    private final Predicate<MessageEvent> highPriority;
+    // the decorated target, if it is rate-limited. Null otherwise
+    private final RateLimitedEventTarget rateLimited;
+
+    // guarded by itself. Contains MessageEvents and, for the messages with a conflation key, Slots
+    private final Deque<Object> pending = new ArrayDeque<>();
+    // high priority messages, written before the pending ones. Guarded by pending. Null if there are no priorities
+    private final Deque<Object> urgent;
+    // pending messages, by conflation key. Guarded by pending
+    private final Map<String, Slot> conflated;
+    // no more messages are accepted, and the delegate will be closed once the pending messages are written
+    private boolean closing = false;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    // the rate limit of the decorated target has released messages, to be written from the executor
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    private final AtomicBoolean delegateClosed = new AtomicBoolean(false);
+    // invoked once the delegate has been closed. Null if nobody waits for it
+    private final AtomicReference<Runnable> closeHandler = new AtomicReference<>();
+
+    // invoked after messages of the queue have been written or discarded. May be null
+    private volatile Runnable drainHandler = null;
+
+    private volatile boolean failed = false;
+    // the target was disconnected by the OverflowPolicy.DISCONNECT policy
+    private volatile boolean overflowed = false;
+
+    /**
+     * @param delegate the decorated target
+     * @param executor the executor that writes the messages to the decorated target
+     * @param capacity the maximum number of pending messages
+     * @param overflowPolicy what to do when a message is sent and there are already <code>capacity</code> pending
+     *                       messages
+     * @param disconnectMessage the last message to be sent when the target is disconnected by the
+     *                          {@link OverflowPolicy#DISCONNECT} policy. May be <code>null</code>.
+     * @param metrics the listener that is notified of the queued and dropped messages
+     * @param conflationKey function that returns the conflation key of a message, or <code>null</code> if the
+     *                      message must not be conflated. May be <code>null</code> to disable conflation
+     * @param highPriority predicate that returns whether a message has high priority. High priority messages are
+     *                     never conflated. May be <code>null</code> to disable priorities
+     */
+    AsyncEventTarget(EventTarget delegate, Executor executor, int capacity, OverflowPolicy overflowPolicy,
+                     MessageEvent disconnectMessage, BroadcastMetrics metrics,
+                     Function<MessageEvent, String> conflationKey, Predicate<MessageEvent> highPriority) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.disconnectMessage = disconnectMessage;
+        this.metrics = metrics;
+        this.conflationKey = conflationKey;
+        this.conflated = conflationKey == null ? null : new HashMap<>();
+        this.highPriority = highPriority;
+        this.urgent = highPriority == null ? null : new ArrayDeque<>();
+        this.rateLimited = delegate instanceof RateLimitedEventTarget ? (RateLimitedEventTarget) delegate : null;
+        if (rateLimited != null) {
+            rateLimited.setReleaseHandler(this::released);
+        }
+        delegate.setWritableHandler(this::schedule);
+    }
+
+    /**
+     * Returns the decorated target
+     * @return the decorated target
+     */
+    EventTarget getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the number of messages that have been sent but not yet written to the decorated target
+     * @return the number of pending messages
+     */
+    int getQueueDepth() {
+        synchronized (pending) {
+            return pending.size() + (urgent == null ? 0 : urgent.size());
+        }
+    }
+
+    /**
+     * Returns how many more messages can be sent before the queue of normal priority messages is full
+     * @return the free space of the queue
+     */
+    int getRemainingCapacity() {
+        synchronized (pending) {
+            return capacity - pending.size();
+        }
+    }
+
+    /**
+     * Sets the handler that is invoked, from the executor, after messages of the queue have been written to the
+     * decorated target, so there is free space for new messages. It is also invoked when the pending messages are
+     * discarded because the target failed or was closed.
+     * @param drainHandler the handler. May be <code>null</code>
+     */
+    void setDrainHandler(Runnable drainHandler) {
+        this.drainHandler = drainHandler;
+    }
+
+    /**
+     * Returns whether the target was disconnected because its queue was full and the overflow policy is
+     * {@link OverflowPolicy#DISCONNECT}
+     * @return <code>true</code> if the target was disconnected because of its queue being full
+     */
+    boolean isOverflowed() {
+        return overflowed;
+    }
+
+    @Override
+    public AsyncEventTarget ok() {
+        delegate.ok();
+        return this;
+    }
+
+    @Override
+    public AsyncEventTarget open() throws IOException {
+        delegate.open();
+        return this;
+    }
+
+    @Override
+    public AsyncEventTarget send(String event, String data) throws IOException {
+        return send(new MessageEvent.Builder()
+                .setEvent(event)
+                .setData(data)
+                .build());
+    }
+
+    /**
+     * Queues a {@link MessageEvent} to be sent to the subscriber, and returns immediately.
+     * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+     * @return The same {@link AsyncEventTarget} object that received the method call
+     * @throws IOException if a previous write to the decorated target failed, the target has been closed, or the
+     * queue is full and the overflow policy is {@link OverflowPolicy#DISCONNECT}
+     */
+    @Override
+    public AsyncEventTarget send(MessageEvent messageEvent) throws IOException {
+        boolean isUrgent = highPriority != null && highPriority.test(messageEvent);
+        String key = isUrgent || conflationKey == null ? null : conflationKey.apply(messageEvent);
+        boolean disconnect = false;
+        boolean queued = true;
+        boolean dropped = false;
+        boolean replaced = false;
+        int depth;
+        synchronized (pending) {
+            if (failed || closing) {
+                throw new IOException("Event target is not connected");
+            }
+            Deque<Object> lane = isUrgent ? urgent : pending;
+            Slot slot = key == null ? null : conflated.get(key);
+            if (slot != null) {
+                slot.messageEvent = messageEvent;
+                queued = false;
+                replaced = true;
+            } else if (lane.size() < capacity) {
+                enqueue(lane, messageEvent, key);
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                dequeue(lane);
+                enqueue(lane, messageEvent, key);
+                dropped = true;
+            } else if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                clearPending();
+                if (disconnectMessage != null) {
+                    pending.add(disconnectMessage);
+                }
+                closing = true;
+                disconnect = true;
+                overflowed = true;
+            } else {
+                queued = false;
+                dropped = true;
+            }
+            depth = lane.size();
+        }
+        schedule();
+        if (disconnect) {
+            throw new IOException("Event target queue is full. Disconnecting");
+        }
+        if (dropped) {
+            metrics.messageDropped();
+        }
+        if (queued && isUrgent) {
+            metrics.priorityMessageQueued(depth);
+        } else if (queued) {
+            metrics.messageQueued(depth);
+        }
+        if (replaced) {
+            metrics.messageConflated();
+        }
+        return this;
+    }
+
+    // invoked holding the lock of the pending messages
+    private void enqueue(Deque<Object> lane, MessageEvent messageEvent, String key) {
+        if (key == null) {
+            lane.add(messageEvent);
+        } else {
+            Slot slot = new Slot(key, messageEvent);
+            conflated.put(key, slot);
+            pending.add(slot);
+        }
+    }
+
+    // invoked holding the lock of the pending messages
+    private MessageEvent dequeue(Deque<Object> lane) {
+        Object head = lane.poll();
+        if (head instanceof Slot) {
+            Slot slot = (Slot) head;
+            conflated.remove(slot.key);
+            return slot.messageEvent;
+        }
+        return (MessageEvent) head;
+    }
+
+    // invoked holding the lock of the pending messages
+    private void clearPending() {
+        pending.clear();
+        if (urgent != null) {
+            urgent.clear();
+        }
+        if (conflated != null) {
+            conflated.clear();
+        }
+    }
+
+    /**
+     * Discards the pending messages and closes the decorated target once the message being written, if any,
+     * has been completely sent.
+     */
+    @Override
+    public void close() {
+        synchronized (pending) {
+            closing = true;
+            clearPending();
+        }
+        schedule();
+        drained();
+    }
+
+    /**
+     * Writes the pending messages and a last message, and then closes the decorated target. No more messages are
+     * accepted. The last message is queued even if the queue is full.
+     * @param lastMessage the last message to write
+     * @param closeHandler invoked, from the executor or the invoking thread, once the decorated target has been
+     *                     closed
+     */
+    void drainAndClose(MessageEvent lastMessage, Runnable closeHandler) {
+        this.closeHandler.set(closeHandler);
+        synchronized (pending) {
+            if (!closing && !failed) {
+                pending.add(lastMessage);
+            }
+            closing = true;
+        }
+        schedule();
+        if (delegateClosed.get()) {
+            // the delegate may have been closed before the handler was set
+            runCloseHandler();
+        }
+    }
+
+    // invoked from the scheduler of the rate limit
+    private void released() {
+        released.set(true);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // The executor is not accepting more tasks (e.g. it is shutting down). Disconnecting the subscriber
+                scheduled.set(false);
+                failed = true;
+                synchronized (pending) {
+                    clearPending();
+                }
+                closeDelegate();
+                drained();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        boolean reschedule;
+        int written = 0;
+        boolean discarded = false;
+        try {
+            for (int i = 0; i < MAX_WRITES_PER_RUN && !failed; i++) {
+                boolean writable = delegate.isWritable();
+                MessageEvent messageEvent;
+                synchronized (pending) {
+                    if (hasUrgent()) {
+                        // high priority messages are written even if the delegate is not writable
+                        messageEvent = dequeue(urgent);
+                    } else if (!writable && !closing) {
+                        // the writable handler will schedule a new run. The last messages before closing are always
+                        // written
+                        break;
+                    } else {
+                        messageEvent = dequeue(pending);
+                    }
+                }
+                if (messageEvent == null) {
+                    break;
+                }
+                try {
+                    delegate.send(messageEvent);
+                    written++;
+                } catch (IOException e) {
+                    fail();
+                    discarded = true;
+                }
+            }
+            // the messages sent in the loop have already written the released ones before them
+            if (!failed && released.get() && (closing || delegate.isWritable()) && released.compareAndSet(true, false)) {
+                try {
+                    rateLimited.sendReleased();
+                } catch (IOException e) {
+                    fail();
+                    discarded = true;
+                }
+            }
+            boolean drained;
+            synchronized (pending) {
+                drained = closing && pending.isEmpty();
+            }
+            if (drained) {
+                closeDelegate();
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // some messages (or the close request) may have arrived, or the delegate may have become writable, after
+        // the last check
+        boolean writable = delegate.isWritable();
+        synchronized (pending) {
+            reschedule = closing ? !delegateClosed.get()
+                    : !failed && (hasUrgent() || writable && (!pending.isEmpty() || released.get()));
+        }
+        if (reschedule) {
+            schedule();
+        }
+        if (written > 0 || discarded) {
+            drained();
+        }
+    }
+
+    private void drained() {
+        Runnable handler = drainHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    // Client disconnected. Next send invocation will notify the broadcaster
+    private void fail() {
+        failed = true;
+        synchronized (pending) {
+            clearPending();
+        }
+    }
+
+    // invoked holding the lock of the pending messages
+    private boolean hasUrgent() {
+        return urgent != null && !urgent.isEmpty();
+    }
+
+    private void closeDelegate() {
+        if (delegateClosed.compareAndSet(false, true)) {
+            try {
+                delegate.close();
+            } finally {
+                runCloseHandler();
+            }
+        }
+    }
+
+    private void runCloseHandler() {
+        Runnable handler = closeHandler.getAndSet(null);
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    /**
+     * Position in the queue of a message with a conflation key, whose message is replaced by the newer messages
+     * with the same key
+     */
+    private static class Slot {
+        private final String key;
+        private MessageEvent messageEvent;
+
+        Slot(String key, MessageEvent messageEvent) {
+            this.key = key;
+            this.messageEvent = messageEvent;
+        }
+    }
+}
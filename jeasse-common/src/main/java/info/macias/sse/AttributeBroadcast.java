@@ -0,0 +1,175 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.RemovalReason;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Broadcaster whose subscribers are registered with attributes (name/value pairs, e.g. <code>user=alice</code> or
+ * <code>region=eu</code>), so messages can be sent only to the subscribers with a given attribute value (e.g. all
+ * the sessions of a user).</p>
+ *
+ * <p>The broadcaster keeps an index from each attribute value to its subscribers, so sending to an attribute value
+ * only visits the matching subscribers. Subscribers are removed from the index when they are detached (e.g. when
+ * sending them a message fails). Messages sent through the {@link EventBroadcast} methods (e.g.
+ * {@link #broadcast(MessageEvent)}) are sent to all the subscribers, no matter their attributes.</p>
+ *
+ * <p>The broadcaster accepts the same configuration as {@link EventBroadcast} (e.g. fan-out mode), through the
+ * {@link EventBroadcast.Builder} class. Messages sent to an attribute value are not stored in the
+ * {@link EventHistory}.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class AttributeBroadcast extends EventBroadcast {
+
+    // subscribers, as provided by the user, to subscribers, as stored in the collection of subscribers
+    private final ConcurrentMap<EventTarget, EventTarget> subscribers = new ConcurrentHashMap<>();
+    private final SubscriberIndex<Map.Entry<String, String>> attributes = new SubscriberIndex<>();
+
+    /**
+     * Instantiates an attribute broadcaster that sends the messages to the subscribers from the thread that invokes
+     * the broadcast methods.
+     */
+    public AttributeBroadcast() {
+        this(new EventBroadcast.Builder());
+    }
+
+    /**
+     * Instantiates an attribute broadcaster with the configuration from the provided {@link EventBroadcast.Builder}
+     * @param builder the configuration of the broadcaster
+     */
+    public AttributeBroadcast(EventBroadcast.Builder builder) {
+        super(builder);
+    }
+
+    /**
+     * Adds a subscriber with the given attributes. The subscriber is acknowledged and opened.
+     * @param eventTarget an event target to be subscribed to the broadcast messages
+     * @param attributes the attributes of the subscriber, by name
+     * @throws IOException if there was an error during the acknowledge process between broadcaster and subscriber
+     */
+    public void addSubscriber(EventTarget eventTarget, Map<String, String> attributes) throws IOException {
+        EventTarget subscriber = decorate(eventTarget.ok().open());
+        subscribers.put(eventTarget, subscriber);
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            this.attributes.add(attribute(attribute.getKey(), attribute.getValue()), subscriber);
+        }
+        register(subscriber);
+    }
+
+    /**
+     * Returns the attributes an event target was subscribed with
+     * @param eventTarget the subscribed event target
+     * @return a copy of the attributes of the event target, by name. Empty if the target is not subscribed
+     */
+    public Map<String, String> getAttributes(EventTarget eventTarget) {
+        EventTarget subscriber = subscribers.get(eventTarget);
+        Map<String, String> copy = new HashMap<>();
+        if (subscriber != null) {
+            for (Map.Entry<String, String> attribute : attributes.getKeys(subscriber)) {
+                copy.put(attribute.getKey(), attribute.getValue());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the number of subscribers with an attribute value
+     * @param name the name of the attribute
+     * @param value the value of the attribute
+     * @return the number of subscribers with the attribute value
+     */
+    public int getSubscriberCount(String name, String value) {
+        return attributes.get(attribute(name, value)).size();
+    }
+
+    /**
+     * <p>Sends a {@link MessageEvent} to the subscribers with an attribute value, containing only 'event' and 'data'
+     * fields.</p>
+     *
+     * @param name the name of the attribute
+     * @param value the value of the attribute
+     * @param event The descriptor of the 'event' field.
+     * @param data The content of the 'data' field.
+     */
+    public void sendTo(String name, String value, String event, String data) {
+        sendTo(name, value, new MessageEvent.Builder()
+                .setEvent(event)
+                .setData(data)
+                .build());
+    }
+
+    /**
+     * <p>Sends a {@link MessageEvent} to the subscribers with an attribute value. The cost of the operation depends
+     * on the number of matching subscribers, not on the total number of subscribers.</p>
+     *
+     * <p>If sending the message to a subscriber throws an {@link IOException}, the broadcaster assumes the
+     * subscriber went offline and silently detaches it, removing it from the index of attributes.</p>
+     *
+     * @param name the name of the attribute
+     * @param value the value of the attribute
+     * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+     */
+    public void sendTo(String name, String value, MessageEvent messageEvent) {
+        getMetrics().messageBroadcast();
+        for (EventTarget subscriber : attributes.get(attribute(name, value))) {
+            try {
+                sendTo(subscriber, messageEvent);
+            } catch (IOException e) {
+                // Client disconnected. Removing from targets and attributes
+                if (!detach(subscriber, failureReason(subscriber, RemovalReason.SEND_FAILED))) {
+                    // already detached by a concurrent send
+                    forget(subscriber);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void subscriberDetached(EventTarget eventTarget) {
+        forget(eventTarget);
+        super.subscriberDetached(eventTarget);
+    }
+
+    private void forget(EventTarget subscriber) {
+        attributes.removeAll(subscriber);
+        subscribers.remove(undecorate(subscriber), subscriber);
+    }
+
+    private static Map.Entry<String, String> attribute(String name, String value) {
+        return new AbstractMap.SimpleImmutableEntry<>(name, value);
+    }
+
+    /**
+     * Closes all the connections between the broadcaster and the subscribers, and detaches all of them from the
+     * collection of subscribers and the index of attributes.
+     */
+    @Override
+    public void close() {
+        super.close();
+        attributes.clear();
+        subscribers.clear();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.delta.JsonMergePatch;
+import info.macias.sse.events.MessageEvent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Delta encoding of JSON documents that are broadcast again and again with only a few changes (e.g. the state
+ * of a game, or the quote of a stock). The encoding keeps the last version of each document, by key, and
+ * {@link #update(String, String, String)} computes once, for all the subscribers, the JSON merge patch (RFC 7396, see
+ * {@link JsonMergePatch}) from the previous version.</p>
+ *
+ * <p>A broadcaster configured with the encoding (see {@link EventBroadcast.Builder#setDeltaEncoding(DeltaEncoding)})
+ * decides, for each subscriber, at the moment of writing the message: subscribers that received the previous
+ * version of the document get the patch, as an event named after the event of the document plus
+ * {@link #PATCH_SUFFIX}. New subscribers, and subscribers that missed the previous version (e.g. because their
+ * queue overflowed or they were not writable), get the whole document, so they are in sync again. The whole
+ * document is also sent when the patch would not be smaller, or a merge patch can't express the changes.</p>
+ *
+ * <p>The updates of the same key must be broadcast in the same order they are encoded (e.g. from the same thread).
+ * An encoding can be shared by many broadcasters.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class DeltaEncoding {
+
+    /**
+     * Suffix appended to the name of the event of a document to name the events of its patches
+     */
+    public static final String PATCH_SUFFIX = ".patch";
+
+    /**
+     * Default number of versions of each document that can still be sent as a patch
+     */
+    public static final int DEFAULT_RETAINED_VERSIONS = 16;
+
+    private final int retainedVersions;
+
+    // last version of each document, by key
+    private final Map<String, Version> documents = new ConcurrentHashMap<>();
+    // patch of each of the retained versions, by the message of the whole document (MessageEvent uses identity)
+    private final Map<MessageEvent, Delta> deltas = new ConcurrentHashMap<>();
+
+    private long lastVersion = 0;
+    // number of removed documents, so the subscribers know when to forget the versions they received of them
+    private volatile long removals = 0;
+
+    /**
+     * Instantiates an encoding that can send the last {@link #DEFAULT_RETAINED_VERSIONS} versions of each document
+     * as patches
+     */
+    public DeltaEncoding() {
+        this(DEFAULT_RETAINED_VERSIONS);
+    }
+
+    /**
+     * Instantiates a delta encoding
+     * @param retainedVersions how many versions of each document can still be sent as a patch. Subscribers that
+     *                         are further behind (e.g. with a longer queue in fan-out mode) get the whole document
+     */
+    public DeltaEncoding(int retainedVersions) {
+        if (retainedVersions <= 0) {
+            throw new IllegalArgumentException("retainedVersions must be positive: " + retainedVersions);
+        }
+        this.retainedVersions = retainedVersions;
+    }
+
+    /**
+     * Stores a new version of a document, and returns the message to be broadcast. The message contains the whole
+     * document, and the broadcaster replaces it with the patch for the subscribers that are in sync.
+     * @param key the key of the document
+     * @param event the 'event' field of the messages with the whole document. May be <code>null</code>
+     * @param json the new version of the document
+     * @return the message to be broadcast
+     * @throws IllegalArgumentException if the document is not valid JSON
+     */
+    public MessageEvent update(String key, String event, String json) {
+        JsonMergePatch.Document document = JsonMergePatch.Document.parse(json);
+        MessageEvent snapshot = new MessageEvent.Builder().setEvent(event).setData(json).build();
+        MessageEvent expired = null;
+        synchronized (this) {
+            Version previous = documents.get(key);
+            MessageEvent patch = null;
+            if (previous != null) {
+                String diff = JsonMergePatch.diff(previous.document, document);
+                if (diff != null) {
+                    patch = new MessageEvent.Builder()
+                            .setEvent((event == null ? "message" : event) + PATCH_SUFFIX)
+                            .setData(diff)
+                            .build();
+                    if (patch.getByteLength() >= snapshot.getByteLength()) {
+                        patch = null;
+                    }
+                }
+            }
+            Version version = new Version(++lastVersion, document,
+                    previous == null ? new ArrayDeque<>() : previous.retained);
+            version.retained.addLast(snapshot);
+            if (version.retained.size() > retainedVersions) {
+                expired = version.retained.pollFirst();
+            }
+            deltas.put(snapshot, new Delta(key, version.number, previous == null ? 0 : previous.number, patch));
+            documents.put(key, version);
+        }
+        if (expired != null) {
+            deltas.remove(expired);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Forgets a document. The next update of the key is sent as a whole document to all the subscribers.
+     * @param key the key of the document
+     */
+    public void remove(String key) {
+        Version removed;
+        synchronized (this) {
+            removed = documents.remove(key);
+            if (removed != null) {
+                removals++;
+            }
+        }
+        if (removed != null) {
+            for (MessageEvent snapshot : removed.retained) {
+                deltas.remove(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Returns the delta information of a message returned by {@link #update(String, String, String)}
+     * @param messageEvent a broadcast message
+     * @return the delta information, or <code>null</code> if the message was not encoded by this instance, or its
+     * version is too old
+     */
+    Delta getDelta(MessageEvent messageEvent) {
+        return deltas.get(messageEvent);
+    }
+
+    /**
+     * Returns how many documents have been removed (see {@link #remove(String)}). It changes after the removed
+     * document is not contained anymore.
+     * @return the number of removed documents
+     */
+    long getRemovals() {
+        return removals;
+    }
+
+    /**
+     * Returns whether the encoding keeps the last version of a document
+     * @param key the key of the document
+     * @return <code>true</code> if the document has been updated, and not removed since
+     */
+    boolean contains(String key) {
+        return documents.containsKey(key);
+    }
+
+    /**
+     * Last version of a document
+     */
+    private static class Version {
+        private final long number;
+        private final JsonMergePatch.Document document;
+        // whole document messages of the retained versions, oldest first. Guarded by the DeltaEncoding
+        private final Deque<MessageEvent> retained;
+
+        Version(long number, JsonMergePatch.Document document, Deque<MessageEvent> retained) {
+            this.number = number;
+            this.document = document;
+            this.retained = retained;
+        }
+    }
+
+    /**
+     * Version of a document and, if any, the patch from its previous version
+     */
+    static class Delta {
+        final String key;
+        final long version;
+        final long previousVersion;
+        // null if the whole document must always be sent
+        final MessageEvent patch;
+
+        Delta(String key, long version, long previousVersion, MessageEvent patch) {
+            this.key = key;
+            this.version = version;
+            this.previousVersion = previousVersion;
+            this.patch = patch;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link EventTarget} decorator that writes the patch of a document encoded by a {@link DeltaEncoding}, instead of
+ * the whole document, if the previous version of the document was the last one written to the decorated target. The
+ * decision is taken when the message is written, so any message that is dropped or conflated before reaching the
+ * decorated target makes it get the whole document again.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class DeltaEventTarget implements EventTarget {
+
+    private final EventTarget delegate;
+    private final DeltaEncoding encoding;
+
+    // guarded by this. Last version of each document written to the decorated target, by key
+    private final Map<String, Long> written = new HashMap<>();
+    // written while holding the lock of this. Removals of the encoding whose documents are not in written anymore
+    private volatile long forgottenRemovals;
+
+    DeltaEventTarget(EventTarget delegate, DeltaEncoding encoding) {
+        this.delegate = delegate;
+        this.encoding = encoding;
+        this.forgottenRemovals = encoding.getRemovals();
+    }
+
+    /**
+     * Returns the decorated target
+     * @return the decorated target
+     */
+    EventTarget getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public DeltaEventTarget ok() {
+        delegate.ok();
+        return this;
+    }
+
+    @Override
+    public DeltaEventTarget open() throws IOException {
+        delegate.open();
+        return this;
+    }
+
+    @Override
+    public DeltaEventTarget send(String event, String data) throws IOException {
+        return send(new MessageEvent.Builder()
+                .setEvent(event)
+                .setData(data)
+                .build());
+    }
+
+    @Override
+    public DeltaEventTarget send(MessageEvent messageEvent) throws IOException {
+        DeltaEncoding.Delta delta = encoding.getDelta(messageEvent);
+        if (delta == null) {
+            delegate.send(messageEvent);
+            if (encoding.getRemovals() != forgottenRemovals) {
+                synchronized (this) {
+                    forgetRemovedDocuments();
+                }
+            }
+            return this;
+        }
+        // the check and the write must be atomic, as broadcasts may write concurrently outside fan-out mode
+        synchronized (this) {
+            Long last = written.get(delta.key);
+            boolean inSync = delta.patch != null && last != null && last == delta.previousVersion;
+            delegate.send(inSync ? delta.patch : messageEvent);
+            written.put(delta.key, delta.version);
+            forgetRemovedDocuments();
+        }
+        return this;
+    }
+
+    // invoked holding the lock of this, after any message. Only visits the written documents after some document
+    // has been removed
+    private void forgetRemovedDocuments() {
+        long removals = encoding.getRemovals();
+        if (removals != forgottenRemovals) {
+            forgottenRemovals = removals;
+            written.keySet().removeIf(key -> !encoding.contains(key));
+        }
+    }
+
+    /**
+     * Returns the number of documents whose last written version is remembered
+     * @return the number of documents
+     */
+    synchronized int getWrittenDocuments() {
+        return written.size();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return delegate.isWritable();
+    }
+
+    @Override
+    public void setWritableHandler(Runnable handler) {
+        delegate.setWritableHandler(handler);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -17,20 +17,110 @@ limitations under the License.
 package info.macias.sse;
 
 import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.BroadcastMetrics;
+import info.macias.sse.metrics.RemovalReason;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
- * This class implements a one-to-many connection for broadcasting messages across multiple subscribers.
+ * <p>This class implements a one-to-many connection for broadcasting messages across multiple subscribers.</p>
+ *
+ * <p>By default, the messages are sent to all the subscribers from the thread that invokes the
+ * {@link #broadcast(MessageEvent)} method, one after another. If an {@link Executor} is provided through the
+ * {@link Builder}, the broadcaster works in fan-out mode: each subscriber gets its own queue of outgoing messages,
+ * which is written from the executor threads, so the broadcast method returns immediately and a slow subscriber
+ * never delays the rest. The queues are bounded, and an {@link OverflowPolicy} decides what happens when a
+ * subscriber falls too far behind.</p>
+ *
+ * <p>If an {@link EventHistory} (e.g. a {@link ReplayBuffer}) is provided, the broadcaster stores the messages so
+ * the subscribers that reconnect can receive the messages they missed (see {@link #addSubscriber(EventTarget, String)}).</p>
+ *
+ * <p>If a {@link DeltaEncoding} is provided, the subscribers that are in sync with a JSON document receive only the
+ * changes of its new versions.</p>
+ *
+ * <p>If a {@link HeartbeatScheduler} is provided, the subscribers periodically receive keep-alive comments, and
+ * the ones whose connection failed are detached without waiting for the next broadcast.</p>
+ *
+ * <p>If a {@link BroadcastMetrics} listener is provided, it is notified of the broadcast messages, the writes to the
+ * subscribers and their latency, and the subscribers that are added and removed.</p>
  *
  * @author <a href="http://github.com/mariomac">Mario Macías</a>
  */
 public class EventBroadcast {
 
-    protected Queue<EventTarget> targets = new ConcurrentLinkedQueue<>();
+	// maximum number of threads that write the last messages to the subscribers on shutdown, outside fan-out mode
+	private static final int MAX_SHUTDOWN_THREADS = 16;
+
+	private final SubscriberRegistry targets = new SubscriberRegistry();
+
+	private final Executor executor;
+	// null outside fan-out mode
+	private final FanOutDispatcher fanOut;
+	private final int queueCapacity;
+	private final OverflowPolicy overflowPolicy;
+	private final MessageEvent disconnectMessage;
+	private final Function<MessageEvent, String> conflationKey;
+	private final Function<EventTarget, RateLimit> rateLimits;
+	private final Predicate<MessageEvent> highPriority;
+
+	private final HeartbeatScheduler heartbeat;
+
+	private final DeltaEncoding deltaEncoding;
+
+	private final BroadcastMetrics metrics;
+
+	private final EventHistory history;
+	// broadcasts hold the read lock, so replaying subscribers can't miss nor duplicate messages in the handover
+	private final ReadWriteLock replayLock = new ReentrantReadWriteLock();
+
+	private volatile Runnable writableHandler = null;
+	// subscribers that were found not accepting more messages, until they notify they can accept them again
+	private final Set<EventTarget> saturated = ConcurrentHashMap.newKeySet();
+
+	// no more subscribers are accepted
+	private volatile boolean shuttingDown = false;
+
+	/**
+	 * Instantiates a broadcaster that sends the messages to the subscribers from the thread that invokes the
+	 * broadcast methods.
+	 */
+	public EventBroadcast() {
+		this(new Builder());
+	}
+
+	/**
+	 * Instantiates a broadcaster with the configuration from the provided {@link Builder}
+	 * @param builder the configuration of the broadcaster
+	 */
+	protected EventBroadcast(Builder builder) {
+		this.executor = builder.executor;
+		this.fanOut = executor == null ? null : new FanOutDispatcher(executor, this::deliver);
+		this.queueCapacity = builder.queueCapacity;
+		this.overflowPolicy = builder.overflowPolicy;
+		this.disconnectMessage = builder.disconnectRetry == null ? null
+				: new MessageEvent.Builder().setRetry(builder.disconnectRetry).build();
+		this.conflationKey = builder.conflationKey;
+		this.rateLimits = builder.rateLimits;
+		this.highPriority = builder.highPriority;
+		this.history = builder.history;
+		this.heartbeat = builder.heartbeat;
+		this.deltaEncoding = builder.deltaEncoding;
+		this.metrics = builder.metrics;
+	}
 
 	/**
 	 * <p>Adds a subscriber from a <code>connectionRequest</code> that contains the information to allow sending back
@@ -42,7 +132,7 @@ public class EventBroadcast {
 	 * @throws IOException if there was an error during the acknowledge process between broadcaster and subscriber
 	 */
 	public void addSubscriber(EventTarget eventTarget) throws IOException {
-        targets.add(eventTarget.ok().open());
+        register(decorate(eventTarget.ok().open()));
     }
 
 	/**
@@ -58,17 +148,288 @@ public class EventBroadcast {
 	 *         if the subscriber immediately closed the connection before receiving the welcome message
 	 */
 	public void addSubscriber(EventTarget eventTarget, MessageEvent welcomeMessage) throws IOException {
-        targets.add(eventTarget.ok().open().send(welcomeMessage));
+        register(decorate(eventTarget.ok().open().send(welcomeMessage)));
     }
 
 	/**
-	 * Get total count of subscribers. Actual number of active subscribers may be less that this.
-	 * @return the size of the Set holding the subscribers
+	 * <p>Adds a subscriber that is reconnecting to the broadcaster, after having received the message with the
+	 * given 'id' field (as sent in the <code>Last-Event-ID</code> HTTP header).</p>
+	 *
+	 * <p>If the broadcaster has an {@link EventHistory} containing that message, the subscriber first receives all the
+	 * messages that were broadcast after it, and then starts receiving the new broadcast messages, without losing
+	 * nor duplicating any message in the handover. Broadcasts are blocked while the replayed messages are sent
+	 * (in fan-out mode, while they are queued). In fan-out mode, the queue capacity should be big enough to
+	 * accommodate the replayed messages.</p>
+	 *
+	 * @param eventTarget an event target to be subscribed to the broadcast messages
+	 * @param lastEventId the 'id' field of the last message received by the subscriber, or <code>null</code> if
+	 *                    this is not a reconnection
+	 * @return <code>true</code> if the subscriber has received all the messages it missed. <code>false</code>
+	 * if there is no replay buffer or the message with the given id is not in the buffer anymore, so the subscriber
+	 * may require some extra synchronization with the server-side state.
+	 * @throws IOException if there was an error during the acknowledge process between broadcaster and subscriber, or
+	 *         if the subscriber closed the connection while receiving the replayed messages
+	 */
+	public boolean addSubscriber(EventTarget eventTarget, String lastEventId) throws IOException {
+		EventTarget target = decorate(eventTarget.ok().open());
+		if (history == null || lastEventId == null) {
+			register(target);
+			return lastEventId == null;
+		}
+		replayLock.writeLock().lock();
+		try {
+			boolean replayed = history.replay(lastEventId, target);
+			register(target);
+			return replayed;
+		} finally {
+			replayLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Prepares an acknowledged and open event target to be stored in the collection of subscribers (e.g. attaching
+	 * it to its own queue of outgoing messages in fan-out mode).
+	 * @param eventTarget the subscriber, as provided by the user
+	 * @return the event target to be stored in the collection of subscribers
+	 * @throws IOException if the broadcaster is shutting down. Then, the event target is closed
+	 */
+	EventTarget decorate(EventTarget eventTarget) throws IOException {
+		if (shuttingDown) {
+			eventTarget.close();
+			throw new IOException("Broadcaster is shutting down");
+		}
+		RateLimit rateLimit = rateLimits == null ? null : rateLimits.apply(eventTarget);
+		if (metrics != BroadcastMetrics.NOOP) {
+			eventTarget = new MeteredEventTarget(eventTarget, metrics);
+		}
+		if (deltaEncoding != null) {
+			// under the rate limit, so a message it drops makes the subscriber get the next whole document
+			eventTarget = new DeltaEventTarget(eventTarget, deltaEncoding);
+		}
+		if (rateLimit != null) {
+			eventTarget = new RateLimitedEventTarget(eventTarget, rateLimit, metrics, highPriority);
+		}
+		return executor == null ? eventTarget
+				: new AsyncEventTarget(eventTarget, executor, queueCapacity, overflowPolicy, disconnectMessage, metrics,
+						conflationKey, highPriority);
+	}
+
+	/**
+	 * Stores an event target in the collection of subscribers.
+	 * @param eventTarget the subscriber, as returned by {@link #decorate(EventTarget)}
+	 * @throws IOException if the broadcaster is shutting down. Then, the event target is closed
+	 */
+	void register(EventTarget eventTarget) throws IOException {
+		if (eventTarget instanceof AsyncEventTarget) {
+			((AsyncEventTarget) eventTarget).setDrainHandler(() -> subscriberWritable(eventTarget));
+		} else {
+			eventTarget.setWritableHandler(() -> subscriberWritable(eventTarget));
+		}
+		if (!targets.add(eventTarget)) {
+			return;
+		}
+		// checked after adding, so the subscriber is either taken by the shutdown or removed here
+		if (shuttingDown && targets.remove(eventTarget)) {
+			eventTarget.close();
+			throw new IOException("Broadcaster is shutting down");
+		}
+		metrics.subscriberAdded();
+		if (heartbeat != null) {
+			heartbeat.register(eventTarget,
+					() -> detach(eventTarget, failureReason(eventTarget, RemovalReason.HEARTBEAT_FAILED)));
+		}
+	}
+
+	/**
+	 * Removes an event target from the collection of subscribers.
+	 * @param eventTarget the subscriber, as stored in the collection of subscribers
+	 * @param reason why the subscriber is removed
+	 * @return <code>true</code> if the event target was in the collection of subscribers
+	 */
+	boolean detach(EventTarget eventTarget, RemovalReason reason) {
+		if (!targets.remove(eventTarget)) {
+			return false;
+		}
+		detached(eventTarget, reason);
+		return true;
+	}
+
+	// cleans up a subscriber that has just been removed from the collection of subscribers
+	private void detached(EventTarget eventTarget, RemovalReason reason) {
+		if (heartbeat != null) {
+			heartbeat.unregister(eventTarget);
+		}
+		metrics.subscriberRemoved(reason);
+		subscriberDetached(eventTarget);
+		subscriberWritable(eventTarget);
+	}
+
+	/**
+	 * Returns why sending a message to a subscriber failed
+	 * @param eventTarget the subscriber, as stored in the collection of subscribers
+	 * @param reason the reason to report if the failure was not caused by the queue of the subscriber being full
+	 * @return the reason of the failure
+	 */
+	static RemovalReason failureReason(EventTarget eventTarget, RemovalReason reason) {
+		return eventTarget instanceof AsyncEventTarget && ((AsyncEventTarget) eventTarget).isOverflowed()
+				? RemovalReason.QUEUE_OVERFLOW : reason;
+	}
+
+	/**
+	 * Returns the listener that is notified of the activity of the broadcaster
+	 * @return the metrics listener, or {@link BroadcastMetrics#NOOP} if the broadcaster is not instrumented
+	 */
+	BroadcastMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the event target, as provided by the user, from the event target stored in the collection of
+	 * subscribers.
+	 * @param eventTarget the subscriber, as stored in the collection of subscribers
+	 * @return the subscriber, as provided by the user
+	 */
+	static EventTarget undecorate(EventTarget eventTarget) {
+		if (eventTarget instanceof AsyncEventTarget) {
+			eventTarget = ((AsyncEventTarget) eventTarget).getDelegate();
+		}
+		if (eventTarget instanceof RateLimitedEventTarget) {
+			eventTarget = ((RateLimitedEventTarget) eventTarget).getDelegate();
+		}
+		if (eventTarget instanceof DeltaEventTarget) {
+			eventTarget = ((DeltaEventTarget) eventTarget).getDelegate();
+		}
+		if (eventTarget instanceof MeteredEventTarget) {
+			eventTarget = ((MeteredEventTarget) eventTarget).getDelegate();
+		}
+		return eventTarget;
+	}
+
+	/**
+	 * Get total count of subscribers, in constant time. Actual number of active subscribers may be less that this.
+	 * @return the number of subscribers
 	 */
 	public int getSubscriberCount() {
 		return targets.size();
 	}
 
+	/**
+	 * Returns the subscribers at the moment of the invocation, as stored in the collection of subscribers (that is,
+	 * wrapped by the broadcaster in fan-out mode, or when they are rate-limited, metered or delta-encoded). The
+	 * returned array is shared by all the invocations until the subscribers change, so it must not be modified.
+	 * The first invocation after a subscriber is added or removed copies all the subscribers into a new array.
+	 * @return the subscribers
+	 */
+	protected EventTarget[] getSubscribers() {
+		return targets.snapshot();
+	}
+
+	/**
+	 * <p>Returns the number of messages that have been broadcast but not yet written to each subscriber.</p>
+	 *
+	 * <p>In fan-out mode, this is the current size of each subscriber's queue. Otherwise, the messages are written
+	 * during the broadcast and the depth of all the subscribers is always zero.</p>
+	 * @return a snapshot of the queue depth of each subscriber
+	 */
+	public Map<EventTarget, Integer> getQueueDepths() {
+		Map<EventTarget, Integer> depths = new HashMap<>();
+		for (EventTarget target : targets.snapshot()) {
+			depths.put(undecorate(target),
+					target instanceof AsyncEventTarget ? ((AsyncEventTarget) target).getQueueDepth() : 0);
+		}
+		return depths;
+	}
+
+	/**
+	 * <p>Returns how many more messages can be broadcast before a subscriber can't accept them. Sources that can be
+	 * paused (e.g. a reactive stream) can use it to follow the pace of the slowest subscriber, instead of overflowing
+	 * its queue.</p>
+	 *
+	 * <p>In fan-out mode, this is the free space of the fullest subscriber queue. Otherwise, it is 1 if all the
+	 * subscribers are writable (see {@link EventTarget#isWritable()}) and 0 if any of them is not.</p>
+	 *
+	 * <p>The subscribers that can't accept more messages are remembered, so while any of them is still full, this
+	 * method returns 0 in constant time instead of visiting all the subscribers again.</p>
+	 * @return the number of messages that all the subscribers can accept, or {@link Integer#MAX_VALUE} if there
+	 * are no subscribers
+	 */
+	public int getRemainingCapacity() {
+		if (!saturated.isEmpty()) {
+			return 0;
+		}
+		int remaining = Integer.MAX_VALUE;
+		boolean full = false;
+		for (EventTarget target : targets.snapshot()) {
+			int capacity = remainingCapacity(target);
+			if (capacity == 0) {
+				capacity = saturate(target);
+			}
+			if (capacity == 0) {
+				// keeps looking for the rest of full subscribers, so they don't need to be found one by one
+				full = true;
+			} else {
+				remaining = Math.min(remaining, capacity);
+			}
+		}
+		return full ? 0 : remaining;
+	}
+
+	private static int remainingCapacity(EventTarget target) {
+		if (target instanceof AsyncEventTarget) {
+			return ((AsyncEventTarget) target).getRemainingCapacity();
+		}
+		return target.isWritable() ? 1 : 0;
+	}
+
+	/**
+	 * Remembers a subscriber that can't accept more messages, until it notifies that it can accept them again, or
+	 * it is detached.
+	 * @param target the subscriber, as stored in the collection of subscribers
+	 * @return the number of messages that the subscriber can accept: 0, unless it was drained or detached before
+	 * being remembered (then, it is not remembered)
+	 */
+	private int saturate(EventTarget target) {
+		saturated.add(target);
+		// a notification or a detachment before being added would have not removed it
+		int capacity = remainingCapacity(target);
+		if (capacity > 0) {
+			saturated.remove(target);
+			return capacity;
+		}
+		if (!targets.contains(target)) {
+			saturated.remove(target);
+			return Integer.MAX_VALUE;
+		}
+		return 0;
+	}
+
+	/**
+	 * Sets the handler that is invoked when the subscribers may accept more messages, after
+	 * {@link #getRemainingCapacity()} has returned 0: when all the subscribers that were full have written messages
+	 * of their queue (in fan-out mode) or have become writable again (otherwise), or have been detached or closed.
+	 * The handler is invoked from the executor threads, or from the threads that notify the writability of the
+	 * subscribers, so it must not block. Together with {@link #getRemainingCapacity()}, it allows resuming a source
+	 * that was paused.
+	 * @param handler the handler. May be <code>null</code>
+	 */
+	public void setWritableHandler(Runnable handler) {
+		this.writableHandler = handler;
+	}
+
+	// the subscriber may accept more messages, or it has been detached
+	private void subscriberWritable(EventTarget eventTarget) {
+		if (saturated.remove(eventTarget) && saturated.isEmpty()) {
+			notifyWritable();
+		}
+	}
+
+	private void notifyWritable() {
+		Runnable handler = writableHandler;
+		if (handler != null) {
+			handler.run();
+		}
+	}
+
 	/**
 	 * Returns true if subscriber count is greater than zero
 	 * @return true if subscriber count is greater than zero
@@ -101,33 +462,429 @@ public class EventBroadcast {
 	 * {@link IOException}, the broadcaster assumes the subscriber went offline and silently detaches it
 	 * from the collection of subscribers.</p>
 	 *
+	 * <p>In fan-out mode, this method only queues the message for each subscriber and returns without waiting for
+	 * the messages to be written. The subscribers whose connection failed are detached in the next broadcast. If
+	 * there are many subscribers, even the queueing is handed over to the executor, which queues the message for
+	 * chunks of subscribers in parallel, so this method returns in constant time. Then, the message may not be
+	 * queued yet when this method returns, but the messages are always queued in the order they were broadcast.</p>
+	 *
 	 * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
 	 */
 	public void broadcast(MessageEvent messageEvent) {
-        for (Iterator<EventTarget> it = targets.iterator(); it.hasNext(); ) {
-            EventTarget dispatcher = it.next();
+		metrics.messageBroadcast();
+		if (history == null) {
+			send(messageEvent);
+			return;
+		}
+		replayLock.readLock().lock();
+		try {
+			try {
+				history.append(messageEvent);
+			} finally {
+				// the message is delivered even if the history could not store it
+				send(messageEvent);
+			}
+		} finally {
+			replayLock.readLock().unlock();
+		}
+	}
+
+	// invoked holding the read lock of the replay, so the snapshot and the history always match
+	private void send(MessageEvent messageEvent) {
+		EventTarget[] subscribers = targets.snapshot();
+		// a few subscribers are visited faster than handing the message over, unless that would overtake a message
+		// that is still being dispatched
+		if (fanOut != null && (subscribers.length > FanOutDispatcher.CHUNK_SIZE || !fanOut.isIdle())) {
+			fanOut.dispatch(messageEvent, subscribers);
+		} else {
+			deliver(messageEvent, subscribers, 0, subscribers.length);
+		}
+	}
+
+	private void deliver(MessageEvent messageEvent, EventTarget[] subscribers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            EventTarget dispatcher = subscribers[i];
             try {
-                dispatcher.send(messageEvent);
+                sendTo(dispatcher, messageEvent);
             } catch (IOException e) {
                 // Client disconnected. Removing from targets
-                it.remove();
+                detach(dispatcher, failureReason(dispatcher, RemovalReason.SEND_FAILED));
             }
         }
     }
 
+	/**
+	 * Sends a message to a subscriber. If the subscriber is not writable (see {@link EventTarget#isWritable()}),
+	 * the message is discarded or, with the {@link OverflowPolicy#DISCONNECT} policy, the subscriber is
+	 * disconnected and detached. High priority messages are always sent.
+	 * @param eventTarget the subscriber, as stored in the collection of subscribers
+	 * @param messageEvent the message to send
+	 * @throws IOException if sending the message failed
+	 */
+	void sendTo(EventTarget eventTarget, MessageEvent messageEvent) throws IOException {
+		if (eventTarget.isWritable() || highPriority != null && highPriority.test(messageEvent)) {
+			eventTarget.send(messageEvent);
+		} else if (overflowPolicy != OverflowPolicy.DISCONNECT) {
+			metrics.messageDropped();
+		} else if (detach(eventTarget, RemovalReason.QUEUE_OVERFLOW)) {
+			if (disconnectMessage != null) {
+				try {
+					eventTarget.send(disconnectMessage);
+				} catch (IOException e) {
+					// closing anyway
+				}
+			}
+			eventTarget.close();
+		}
+	}
+
+	/**
+	 * Invoked after a subscriber has been removed from the collection of subscribers, because its connection
+	 * failed. Subclasses keeping extra information about the subscribers may override it.
+	 * @param eventTarget the detached subscriber, as it was stored in the collection of subscribers
+	 */
+	protected void subscriberDetached(EventTarget eventTarget) {
+	}
+
 	/**
 	 * Closes all the connections between the broadcaster and the subscribers, and detaches all of them from the
-	 * collection of subscribers.
+	 * collection of subscribers. The messages still queued for them are discarded: see
+	 * {@link #shutdown(int, long, TimeUnit)} to close them gracefully.
 	 */
 	public void close() {
-        for (EventTarget d : targets) {
+        for (EventTarget d : targets.clear()) {
+            if (heartbeat != null) {
+                heartbeat.unregister(d);
+            }
+            metrics.subscriberRemoved(RemovalReason.CLOSED);
             try {
                 d.close();
             } catch (Exception e) {
                 // Uncontrolled exception when closing a dispatcher. Removing anyway and ignoring.
             }
         }
-        targets.clear();
+        releaseSaturated();
     }
-}
 
+	// no subscriber is going to notify it accepts more messages: a source paused by them must be resumed anyway
+	private void releaseSaturated() {
+		if (!saturated.isEmpty()) {
+			saturated.clear();
+			notifyWritable();
+		}
+	}
+
+	/**
+	 * <p>Gracefully disconnects all the subscribers, so they don't reconnect at the same time (e.g. to the remaining
+	 * nodes of a cluster, while this one is being redeployed). From the invocation of this method, no more
+	 * subscribers are accepted: adding a subscriber throws an {@link IOException}.</p>
+	 *
+	 * <p>Each subscriber receives the messages that are still queued for it, and a last message with a 'retry'
+	 * field, which tells the client how long to wait before reconnecting. The 'retry' values are staggered over
+	 * <code>maxRetry</code> milliseconds, so the reconnections are spread evenly over that time. Then, the subscriber
+	 * is closed. In fan-out mode, the subscribers are drained from the executor. Otherwise, they are written and
+	 * closed in parallel from temporary threads.</p>
+	 *
+	 * <p>The subscribers that have not been closed when the timeout expires are closed immediately, discarding their
+	 * pending messages, even if a thread is blocked writing to them (outside fan-out mode, the threads writing to
+	 * them are also interrupted).</p>
+	 *
+	 * @param maxRetry the maximum 'retry' value sent to the subscribers, in milliseconds
+	 * @param timeout the maximum time to wait for the subscribers to be drained
+	 * @param unit the unit of the timeout
+	 * @return <code>true</code> if all the subscribers were drained before the timeout expired
+	 * @throws InterruptedException if the invoking thread is interrupted while waiting. The subscribers are closed
+	 * immediately anyway
+	 */
+	public boolean shutdown(int maxRetry, long timeout, TimeUnit unit) throws InterruptedException {
+		if (maxRetry < 0) {
+			throw new IllegalArgumentException("maxRetry can't be negative: " + maxRetry);
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		shuttingDown = true;
+		EventTarget[] subscribers = targets.clear();
+		CountDownLatch drained = new CountDownLatch(subscribers.length);
+		// 1 for the synchronous subscribers already closed, by their writer or at the deadline
+		AtomicIntegerArray closed = new AtomicIntegerArray(subscribers.length);
+		ExecutorService writers = null;
+		for (int i = 0; i < subscribers.length; i++) {
+			EventTarget eventTarget = subscribers[i];
+			if (heartbeat != null) {
+				heartbeat.unregister(eventTarget);
+			}
+			MessageEvent lastMessage = new MessageEvent.Builder()
+					.setRetry((int) ((long) maxRetry * (i + 1) / subscribers.length))
+					.build();
+			if (eventTarget instanceof AsyncEventTarget) {
+				((AsyncEventTarget) eventTarget).drainAndClose(lastMessage, drained::countDown);
+				continue;
+			}
+			if (writers == null) {
+				writers = Executors.newFixedThreadPool(Math.min(subscribers.length, MAX_SHUTDOWN_THREADS));
+			}
+			int index = i;
+			writers.execute(() -> {
+				try {
+					eventTarget.send(lastMessage);
+				} catch (IOException e) {
+					// Client disconnected. Closing anyway
+				} finally {
+					closeOnce(eventTarget, closed, index);
+					drained.countDown();
+				}
+			});
+		}
+		boolean completed = false;
+		try {
+			completed = drained.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} finally {
+			if (writers != null) {
+				if (completed) {
+					writers.shutdown();
+				} else {
+					writers.shutdownNow();
+				}
+			}
+			for (int i = 0; i < subscribers.length; i++) {
+				if (!completed) {
+					// closing the connection releases a writer blocked in a send, which is not interrupted
+					if (subscribers[i] instanceof AsyncEventTarget) {
+						subscribers[i].close();
+					} else {
+						closeOnce(subscribers[i], closed, i);
+					}
+				}
+				metrics.subscriberRemoved(RemovalReason.CLOSED);
+			}
+			// releases whatever subclasses keep about the subscribers
+			close();
+		}
+		return completed;
+	}
+
+	private static void closeOnce(EventTarget eventTarget, AtomicIntegerArray closed, int index) {
+		if (closed.compareAndSet(index, 0, 1)) {
+			try {
+				eventTarget.close();
+			} catch (Exception e) {
+				// Uncontrolled exception when closing a dispatcher. Ignoring
+			}
+		}
+	}
+
+	/**
+	 * Helper class used to build a configured {@link EventBroadcast} instance.
+	 */
+	public static class Builder {
+		/**
+		 * Default maximum number of pending messages for each subscriber, in fan-out mode.
+		 */
+		public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+		/**
+		 * Default value of the 'retry' field of the message sent to the subscribers that are disconnected
+		 * by the {@link OverflowPolicy#DISCONNECT} policy, in milliseconds.
+		 */
+		public static final int DEFAULT_DISCONNECT_RETRY = 3000;
+
+		private Executor executor = null;
+		private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+		private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+		private Integer disconnectRetry = DEFAULT_DISCONNECT_RETRY;
+		private Function<MessageEvent, String> conflationKey = null;
+		private Function<EventTarget, RateLimit> rateLimits = null;
+		private Predicate<MessageEvent> highPriority = null;
+		private EventHistory history = null;
+		private HeartbeatScheduler heartbeat = null;
+		private DeltaEncoding deltaEncoding = null;
+		private BroadcastMetrics metrics = BroadcastMetrics.NOOP;
+
+		/**
+		 * Enables the fan-out mode, in which the messages are written to the subscribers from the threads of the
+		 * provided {@link Executor}. Messages to the same subscriber are always written in order and never
+		 * concurrently, while different subscribers are written in parallel. A pool with as many threads as
+		 * available cores is a sensible choice for non-blocking targets; blocking targets (e.g. servlets) may need
+		 * bigger pools to keep the slowest subscribers from using all the threads.
+		 * @param executor the executor that writes the messages to the subscribers, or <code>null</code> to write
+		 *                 them from the thread invoking the broadcast methods (default)
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setExecutor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of messages that can be queued for each subscriber in fan-out mode. When a
+		 * message is broadcast to a subscriber whose queue is full, the {@link OverflowPolicy} is applied.
+		 * Defaults to {@link #DEFAULT_QUEUE_CAPACITY}.
+		 * @param queueCapacity the maximum number of pending messages for each subscriber
+		 * @return The same target instance where the method has been invoked on.
+		 * @throws IllegalArgumentException if the capacity is not positive
+		 */
+		public Builder setQueueCapacity(int queueCapacity) {
+			if (queueCapacity <= 0) {
+				throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+			}
+			this.queueCapacity = queueCapacity;
+			return this;
+		}
+
+		/**
+		 * Sets what to do when a message is broadcast to a subscriber whose queue is full, in fan-out mode, or to
+		 * a subscriber that is not writable (see {@link EventTarget#isWritable()}), otherwise. In the latter case,
+		 * {@link OverflowPolicy#DROP_OLDEST} and {@link OverflowPolicy#DROP_NEWEST} both discard the new message.
+		 * Defaults to {@link OverflowPolicy#DISCONNECT}.
+		 * @param overflowPolicy the policy for subscribers whose queue is full
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+			if (overflowPolicy == null) {
+				throw new NullPointerException("overflowPolicy");
+			}
+			this.overflowPolicy = overflowPolicy;
+			return this;
+		}
+
+		/**
+		 * Sets the 'retry' field of the last message sent to the subscribers that are disconnected by the
+		 * {@link OverflowPolicy#DISCONNECT} policy, that is the time (in milliseconds) that the client must wait
+		 * before reconnecting. Defaults to {@link #DEFAULT_DISCONNECT_RETRY}.
+		 * @param disconnectRetry the reconnection time hint, or <code>null</code> to close the connection without
+		 *                        sending any message
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setDisconnectRetry(Integer disconnectRetry) {
+			this.disconnectRetry = disconnectRetry;
+			return this;
+		}
+
+		/**
+		 * Enables the conflation of the pending messages in fan-out mode. When a message is broadcast to a subscriber
+		 * that still has a pending message with the same conflation key, the new message replaces the pending one in
+		 * its position of the queue, so subscribers that lag behind receive only the latest message of each key
+		 * (e.g. the latest price of each stock) and their queues don't grow with outdated values. Messages whose
+		 * key is <code>null</code> are always queued. The function is invoked once per message and subscriber, so
+		 * it should be cheap (e.g. returning the 'event' field).
+		 * @param conflationKey function that returns the conflation key of each message, or <code>null</code> to
+		 *                      disable conflation (default)
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setConflationKey(Function<MessageEvent, String> conflationKey) {
+			this.conflationKey = conflationKey;
+			return this;
+		}
+
+		/**
+		 * Sets which messages have high priority (e.g. control messages such as "reload now" or "session revoked").
+		 * In fan-out mode, each subscriber has a separate queue for the high priority messages, with the same
+		 * capacity and overflow policy, and its messages are written before any normal message, so they never wait
+		 * behind a flood of bulk messages (they may still wait behind the bytes that were already written into the
+		 * connection). High priority messages are never conflated nor rate-limited, and they are written even to
+		 * the subscribers that are not writable (see {@link EventTarget#isWritable()}).
+		 * @param highPriority predicate that returns whether a message has high priority, or <code>null</code> to send
+		 *                     all the messages in order (default). It should be cheap, since it is invoked once per
+		 *                     message and subscriber
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setHighPriority(Predicate<MessageEvent> highPriority) {
+			this.highPriority = highPriority;
+			return this;
+		}
+
+		/**
+		 * Limits the rate of messages sent to each subscriber of the broadcaster. Each subscriber has its own token
+		 * bucket, so a slow subscriber does not affect the rate of the others.
+		 * @param rateLimit the rate limit of all the subscribers, or <code>null</code> to disable rate limiting
+		 *                  (default)
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setRateLimit(RateLimit rateLimit) {
+			this.rateLimits = rateLimit == null ? null : target -> rateLimit;
+			return this;
+		}
+
+		/**
+		 * Limits the rate of messages sent to each subscriber, with a different limit for each class of subscribers
+		 * (e.g. dashboards that can't render more than 10 updates per second). The function is invoked once, when
+		 * the subscriber is added, with the event target as provided to the broadcaster.
+		 * @param rateLimits function that returns the rate limit of a subscriber, or <code>null</code> if the
+		 *                   subscriber is not limited
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setRateLimits(Function<EventTarget, RateLimit> rateLimits) {
+			this.rateLimits = rateLimits;
+			return this;
+		}
+
+		/**
+		 * Sets the buffer where the most recent broadcast messages are kept, to be replayed to the subscribers that
+		 * reconnect (see {@link EventBroadcast#addSubscriber(EventTarget, String)}). Only the messages with the 'id'
+		 * field can be used as the starting point of a replay. The buffer should not be shared with other
+		 * broadcasters. Equivalent to {@link #setHistory(EventHistory)}.
+		 * @param replayBuffer the buffer of recent messages, or <code>null</code> to disable replay (default)
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setReplayBuffer(ReplayBuffer replayBuffer) {
+			return setHistory(replayBuffer);
+		}
+
+		/**
+		 * Sets where the broadcast messages are stored, to be replayed to the subscribers that reconnect (see
+		 * {@link EventBroadcast#addSubscriber(EventTarget, String)}): e.g. a {@link ReplayBuffer} in memory, or a
+		 * {@link info.macias.sse.history.MappedEventLog} that survives restarts. Only the messages with the 'id'
+		 * field can be used as the starting point of a replay. The history should not be shared with other
+		 * broadcasters.
+		 * @param history the storage of broadcast messages, or <code>null</code> to disable replay (default)
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setHistory(EventHistory history) {
+			this.history = history;
+			return this;
+		}
+
+		/**
+		 * Sets the scheduler that periodically sends keep-alive comments to the subscribers. The subscribers whose
+		 * connection fails when receiving a keep-alive comment are detached immediately. The scheduler can be
+		 * shared by many broadcasters, and it is not closed when the broadcaster is closed.
+		 * @param heartbeat the keep-alive scheduler, or <code>null</code> to disable keep-alive comments (default)
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setHeartbeat(HeartbeatScheduler heartbeat) {
+			this.heartbeat = heartbeat;
+			return this;
+		}
+
+		/**
+		 * Enables the delta mode: the documents encoded by the given {@link DeltaEncoding} are sent as JSON merge
+		 * patches to the subscribers that received their previous version, and as whole documents to the rest.
+		 * The rest of the messages are sent as they are.
+		 * @param deltaEncoding the encoding of the broadcast documents, or <code>null</code> to disable the delta
+		 *                      mode (default)
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setDeltaEncoding(DeltaEncoding deltaEncoding) {
+			this.deltaEncoding = deltaEncoding;
+			return this;
+		}
+
+		/**
+		 * Sets the listener that is notified of the activity of the broadcaster and its subscribers (e.g. an
+		 * {@link info.macias.sse.metrics.InMemoryMetrics} instance). The time spent writing each message is only
+		 * measured when a listener is set.
+		 * @param metrics the metrics listener, or <code>null</code> to disable the metrics (default)
+		 * @return The same target instance where the method has been invoked on.
+		 */
+		public Builder setMetrics(BroadcastMetrics metrics) {
+			this.metrics = metrics == null ? BroadcastMetrics.NOOP : metrics;
+			return this;
+		}
+
+		/**
+		 * Instantiates a {@link EventBroadcast} object with the configuration of the Builder object.
+		 * @return the {@link EventBroadcast} instance
+		 */
+		public EventBroadcast build() {
+			return new EventBroadcast(this);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+
+/**
+ * <p>Storage of the messages sent by an {@link EventBroadcast}, indexed by their 'id' field, so the subscribers
+ * that reconnect with a <code>Last-Event-ID</code> header can receive the messages they missed.</p>
+ *
+ * <p>{@link ReplayBuffer} keeps the most recent messages in memory. {@link info.macias.sse.history.MappedEventLog}
+ * keeps them in memory-mapped files, so they can be replayed after the server restarts.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public interface EventHistory {
+
+    /**
+     * Stores a message.
+     * @param messageEvent the message to store
+     */
+    void append(MessageEvent messageEvent);
+
+    /**
+     * Sends to a subscriber the messages that were stored after the message with the given id, in the same order as
+     * they were stored.
+     * @param lastEventId the 'id' field of the last message received by the subscriber
+     * @param eventTarget the subscriber
+     * @return <code>true</code> if the subscriber has received all the messages stored after the given id.
+     * <code>false</code> if there is no message with such id (e.g. it is too old and was discarded), so nothing was
+     * sent, or some of the messages to replay were discarded while they were being sent.
+     * @throws IOException if the connection of the subscriber failed while receiving the messages
+     */
+    boolean replay(String lastEventId, EventTarget eventTarget) throws IOException;
+}
@@ -66,6 +66,26 @@ public interface EventTarget {
 	 */
 	EventTarget send(MessageEvent messageEvent) throws IOException;
 
+	/**
+	 * Returns whether the target can accept more messages without buffering them beyond its limits. Targets that
+	 * write asynchronously (e.g. Vert.x) return <code>false</code> while the client does not read as fast as the
+	 * messages are sent, so the broadcaster can skip or disconnect the subscriber instead of accumulating its
+	 * messages in memory.
+	 * @return <code>true</code> if the target can accept more messages. The default implementation always
+	 * returns <code>true</code>
+	 */
+	default boolean isWritable() {
+		return true;
+	}
+
+	/**
+	 * Sets the handler to be invoked when the target becomes writable again, after {@link #isWritable()} has
+	 * returned <code>false</code>. The default implementation ignores it, as the target is always writable.
+	 * @param handler the handler, that may be invoked from any thread
+	 */
+	default void setWritableHandler(Runnable handler) {
+	}
+
 	/**
 	 * Closes the connection between the server and the client.
 	 */
@@ -0,0 +1,150 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues the broadcast messages for the subscribers from the executor threads, in fan-out mode, so the thread that
+ * broadcasts a message to many subscribers does not visit each of them.
+ *
+ * <p>The messages are dispatched one after another, in the same order as they were handed over, so every subscriber
+ * receives them in that order. The subscribers of each message are split in chunks of {@link #CHUNK_SIZE}, which
+ * are dispatched in parallel from the executor threads. The next message is dispatched once all the chunks of the
+ * previous one are done.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class FanOutDispatcher {
+
+    /**
+     * Maximum number of subscribers that are visited by each executor task
+     */
+    static final int CHUNK_SIZE = 128;
+
+    /**
+     * Sends a message to some of the subscribers of a snapshot
+     */
+    interface Delivery {
+        void deliver(MessageEvent messageEvent, EventTarget[] subscribers, int from, int to);
+    }
+
+    private final Executor executor;
+    private final Delivery delivery;
+
+    private final Queue<Dispatch> pending = new ConcurrentLinkedQueue<>();
+    // a task is dispatching the pending messages, or the chunks of one of them
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    FanOutDispatcher(Executor executor, Delivery delivery) {
+        this.executor = executor;
+        this.delivery = delivery;
+    }
+
+    /**
+     * Returns whether all the messages handed over have been dispatched. Then, a message can be sent directly to
+     * the subscribers, without breaking the order of the messages handed over before from the same thread.
+     * @return <code>true</code> if there are no messages being dispatched
+     */
+    boolean isIdle() {
+        return !running.get() && pending.isEmpty();
+    }
+
+    /**
+     * Hands a message over to the executor, to be sent to the given subscribers
+     * @param messageEvent the message
+     * @param subscribers the subscribers at the moment of the broadcast. The array is not modified
+     */
+    void dispatch(MessageEvent messageEvent, EventTarget[] subscribers) {
+        pending.add(new Dispatch(messageEvent, subscribers));
+        schedule();
+    }
+
+    private void schedule() {
+        if (!pending.isEmpty() && running.compareAndSet(false, true)) {
+            execute(this::run);
+        }
+    }
+
+    private void run() {
+        boolean handedOver = false;
+        try {
+            Dispatch dispatch;
+            while ((dispatch = pending.poll()) != null) {
+                int length = dispatch.subscribers.length;
+                if (length <= CHUNK_SIZE) {
+                    delivery.deliver(dispatch.messageEvent, dispatch.subscribers, 0, length);
+                    continue;
+                }
+                // the task that completes the last chunk dispatches the next messages
+                AtomicInteger remaining = new AtomicInteger((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+                handedOver = true;
+                for (int from = CHUNK_SIZE; from < length; from += CHUNK_SIZE) {
+                    Dispatch chunked = dispatch;
+                    int chunk = from;
+                    execute(() -> deliverChunk(chunked, chunk, remaining));
+                }
+                deliverChunk(dispatch, 0, remaining);
+                return;
+            }
+        } finally {
+            if (!handedOver) {
+                running.set(false);
+                // a message may have been handed over after the last poll
+                schedule();
+            }
+        }
+    }
+
+    private void deliverChunk(Dispatch dispatch, int from, AtomicInteger remaining) {
+        try {
+            delivery.deliver(dispatch.messageEvent, dispatch.subscribers, from,
+                    Math.min(from + CHUNK_SIZE, dispatch.subscribers.length));
+        } finally {
+            if (remaining.decrementAndGet() == 0) {
+                execute(this::run);
+            }
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The executor is not accepting more tasks (e.g. it is shutting down). The subscribers disconnect
+            // themselves when their own writes are rejected
+            task.run();
+        }
+    }
+
+    private static class Dispatch {
+        final MessageEvent messageEvent;
+        final EventTarget[] subscribers;
+
+        Dispatch(MessageEvent messageEvent, EventTarget[] subscribers) {
+            this.messageEvent = messageEvent;
+            this.subscribers = subscribers;
+        }
+    }
+}
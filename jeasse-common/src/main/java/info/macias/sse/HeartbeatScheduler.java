@@ -0,0 +1,184 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Sends periodic keep-alive comments to the registered {@link EventTarget}s, and detects the dead connections
+ * as soon as writing a keep-alive comment fails, without waiting for the next broadcast message.</p>
+ *
+ * <p>The targets are spread by hash across the buckets of a hashed wheel. On each tick, only the targets of one
+ * bucket receive a keep-alive comment, so each target receives one comment per interval, and the cost of a tick does
+ * not depend on the total number of targets. A single scheduler, with a single scheduled task, can be shared by
+ * many broadcasters and thousands of targets.</p>
+ *
+ * <p>Keep-alive comments are written from the scheduler thread. Blocking targets (e.g. servlets) should be
+ * registered through an {@link EventBroadcast} in fan-out mode, so a stalled connection does not delay the
+ * keep-alive comments of the rest.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class HeartbeatScheduler implements AutoCloseable {
+
+    /**
+     * Default number of buckets of the wheel
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 64;
+
+    /**
+     * Keep-alive message, containing only an empty comment.
+     */
+    public static final MessageEvent HEARTBEAT = new MessageEvent.Builder().setComment("").build();
+
+    // registered targets, and the action to run if writing to them fails
+    private final ConcurrentMap<EventTarget, Runnable>[] wheel;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final ScheduledFuture<?> tickTask;
+    private int cursor = 0;
+
+    /**
+     * Instantiates a heartbeat scheduler with {@link #DEFAULT_WHEEL_SIZE} buckets and its own scheduler thread.
+     * @param interval the time between two keep-alive comments to the same target
+     * @param unit the time unit of the interval
+     */
+    public HeartbeatScheduler(long interval, TimeUnit unit) {
+        this(Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "jeasse-heartbeat");
+            t.setDaemon(true);
+            return t;
+        }), true, interval, unit, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Instantiates a heartbeat scheduler
+     * @param scheduler the scheduler that runs the ticks of the wheel. It is not shut down when this
+     *                  heartbeat scheduler is closed
+     * @param interval the time between two keep-alive comments to the same target
+     * @param unit the time unit of the interval
+     * @param wheelSize the number of buckets of the wheel. The scheduler ticks <code>wheelSize</code> times per
+     *                  interval.
+     */
+    public HeartbeatScheduler(ScheduledExecutorService scheduler, long interval, TimeUnit unit, int wheelSize) {
+        this(scheduler, false, interval, unit, wheelSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private HeartbeatScheduler(ScheduledExecutorService scheduler, boolean ownScheduler,
+                               long interval, TimeUnit unit, int wheelSize) {
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("Wheel size must be positive: " + wheelSize);
+        }
+        long tickNanos = unit.toNanos(interval) / wheelSize;
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Interval is too short for " + wheelSize + " buckets");
+        }
+        wheel = new ConcurrentMap[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ConcurrentHashMap<>();
+        }
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
+        this.tickTask = scheduler.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers a target to periodically receive keep-alive comments.
+     * @param target the target
+     * @param onFailure action to run, from the scheduler thread, if writing a keep-alive comment fails. The target
+     *                  is automatically unregistered before running it.
+     */
+    public void register(EventTarget target, Runnable onFailure) {
+        bucket(target).put(target, onFailure);
+    }
+
+    /**
+     * Stops sending keep-alive comments to a target
+     * @param target the target
+     */
+    public void unregister(EventTarget target) {
+        bucket(target).remove(target);
+    }
+
+    /**
+     * Returns the number of registered targets. This operation visits all the buckets of the wheel.
+     * @return the number of registered targets
+     */
+    public int size() {
+        int size = 0;
+        for (Map<EventTarget, Runnable> bucket : wheel) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    private Map<EventTarget, Runnable> bucket(EventTarget target) {
+        int hash = System.identityHashCode(target);
+        // spreading the bits, as identity hashes may not be uniformly distributed in the lower bits
+        hash ^= (hash >>> 16);
+        return wheel[(hash & 0x7fffffff) % wheel.length];
+    }
+
+    private void tick() {
+        Map<EventTarget, Runnable> bucket = wheel[cursor];
+        cursor = (cursor + 1) % wheel.length;
+        for (Map.Entry<EventTarget, Runnable> entry : bucket.entrySet()) {
+            try {
+                entry.getKey().send(HEARTBEAT);
+            } catch (IOException e) {
+                // Client disconnected
+                if (bucket.remove(entry.getKey(), entry.getValue())) {
+                    runSafely(entry.getValue());
+                }
+            } catch (RuntimeException e) {
+                // Uncontrolled exception in the target. Ignoring, to keep the scheduler running
+            }
+        }
+    }
+
+    private static void runSafely(Runnable onFailure) {
+        try {
+            onFailure.run();
+        } catch (RuntimeException e) {
+            // Uncontrolled exception in the failure handler. Ignoring, to keep the scheduler running
+        }
+    }
+
+    /**
+     * Stops sending keep-alive comments, and shuts down the scheduler if it was created by this instance.
+     */
+    @Override
+    public void close() {
+        tickTask.cancel(false);
+        if (ownScheduler) {
+            scheduler.shutdown();
+        }
+        for (Map<EventTarget, Runnable> bucket : wheel) {
+            bucket.clear();
+        }
+    }
+}
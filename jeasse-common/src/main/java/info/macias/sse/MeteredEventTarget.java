@@ -0,0 +1,96 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.BroadcastMetrics;
+
+import java.io.IOException;
+
+/**
+ * {@link EventTarget} decorator that reports the size and latency of each write, and the failed writes, to a
+ * {@link BroadcastMetrics} listener. It is only used when the broadcaster has a metrics listener, so the
+ * subscribers of non-instrumented broadcasters do not pay for the time measurements.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class MeteredEventTarget implements EventTarget {
+
+    private final EventTarget delegate;
+    private final BroadcastMetrics metrics;
+
+    MeteredEventTarget(EventTarget delegate, BroadcastMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the decorated target
+     * @return the decorated target
+     */
+    EventTarget getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public MeteredEventTarget ok() {
+        delegate.ok();
+        return this;
+    }
+
+    @Override
+    public MeteredEventTarget open() throws IOException {
+        delegate.open();
+        return this;
+    }
+
+    @Override
+    public MeteredEventTarget send(String event, String data) throws IOException {
+        return send(new MessageEvent.Builder()
+                .setEvent(event)
+                .setData(data)
+                .build());
+    }
+
+    @Override
+    public MeteredEventTarget send(MessageEvent messageEvent) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.send(messageEvent);
+        } catch (IOException | RuntimeException e) {
+            metrics.sendFailed();
+            throw e;
+        }
+        metrics.messageSent(messageEvent.getByteLength(), System.nanoTime() - start);
+        return this;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return delegate.isWritable();
+    }
+
+    @Override
+    public void setWritableHandler(Runnable handler) {
+        delegate.setWritableHandler(handler);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
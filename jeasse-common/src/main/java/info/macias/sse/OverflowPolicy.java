@@ -0,0 +1,43 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+/**
+ * Specifies what an {@link EventBroadcast} in fan-out mode does when a message is broadcast to a subscriber whose
+ * queue of outgoing messages is full (e.g. because of a slow network). Without fan-out mode, the policy applies to
+ * the subscribers that are not writable (see {@link EventTarget#isWritable()}).
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public enum OverflowPolicy {
+    /**
+     * Discards the oldest message in the queue to make room for the new one. The subscriber skips the messages it
+     * was not able to receive, but always gets the most recent ones.
+     */
+    DROP_OLDEST,
+    /**
+     * Discards the new message. The subscriber keeps receiving the queued messages in order, and skips the messages
+     * broadcast while its queue was full.
+     */
+    DROP_NEWEST,
+    /**
+     * Discards the queued messages, sends a message with the 'retry' field to the subscriber and closes the
+     * connection. The subscriber is detached from the broadcaster, and the client is expected to reconnect after
+     * the given time.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,141 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * <p>Maximum rate of messages that a subscriber can receive, enforced by the broadcaster with a token bucket per
+ * subscriber (see {@link EventBroadcast.Builder#setRateLimit(RateLimit)}). Each message consumes a token, and the
+ * tokens are refilled at the given rate, up to the burst size. The buckets are refilled lazily when a message is
+ * sent, so idle subscribers cost nothing.</p>
+ *
+ * <p>The {@link Policy} decides what happens to the messages sent when the bucket of a subscriber is empty. The
+ * {@link Policy#CONFLATE} and {@link Policy#DELAY} policies send the held messages later: a task is only scheduled
+ * in a {@link ScheduledExecutorService} for the subscribers that are holding messages. If the broadcaster has an
+ * executor (see {@link EventBroadcast.Builder#setExecutor(java.util.concurrent.Executor)}), the task hands the held
+ * messages to it, so a slow connection never blocks the scheduler. Otherwise, the task writes them itself.</p>
+ *
+ * <p>Only the messages with the 'data' field are limited: keep-alive comments, reconnection hints and high priority
+ * messages (see {@link EventBroadcast.Builder#setHighPriority(java.util.function.Predicate)}) are always sent. A rate limit can be shared by many broadcasters.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class RateLimit {
+
+    /**
+     * What to do with the messages sent to a subscriber that has exceeded its rate
+     */
+    public enum Policy {
+        /**
+         * Discards the message
+         */
+        DROP,
+        /**
+         * Holds the latest message, replacing the previously held one, and sends it as soon as a token is available.
+         * The subscriber skips the intermediate messages but always gets the most recent one.
+         */
+        CONFLATE,
+        /**
+         * Queues the message and sends it when a token is available, so the subscriber receives all the messages,
+         * at the limited rate. Messages are discarded when the queue is full (see
+         * {@link #setMaxDelayedMessages(int)}).
+         */
+        DELAY
+    }
+
+    /**
+     * Default maximum number of messages delayed by the {@link Policy#DELAY} policy for each subscriber
+     */
+    public static final int DEFAULT_MAX_DELAYED_MESSAGES = 1024;
+
+    private final double messagesPerSecond;
+    private final int burst;
+    private final Policy policy;
+    private final ScheduledExecutorService scheduler;
+    private int maxDelayedMessages = DEFAULT_MAX_DELAYED_MESSAGES;
+
+    /**
+     * Instantiates a rate limit that discards the messages that exceed the rate
+     * @param messagesPerSecond the rate at which the tokens are refilled
+     * @param burst the maximum number of tokens, that is the number of messages that can be sent back-to-back
+     */
+    public RateLimit(double messagesPerSecond, int burst) {
+        this(messagesPerSecond, burst, Policy.DROP, null);
+    }
+
+    /**
+     * Instantiates a rate limit
+     * @param messagesPerSecond the rate at which the tokens are refilled
+     * @param burst the maximum number of tokens, that is the number of messages that can be sent back-to-back
+     * @param policy what to do with the messages that exceed the rate
+     * @param scheduler the scheduler that sends the held messages. Only required by the {@link Policy#CONFLATE} and
+     *                  {@link Policy#DELAY} policies. It is not shut down by the broadcaster
+     */
+    public RateLimit(double messagesPerSecond, int burst, Policy policy, ScheduledExecutorService scheduler) {
+        if (!(messagesPerSecond > 0)) {
+            throw new IllegalArgumentException("messagesPerSecond must be positive: " + messagesPerSecond);
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive: " + burst);
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        if (policy != Policy.DROP && scheduler == null) {
+            throw new NullPointerException("scheduler");
+        }
+        this.messagesPerSecond = messagesPerSecond;
+        this.burst = burst;
+        this.policy = policy;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets the maximum number of messages delayed by the {@link Policy#DELAY} policy for each subscriber. Messages
+     * sent when the queue is full are discarded. Defaults to {@link #DEFAULT_MAX_DELAYED_MESSAGES}.
+     * @param maxDelayedMessages the maximum number of delayed messages
+     * @return The same target instance where the method has been invoked on.
+     */
+    public RateLimit setMaxDelayedMessages(int maxDelayedMessages) {
+        if (maxDelayedMessages <= 0) {
+            throw new IllegalArgumentException("maxDelayedMessages must be positive: " + maxDelayedMessages);
+        }
+        this.maxDelayedMessages = maxDelayedMessages;
+        return this;
+    }
+
+    double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    int getBurst() {
+        return burst;
+    }
+
+    Policy getPolicy() {
+        return policy;
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    int getMaxDelayedMessages() {
+        return maxDelayedMessages;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.BroadcastMetrics;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * {@link EventTarget} decorator that limits the rate of messages sent to a subscriber with a token bucket, as
+ * configured by a {@link RateLimit}. The bucket is refilled when a message is sent, according to the time elapsed
+ * since the previous refill, so there is no timer per subscriber. A release task is only scheduled while the
+ * subscriber holds messages that exceeded the rate.
+ *
+ * <p>The release task never writes to the decorated target while a writer may be blocked by its connection: if a
+ * release handler is set (see {@link #setReleaseHandler(Runnable)}), the task only invokes it, and the thread that
+ * writes to the target sends the released messages (see {@link #sendReleased()}). Otherwise, the task sends them.
+ * The messages are written without holding the lock of the token bucket, so the release task never waits for a
+ * write in progress.</p>
+ *
+ * <p>If sending a held message from the release task fails, the error is thrown by the next invocation to
+ * {@link #send(MessageEvent)}.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class RateLimitedEventTarget implements EventTarget {
+
+    private final EventTarget delegate;
+    private final RateLimit limit;
+    private final BroadcastMetrics metrics;
+    private final Predicate<MessageEvent> highPriority;
+    private final double tokensPerNano;
+
+    // held while writing to the delegate, so the messages are written in order
+    private final Object writeLock = new Object();
+
+    // guarded by this
+    private double tokens;
+    private long lastRefill;
+    // messages that exceeded the rate, in CONFLATE and DELAY policies. Created on demand
+    private Deque<MessageEvent> held = null;
+    private boolean releaseScheduled = false;
+    private IOException failure = null;
+    private boolean closed = false;
+
+    // invoked from the scheduler when held messages can be sent. May be null
+    private volatile Runnable releaseHandler = null;
+
+    RateLimitedEventTarget(EventTarget delegate, RateLimit limit, BroadcastMetrics metrics,
+                           Predicate<MessageEvent> highPriority) {
+        this.delegate = delegate;
+        this.limit = limit;
+        this.metrics = metrics;
+        this.highPriority = highPriority;
+        this.tokensPerNano = limit.getMessagesPerSecond() / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = limit.getBurst();
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Returns the decorated target
+     * @return the decorated target
+     */
+    EventTarget getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Sets the handler that is invoked, from the scheduler of the {@link RateLimit}, when there are tokens to send
+     * held messages. The handler must not block: it must make the thread that writes to this target invoke
+     * {@link #sendReleased()}.
+     * @param releaseHandler the handler, or <code>null</code> to send the released messages from the scheduler
+     */
+    void setReleaseHandler(Runnable releaseHandler) {
+        this.releaseHandler = releaseHandler;
+    }
+
+    @Override
+    public RateLimitedEventTarget ok() {
+        delegate.ok();
+        return this;
+    }
+
+    @Override
+    public RateLimitedEventTarget open() throws IOException {
+        delegate.open();
+        return this;
+    }
+
+    @Override
+    public RateLimitedEventTarget send(String event, String data) throws IOException {
+        return send(new MessageEvent.Builder()
+                .setEvent(event)
+                .setData(data)
+                .build());
+    }
+
+    @Override
+    public RateLimitedEventTarget send(MessageEvent messageEvent) throws IOException {
+        boolean dropped = false;
+        boolean conflated = false;
+        boolean sendNow = false;
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            if (messageEvent.getData() == null || highPriority != null && highPriority.test(messageEvent)) {
+                // comments, reconnection hints and high priority messages are not limited
+                delegate.send(messageEvent);
+                return this;
+            }
+            synchronized (this) {
+                refill();
+                if (limit.getPolicy() == RateLimit.Policy.CONFLATE && hasHeld()) {
+                    // the new message supersedes the held one
+                    held.clear();
+                    conflated = true;
+                }
+            }
+            writeHeld();
+            synchronized (this) {
+                if (!hasHeld() && tokens >= 1) {
+                    tokens -= 1;
+                    sendNow = true;
+                } else if (limit.getPolicy() == RateLimit.Policy.DROP
+                        || hasHeld() && held.size() >= limit.getMaxDelayedMessages()) {
+                    dropped = true;
+                } else {
+                    if (held == null) {
+                        held = new ArrayDeque<>();
+                    }
+                    held.add(messageEvent);
+                    scheduleRelease();
+                }
+            }
+            if (sendNow) {
+                delegate.send(messageEvent);
+            }
+        }
+        if (dropped) {
+            metrics.messageDropped();
+        }
+        if (conflated) {
+            metrics.messageConflated();
+        }
+        return this;
+    }
+
+    // invoked holding the lock of this
+    private boolean hasHeld() {
+        return held != null && !held.isEmpty();
+    }
+
+    // invoked holding the lock of this
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(limit.getBurst(), tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+    // invoked holding the write lock. Sends the held messages while there are tokens
+    private void writeHeld() throws IOException {
+        while (true) {
+            MessageEvent messageEvent;
+            synchronized (this) {
+                if (closed || !hasHeld() || tokens < 1) {
+                    return;
+                }
+                tokens -= 1;
+                messageEvent = held.poll();
+            }
+            delegate.send(messageEvent);
+        }
+    }
+
+    // invoked holding the lock of this
+    private void scheduleRelease() {
+        if (!releaseScheduled) {
+            releaseScheduled = true;
+            long delayNanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+            limit.getScheduler().schedule(this::release, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // invoked from the scheduler
+    private void release() {
+        Runnable handler;
+        synchronized (this) {
+            releaseScheduled = false;
+            if (closed || failure != null || !hasHeld()) {
+                return;
+            }
+            refill();
+            if (tokens < 1) {
+                scheduleRelease();
+                return;
+            }
+            handler = releaseHandler;
+        }
+        if (handler != null) {
+            handler.run();
+            return;
+        }
+        try {
+            sendReleased();
+        } catch (IOException e) {
+            // thrown by the next send
+        }
+    }
+
+    /**
+     * Sends the held messages for which there are tokens, and schedules the release of the rest. It must be invoked
+     * from the thread that writes to this target, after the release handler has been invoked.
+     * @throws IOException if sending a held message failed. The rest of held messages are discarded, and the error
+     * is also thrown by the next invocation to {@link #send(MessageEvent)}
+     */
+    void sendReleased() throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                refill();
+            }
+            try {
+                writeHeld();
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    if (held != null) {
+                        held.clear();
+                    }
+                }
+                throw e;
+            }
+        }
+        synchronized (this) {
+            if (!closed && hasHeld()) {
+                scheduleRelease();
+            }
+        }
+    }
+
+    @Override
+    public boolean isWritable() {
+        return delegate.isWritable();
+    }
+
+    @Override
+    public void setWritableHandler(Runnable handler) {
+        delegate.setWritableHandler(handler);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            held = null;
+        }
+        delegate.close();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Fixed-capacity ring buffer that keeps the most recent {@link MessageEvent}s sent by an {@link EventBroadcast},
+ * indexed by their 'id' field, so the subscribers that reconnect with a <code>Last-Event-ID</code> header can
+ * receive the events they missed.</p>
+ *
+ * <p>All the events are stored, but only the ones with an 'id' field can be used as the starting point of a replay.
+ * When the buffer is full, the oldest event is discarded. This class is thread-safe.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class ReplayBuffer implements EventHistory {
+
+    private final MessageEvent[] events;
+    // sequence number of the stored events, by id. Only the last occurrence of each id is kept
+    private final Map<String, Long> sequences = new HashMap<>();
+    // sequence number that will be assigned to the next appended event
+    private long nextSequence = 0;
+
+    /**
+     * Instantiates a replay buffer
+     * @param capacity the maximum number of events to keep
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public ReplayBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Replay buffer capacity must be positive: " + capacity);
+        }
+        events = new MessageEvent[capacity];
+    }
+
+    /**
+     * Stores an event, discarding the oldest one if the buffer is full.
+     * @param messageEvent the event to store
+     */
+    @Override
+    public synchronized void append(MessageEvent messageEvent) {
+        int slot = (int) (nextSequence % events.length);
+        MessageEvent discarded = events[slot];
+        if (discarded != null && discarded.getId() != null) {
+            Long sequence = sequences.get(discarded.getId());
+            if (sequence != null && sequence == nextSequence - events.length) {
+                sequences.remove(discarded.getId());
+            }
+        }
+        events[slot] = messageEvent;
+        if (messageEvent.getId() != null) {
+            sequences.put(messageEvent.getId(), nextSequence);
+        }
+        nextSequence++;
+    }
+
+    /**
+     * Returns the events that were stored after the event with the given id, in the same order as they were stored.
+     * @param lastEventId the 'id' field of the last event received by a subscriber
+     * @return the events stored after the event with the given id (an empty list if it is the last stored event),
+     * or <code>null</code> if there is no event with such id in the buffer (e.g. it is too old and was discarded)
+     */
+    public synchronized List<MessageEvent> getEventsAfter(String lastEventId) {
+        Long sequence = lastEventId == null ? null : sequences.get(lastEventId);
+        if (sequence == null) {
+            return null;
+        }
+        List<MessageEvent> gap = new ArrayList<>((int) (nextSequence - sequence - 1));
+        for (long s = sequence + 1; s < nextSequence; s++) {
+            gap.add(events[(int) (s % events.length)]);
+        }
+        return gap;
+    }
+
+    @Override
+    public boolean replay(String lastEventId, EventTarget eventTarget) throws IOException {
+        List<MessageEvent> missed = getEventsAfter(lastEventId);
+        if (missed == null) {
+            return false;
+        }
+        for (MessageEvent messageEvent : missed) {
+            eventTarget.send(messageEvent);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of events currently stored
+     * @return the number of events currently stored
+     */
+    public synchronized int size() {
+        return (int) Math.min(nextSequence, events.length);
+    }
+
+    /**
+     * Returns the maximum number of events that the buffer keeps
+     * @return the maximum number of events that the buffer keeps
+     */
+    public int getCapacity() {
+        return events.length;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe index of subscribers by key (e.g. topics or attributes). A subscriber can be indexed under many keys,
+ * and the subscribers of a key can be iterated without visiting the subscribers of other keys.
+ *
+ * <p>The changes of each subscriber are atomic: they are done while computing its entry in the map of keys by
+ * subscriber, so adding a subscriber to a key while it is being removed from all its keys can't leave it in one
+ * of them.</p>
+ *
+ * @param <K> the type of the keys
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class SubscriberIndex<K> {
+
+    private final ConcurrentMap<K, Set<EventTarget>> targetsByKey = new ConcurrentHashMap<>();
+    private final ConcurrentMap<EventTarget, Set<K>> keysByTarget = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes a subscriber under a key
+     * @param key the key
+     * @param target the subscriber
+     */
+    void add(K key, EventTarget target) {
+        keysByTarget.compute(target, (t, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+            }
+            keys.add(key);
+            targetsByKey.compute(key, (k, targets) -> {
+                if (targets == null) {
+                    targets = ConcurrentHashMap.newKeySet();
+                }
+                targets.add(target);
+                return targets;
+            });
+            return keys;
+        });
+    }
+
+    /**
+     * Removes a subscriber from a key
+     * @param key the key
+     * @param target the subscriber
+     */
+    void remove(K key, EventTarget target) {
+        keysByTarget.computeIfPresent(target, (t, keys) -> {
+            keys.remove(key);
+            removeFromKey(key, target);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * Removes a subscriber from all the keys it is indexed under
+     * @param target the subscriber
+     */
+    void removeAll(EventTarget target) {
+        keysByTarget.computeIfPresent(target, (t, keys) -> {
+            for (K key : keys) {
+                removeFromKey(key, target);
+            }
+            return null;
+        });
+    }
+
+    // invoked while computing the entry of the subscriber in keysByTarget, which is always locked first
+    private void removeFromKey(K key, EventTarget target) {
+        targetsByKey.computeIfPresent(key, (k, targets) -> {
+            targets.remove(target);
+            return targets.isEmpty() ? null : targets;
+        });
+    }
+
+    /**
+     * Returns a live, weakly consistent view of the subscribers indexed under a key
+     * @param key the key
+     * @return the subscribers indexed under the key
+     */
+    Set<EventTarget> get(K key) {
+        Set<EventTarget> targets = targetsByKey.get(key);
+        return targets == null ? Collections.emptySet() : Collections.unmodifiableSet(targets);
+    }
+
+    /**
+     * Returns a live, weakly consistent view of the keys a subscriber is indexed under
+     * @param target the subscriber
+     * @return the keys of the subscriber
+     */
+    Set<K> getKeys(EventTarget target) {
+        Set<K> keys = keysByTarget.get(target);
+        return keys == null ? Collections.emptySet() : Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * Returns a live, weakly consistent view of the keys that have at least one subscriber
+     * @return the keys with subscribers
+     */
+    Set<K> keys() {
+        return Collections.unmodifiableSet(targetsByKey.keySet());
+    }
+
+    /**
+     * Removes all the subscribers and keys
+     */
+    void clear() {
+        keysByTarget.clear();
+        targetsByKey.clear();
+    }
+}
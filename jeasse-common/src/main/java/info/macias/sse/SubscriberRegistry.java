@@ -0,0 +1,162 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>Thread-safe collection of the subscribers of a broadcaster, optimized for iterating over all of them on each
+ * broadcast while subscribers keep being added and removed.</p>
+ *
+ * <p>The subscribers are kept in a contiguous array. A removed subscriber is replaced by the last one, so adding and
+ * removing subscribers takes constant time, and the number of subscribers is always known without counting them.
+ * The subscribers are compared by identity.</p>
+ *
+ * <p>{@link #snapshot()} returns a copy of the array, which is reused by the next invocations until the subscribers
+ * change, so a broadcast iterates over a plain array without any synchronization nor allocation. The order of the
+ * subscribers is not preserved. The copy is taken again, in O(n), by the first invocation after each change. Then,
+ * under heavy churn, each broadcast copies the subscribers before visiting them, which takes about as long as the
+ * visit itself. The changes between two broadcasts share the same copy.</p>
+ *
+ * <p>Internal to the broadcasters: subclasses of {@link EventBroadcast} access the subscribers through
+ * {@link EventBroadcast#getSubscribers()}.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+final class SubscriberRegistry {
+
+    private static final EventTarget[] EMPTY = new EventTarget[0];
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Object lock = new Object();
+    // guarded by lock. The first 'size' positions hold the subscribers
+    private EventTarget[] targets = new EventTarget[INITIAL_CAPACITY];
+    // guarded by lock. Position of each subscriber in the targets array
+    private final Map<EventTarget, Integer> positions = new IdentityHashMap<>();
+
+    private volatile int size = 0;
+    // copy of the first 'size' targets. Null if the subscribers changed since it was taken
+    private volatile EventTarget[] snapshot = EMPTY;
+
+    /**
+     * Adds a subscriber
+     * @param target the subscriber
+     * @return <code>false</code> if the subscriber had already been added
+     */
+    boolean add(EventTarget target) {
+        synchronized (lock) {
+            if (positions.containsKey(target)) {
+                return false;
+            }
+            if (size == targets.length) {
+                targets = Arrays.copyOf(targets, targets.length * 2);
+            }
+            positions.put(target, size);
+            targets[size] = target;
+            snapshot = null;
+            size++;
+            return true;
+        }
+    }
+
+    /**
+     * Removes a subscriber
+     * @param target the subscriber
+     * @return <code>false</code> if the subscriber was not in the registry
+     */
+    boolean remove(EventTarget target) {
+        synchronized (lock) {
+            Integer position = positions.remove(target);
+            if (position == null) {
+                return false;
+            }
+            int last = size - 1;
+            if (position != last) {
+                EventTarget moved = targets[last];
+                targets[position] = moved;
+                positions.put(moved, position);
+            }
+            targets[last] = null;
+            snapshot = null;
+            size = last;
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether a subscriber is in the registry
+     * @param target the subscriber
+     * @return <code>true</code> if the subscriber is in the registry
+     */
+    boolean contains(EventTarget target) {
+        synchronized (lock) {
+            return positions.containsKey(target);
+        }
+    }
+
+    /**
+     * Returns the number of subscribers, without counting them
+     * @return the number of subscribers
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether there are no subscribers
+     * @return <code>true</code> if there are no subscribers
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the subscribers at the moment of the invocation. The returned array is shared by all the invocations
+     * until the subscribers change, so it must not be modified.
+     * @return the subscribers
+     */
+    EventTarget[] snapshot() {
+        EventTarget[] current = snapshot;
+        if (current == null) {
+            synchronized (lock) {
+                current = snapshot;
+                if (current == null) {
+                    current = size == 0 ? EMPTY : Arrays.copyOf(targets, size);
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Removes all the subscribers
+     * @return the removed subscribers
+     */
+    EventTarget[] clear() {
+        synchronized (lock) {
+            EventTarget[] removed = Arrays.copyOf(targets, size);
+            targets = new EventTarget[INITIAL_CAPACITY];
+            positions.clear();
+            snapshot = EMPTY;
+            size = 0;
+            return removed;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.RemovalReason;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Broadcaster that serves many channels (topics) from a single instance. Each subscriber can be subscribed to
+ * many topics, and it is acknowledged, opened and registered only once, no matter how many topics it has.</p>
+ *
+ * <p>The broadcaster keeps an index from each topic to its subscribers, so broadcasting to a topic only visits the
+ * subscribers of that topic. Messages sent through the {@link EventBroadcast} methods (e.g.
+ * {@link #broadcast(MessageEvent)}) are sent to all the subscribers, no matter their topics.</p>
+ *
+ * <p>The broadcaster accepts the same configuration as {@link EventBroadcast} (e.g. fan-out mode), through the
+ * {@link EventBroadcast.Builder} class. Messages broadcast to a topic are not stored in the {@link EventHistory}.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class TopicBroadcast extends EventBroadcast {
+
+    // subscriptions of the subscribers, as provided by the user
+    private final ConcurrentMap<EventTarget, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final SubscriberIndex<String> topics = new SubscriberIndex<>();
+
+    /**
+     * Instantiates a topic broadcaster that sends the messages to the subscribers from the thread that invokes the
+     * broadcast methods.
+     */
+    public TopicBroadcast() {
+        this(new EventBroadcast.Builder());
+    }
+
+    /**
+     * Instantiates a topic broadcaster with the configuration from the provided {@link EventBroadcast.Builder}
+     * @param builder the configuration of the broadcaster
+     */
+    public TopicBroadcast(EventBroadcast.Builder builder) {
+        super(builder);
+    }
+
+    /**
+     * Subscribes an event target to one or many topics. If the target is not subscribed to any topic yet, it is
+     * acknowledged and opened.
+     * @param eventTarget an event target to be subscribed to the messages of the topics
+     * @param topics the topics to subscribe to
+     * @throws IOException if there was an error during the acknowledge process between broadcaster and subscriber,
+     *         or if the subscriber was detached while subscribing, because its connection failed
+     */
+    public void subscribe(EventTarget eventTarget, String... topics) throws IOException {
+        Subscription subscription = subscriptions.computeIfAbsent(eventTarget, t -> new Subscription());
+        EventTarget subscriber = subscription.subscriber;
+        if (subscriber == null) {
+            // the target is opened only once, without holding the map while writing to its connection. Decorating
+            // it twice would also replace the handlers that the first decoration set on it
+            synchronized (subscription) {
+                subscriber = subscription.subscriber;
+                if (subscriber == null) {
+                    try {
+                        subscriber = decorate(eventTarget.ok().open());
+                        // set before registering, so the subscription is forgotten if it is detached right away
+                        subscription.subscriber = subscriber;
+                        register(subscriber);
+                    } catch (IOException | RuntimeException e) {
+                        subscriptions.remove(eventTarget, subscription);
+                        throw e;
+                    }
+                }
+            }
+        }
+        for (String topic : topics) {
+            this.topics.add(topic, subscriber);
+        }
+        // a subscriber detached meanwhile may have been removed from its topics before being added to these ones
+        if (subscriptions.get(eventTarget) != subscription) {
+            this.topics.removeAll(subscriber);
+            throw new IOException("Subscriber was detached");
+        }
+    }
+
+    /**
+     * Unsubscribes an event target from some topics. The target is not closed nor detached from the broadcaster,
+     * even if it is not subscribed to any topic anymore.
+     * @param eventTarget the subscribed event target
+     * @param topics the topics to unsubscribe from
+     */
+    public void unsubscribe(EventTarget eventTarget, String... topics) {
+        EventTarget subscriber = subscriber(eventTarget);
+        if (subscriber != null) {
+            for (String topic : topics) {
+                this.topics.remove(topic, subscriber);
+            }
+        }
+    }
+
+    /**
+     * Returns the topics an event target is subscribed to
+     * @param eventTarget the subscribed event target
+     * @return a live view of the topics of the event target
+     */
+    public Set<String> getTopics(EventTarget eventTarget) {
+        EventTarget subscriber = subscriber(eventTarget);
+        return topics.getKeys(subscriber == null ? eventTarget : subscriber);
+    }
+
+    // returns the subscriber, as stored in the collection of subscribers, or null if it has not been subscribed
+    private EventTarget subscriber(EventTarget eventTarget) {
+        Subscription subscription = subscriptions.get(eventTarget);
+        return subscription == null ? null : subscription.subscriber;
+    }
+
+    /**
+     * Returns the topics that have at least one subscriber
+     * @return a live view of the topics with subscribers
+     */
+    public Set<String> getTopics() {
+        return topics.keys();
+    }
+
+    /**
+     * Returns the number of subscribers of a topic
+     * @param topic the topic
+     * @return the number of subscribers of the topic
+     */
+    public int getSubscriberCount(String topic) {
+        return topics.get(topic).size();
+    }
+
+    /**
+     * <p>Broadcasts a {@link MessageEvent} to the subscribers of a topic, containing only 'event' and 'data'
+     * fields.</p>
+     *
+     * @param topic the topic
+     * @param event The descriptor of the 'event' field.
+     * @param data The content of the 'data' field.
+     */
+    public void broadcast(String topic, String event, String data) {
+        broadcast(topic, new MessageEvent.Builder()
+                .setEvent(event)
+                .setData(data)
+                .build());
+    }
+
+    /**
+     * <p>Broadcasts a {@link MessageEvent} to the subscribers of a topic.</p>
+     *
+     * <p>If sending the message to a subscriber throws an {@link IOException}, the broadcaster assumes the
+     * subscriber went offline and silently detaches it from all its topics.</p>
+     *
+     * @param topic the topic
+     * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+     */
+    public void broadcast(String topic, MessageEvent messageEvent) {
+        getMetrics().messageBroadcast();
+        for (EventTarget subscriber : topics.get(topic)) {
+            try {
+                sendTo(subscriber, messageEvent);
+            } catch (IOException e) {
+                // Client disconnected. Removing from targets and topics
+                if (!detach(subscriber, failureReason(subscriber, RemovalReason.SEND_FAILED))) {
+                    // already detached by a concurrent broadcast, or subscribed to new topics while detaching
+                    forget(subscriber);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void subscriberDetached(EventTarget eventTarget) {
+        forget(eventTarget);
+        super.subscriberDetached(eventTarget);
+    }
+
+    // the subscription is removed before the topics, so a concurrent subscription either finds it removed, or
+    // adds its topics before they are removed here
+    private void forget(EventTarget subscriber) {
+        subscriptions.computeIfPresent(undecorate(subscriber),
+                (eventTarget, subscription) -> subscription.subscriber == subscriber ? null : subscription);
+        topics.removeAll(subscriber);
+    }
+
+    /**
+     * Closes all the connections between the broadcaster and the subscribers, and detaches all of them from the
+     * collection of subscribers and their topics.
+     */
+    @Override
+    public void close() {
+        super.close();
+        topics.clear();
+        subscriptions.clear();
+    }
+
+    /**
+     * Subscriber being opened, or already stored in the collection of subscribers. Its lock is held while opening it
+     */
+    private static class Subscription {
+        // null until the subscriber has been opened and registered
+        volatile EventTarget subscriber = null;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.cluster;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * <p>Broadcasts messages to the subscribers of all the nodes of a cluster: the messages broadcast on any node are
+ * sent to the subscribers of the local broadcaster, and published through a {@link ClusterTransport} to the other
+ * nodes, which send them to the subscribers of their own local broadcaster.</p>
+ *
+ * <p>Each message is encoded once by the publishing node, and decoded once by each receiving node, no matter the
+ * number of subscribers. The local broadcaster can be any object accepting {@link MessageEvent}s, e.g.
+ * <code>new ClusterBroadcast(transport, eventBroadcast::broadcast)</code>.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class ClusterBroadcast implements AutoCloseable {
+
+    private final ClusterTransport transport;
+    private final Consumer<MessageEvent> localBroadcast;
+
+    /**
+     * Instantiates a cluster broadcaster for an {@link EventBroadcast}, and starts the transport
+     * @param transport the transport to the other nodes of the cluster
+     * @param localBroadcast the broadcaster of the subscribers of this node
+     * @throws IOException if the transport can't be started
+     */
+    public ClusterBroadcast(ClusterTransport transport, EventBroadcast localBroadcast) throws IOException {
+        this(transport, (Consumer<MessageEvent>) localBroadcast::broadcast);
+    }
+
+    /**
+     * Instantiates a cluster broadcaster, and starts the transport
+     * @param transport the transport to the other nodes of the cluster
+     * @param localBroadcast the action that sends a message to the subscribers of this node
+     * @throws IOException if the transport can't be started
+     */
+    public ClusterBroadcast(ClusterTransport transport, Consumer<MessageEvent> localBroadcast) throws IOException {
+        this.transport = transport;
+        this.localBroadcast = localBroadcast;
+        transport.start(this::received);
+    }
+
+    /**
+     * Broadcasts a {@link MessageEvent} to all the subscribers of the cluster, containing only 'event' and 'data'
+     * fields.
+     * @param event The descriptor of the 'event' field.
+     * @param data The content of the 'data' field.
+     */
+    public void broadcast(String event, String data) {
+        broadcast(new MessageEvent.Builder()
+                .setEvent(event)
+                .setData(data)
+                .build());
+    }
+
+    /**
+     * Broadcasts a {@link MessageEvent} to all the subscribers of the cluster.
+     * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+     */
+    public void broadcast(MessageEvent messageEvent) {
+        transport.publish(MessageEventCodec.encode(messageEvent));
+        localBroadcast.accept(messageEvent);
+    }
+
+    private void received(byte[] message) {
+        MessageEvent messageEvent;
+        try {
+            messageEvent = MessageEventCodec.decode(message);
+        } catch (IOException e) {
+            // corrupted or incompatible message. Discarding it
+            return;
+        }
+        localBroadcast.accept(messageEvent);
+    }
+
+    /**
+     * Closes the transport. The local broadcaster is not closed.
+     */
+    @Override
+    public void close() {
+        transport.close();
+    }
+}
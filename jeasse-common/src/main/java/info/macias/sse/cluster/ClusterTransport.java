@@ -0,0 +1,53 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.cluster;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * <p>Transport that delivers the messages published by a {@link ClusterBroadcast} to the {@link ClusterBroadcast}s
+ * of the other nodes of the cluster.</p>
+ *
+ * <p>The messages are opaque byte arrays, encoded once by the publishing node. Implementations must deliver each
+ * published message to every other node of the cluster, but not to the publishing node itself. Delivery can be
+ * at-most-once (e.g. messages published while a node is unreachable can be lost).</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public interface ClusterTransport extends AutoCloseable {
+
+    /**
+     * Starts receiving the messages published by the other nodes
+     * @param receiver the consumer of the received messages. It can be invoked from any thread, even concurrently.
+     *                 The messages published by the same node must be received in the same order
+     * @throws IOException if the transport can't be started (e.g. the address to listen on is in use)
+     */
+    void start(Consumer<byte[]> receiver) throws IOException;
+
+    /**
+     * Publishes a message to the other nodes of the cluster. This method should not block.
+     * @param message the encoded message. It must not be modified after being published
+     */
+    void publish(byte[] message);
+
+    /**
+     * Stops receiving and publishing messages, and releases the resources of the transport
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,116 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.cluster;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of the fields of a {@link MessageEvent}, to be sent between the nodes of a cluster.
+ * Each field is preceded by a bit in a header byte that tells whether it is present.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+final class MessageEventCodec {
+
+    private static final int VERSION = 1;
+
+    private static final int EVENT = 1;
+    private static final int DATA = 1 << 1;
+    private static final int ID = 1 << 2;
+    private static final int RETRY = 1 << 3;
+    private static final int COMMENT = 1 << 4;
+
+    private MessageEventCodec() {
+    }
+
+    static byte[] encode(MessageEvent messageEvent) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(messageEvent.getByteLength() + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int fields = (messageEvent.getEvent() != null ? EVENT : 0)
+                    | (messageEvent.getData() != null ? DATA : 0)
+                    | (messageEvent.getId() != null ? ID : 0)
+                    | (messageEvent.getRetry() != null ? RETRY : 0)
+                    | (messageEvent.getComment() != null ? COMMENT : 0);
+            out.writeByte(VERSION);
+            out.writeByte(fields);
+            writeString(out, messageEvent.getEvent());
+            writeString(out, messageEvent.getData());
+            writeString(out, messageEvent.getId());
+            if (messageEvent.getRetry() != null) {
+                out.writeInt(messageEvent.getRetry());
+            }
+            writeString(out, messageEvent.getComment());
+        } catch (IOException e) {
+            // can't happen when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static MessageEvent decode(byte[] message) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported message version: " + version);
+        }
+        int fields = in.readUnsignedByte();
+        MessageEvent.Builder builder = new MessageEvent.Builder();
+        if ((fields & EVENT) != 0) {
+            builder.setEvent(readString(in));
+        }
+        if ((fields & DATA) != 0) {
+            builder.setData(readString(in));
+        }
+        if ((fields & ID) != 0) {
+            builder.setId(readString(in));
+        }
+        if ((fields & RETRY) != 0) {
+            builder.setRetry(in.readInt());
+        }
+        if ((fields & COMMENT) != 0) {
+            builder.setComment(readString(in));
+        }
+        return builder.build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid field length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
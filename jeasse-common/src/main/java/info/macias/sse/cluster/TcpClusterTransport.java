@@ -0,0 +1,276 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * <p>Reference {@link ClusterTransport} that connects each node to all the other nodes through TCP.</p>
+ *
+ * <p>Each node listens on a given address, and opens a connection to each of its peers. The messages are sent as
+ * length-prefixed frames. Each peer has its own queue and sender thread, which writes all the messages queued since
+ * its previous write at once, so a burst of messages is sent in a few TCP segments, and a slow peer does not delay
+ * the others.</p>
+ *
+ * <p>Delivery is at-most-once: if the queue of a peer is full, or the peer is unreachable, the messages are
+ * discarded. The connection is retried after {@link #RECONNECT_DELAY_MILLIS}. The connections are not
+ * authenticated nor encrypted, so the nodes must communicate through a trusted network.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class TcpClusterTransport implements ClusterTransport {
+
+    /**
+     * Default maximum number of messages queued for each peer
+     */
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 65536;
+
+    /**
+     * Time to wait before reconnecting to a peer whose connection failed, in milliseconds
+     */
+    public static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final InetSocketAddress bindAddress;
+    private final int maxPendingMessages;
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+
+    private volatile ServerSocket server = null;
+    private volatile Consumer<byte[]> receiver = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Instantiates a transport that listens on the given address, with at most
+     * {@link #DEFAULT_MAX_PENDING_MESSAGES} queued for each peer.
+     * @param bindAddress the address to listen on. Port 0 chooses a free port (see {@link #getLocalAddress()})
+     */
+    public TcpClusterTransport(InetSocketAddress bindAddress) {
+        this(bindAddress, DEFAULT_MAX_PENDING_MESSAGES);
+    }
+
+    /**
+     * Instantiates a transport that listens on the given address
+     * @param bindAddress the address to listen on. Port 0 chooses a free port (see {@link #getLocalAddress()})
+     * @param maxPendingMessages the maximum number of messages queued for each peer
+     */
+    public TcpClusterTransport(InetSocketAddress bindAddress, int maxPendingMessages) {
+        if (maxPendingMessages <= 0) {
+            throw new IllegalArgumentException("maxPendingMessages must be positive: " + maxPendingMessages);
+        }
+        this.bindAddress = bindAddress;
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    /**
+     * Adds a node of the cluster, to which the published messages are sent
+     * @param address the address the peer is listening on
+     * @return The same {@link TcpClusterTransport} object that received the method call
+     */
+    public TcpClusterTransport addPeer(InetSocketAddress address) {
+        if (closed) {
+            throw new IllegalStateException("Transport is closed");
+        }
+        Peer peer = new Peer(address);
+        peers.add(peer);
+        peer.thread.start();
+        return this;
+    }
+
+    /**
+     * Returns the address this node is listening on
+     * @return the address this node is listening on, or <code>null</code> if the transport has not been started
+     */
+    public InetSocketAddress getLocalAddress() {
+        ServerSocket server = this.server;
+        return server == null ? null : (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    @Override
+    public synchronized void start(Consumer<byte[]> receiver) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Transport already started");
+        }
+        this.receiver = receiver;
+        ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(bindAddress);
+        this.server = server;
+        daemon("jeasse-cluster-accept", this::accept).start();
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        for (Peer peer : peers) {
+            // discarded if the queue is full
+            peer.queue.offer(message);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ServerSocket server = this.server;
+        if (server != null) {
+            closeQuietly(server);
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+        for (Socket socket : inbound) {
+            closeQuietly(socket);
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                // the server socket has been closed
+                return;
+            }
+            inbound.add(socket);
+            daemon("jeasse-cluster-receiver", () -> receive(socket)).start();
+        }
+    }
+
+    private void receive(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_BYTES))) {
+            while (!closed) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                byte[] message = new byte[length];
+                in.readFully(message);
+                receiver.accept(message);
+            }
+        } catch (IOException e) {
+            // the peer disconnected. It will reconnect by itself
+        } finally {
+            inbound.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // ignoring
+        }
+    }
+
+    /**
+     * Outgoing connection to another node, with its own queue of messages and sender thread
+     */
+    private class Peer implements Runnable {
+        private final InetSocketAddress address;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(maxPendingMessages);
+        private final Thread thread;
+        // only accessed from the sender thread, and by close
+        private volatile Socket socket = null;
+        private DataOutputStream out = null;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+            this.thread = daemon("jeasse-cluster-sender-" + address, this);
+        }
+
+        @Override
+        public void run() {
+            List<byte[]> batch = new ArrayList<>();
+            try {
+                while (!closed) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    try {
+                        DataOutputStream out = connection();
+                        for (byte[] message : batch) {
+                            out.writeInt(message.length);
+                            out.write(message);
+                        }
+                        out.flush();
+                    } catch (IOException e) {
+                        disconnect();
+                        if (!closed) {
+                            Thread.sleep(RECONNECT_DELAY_MILLIS);
+                        }
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // closed
+            } finally {
+                disconnect();
+            }
+        }
+
+        private DataOutputStream connection() throws IOException {
+            if (out == null) {
+                Socket socket = new Socket();
+                this.socket = socket;
+                socket.setTcpNoDelay(true);
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_BYTES));
+            }
+            return out;
+        }
+
+        private void disconnect() {
+            out = null;
+            Socket socket = this.socket;
+            if (socket != null) {
+                closeQuietly(socket);
+            }
+        }
+
+        void close() {
+            thread.interrupt();
+            Socket socket = this.socket;
+            if (socket != null) {
+                closeQuietly(socket);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.compression;
+
+/**
+ * Content codings that can be applied to a stream of events, in order of preference
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public enum ContentCoding {
+    /**
+     * GZIP format (RFC 1952)
+     */
+    GZIP("gzip"),
+    /**
+     * ZLIB format (RFC 1950), as defined by HTTP for the "deflate" coding
+     */
+    DEFLATE("deflate");
+
+    private final String token;
+
+    ContentCoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Returns the value of the <code>Content-Encoding</code> header for this coding
+     * @return the name of the coding, as used in HTTP headers
+     */
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.compression;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Configuration and statistics of the compressed streams of events, to be shared by all the event targets that
+ * support compression (e.g. <code>ServletEventTarget.setCompression</code>).</p>
+ *
+ * <p>Each compressed connection keeps its own deflate state, so the events are compressed with the dictionary of
+ * the previous events of the same connection and flushed with {@link Deflater#SYNC_FLUSH}, so each event reaches the
+ * client as soon as it is sent. The deflate state takes about 300KB of native memory per connection, so the number
+ * of simultaneously compressed connections is limited: the connections beyond the limit, as well as the ones whose
+ * client does not accept a supported coding (see the <code>Accept-Encoding</code> header), are not compressed.</p>
+ *
+ * <p>The statistics (compression ratio and time spent compressing) are aggregated for all the connections.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class StreamCompression {
+
+    /**
+     * Default maximum number of simultaneously compressed connections
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 1024;
+
+    private final int level;
+    private final int maxConnections;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+
+    /**
+     * Instantiates a compression configuration with the default compression level and up to
+     * {@link #DEFAULT_MAX_CONNECTIONS} simultaneously compressed connections
+     */
+    public StreamCompression() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Instantiates a compression configuration
+     * @param level the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or
+     *              {@link Deflater#DEFAULT_COMPRESSION}
+     * @param maxConnections the maximum number of simultaneously compressed connections
+     */
+    public StreamCompression(int level, int maxConnections) {
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        }
+        this.level = level;
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Chooses the preferred coding accepted by a client: the supported coding with the highest quality value. The
+     * codings with the same quality are preferred in the order of {@link ContentCoding}. A quality value of 0
+     * excludes a coding, even if the client accepts any coding (<code>*</code>).
+     * @param acceptEncoding the value of the <code>Accept-Encoding</code> header sent by the client, or
+     *                       <code>null</code> if the header is not present
+     * @return the accepted coding, or <code>null</code> if the client does not accept any supported coding
+     */
+    public static ContentCoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        // quality of each coding, or NaN if the client did not mention it
+        double[] qualities = new double[ContentCoding.values().length];
+        Arrays.fill(qualities, Double.NaN);
+        double anyQuality = 0;
+        for (String entry : acceptEncoding.split(",")) {
+            int semicolon = entry.indexOf(';');
+            String token = (semicolon < 0 ? entry : entry.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+            double quality = semicolon < 0 ? 1 : qualityOf(entry.substring(semicolon + 1));
+            if (token.equals("*")) {
+                anyQuality = quality;
+            }
+            for (ContentCoding coding : ContentCoding.values()) {
+                if (token.equals(coding.getToken()) || (coding == ContentCoding.GZIP && token.equals("x-gzip"))) {
+                    qualities[coding.ordinal()] = quality;
+                }
+            }
+        }
+        ContentCoding preferred = null;
+        double preferredQuality = 0;
+        for (ContentCoding coding : ContentCoding.values()) {
+            double quality = qualities[coding.ordinal()];
+            if (Double.isNaN(quality)) {
+                // '*' only applies to the codings that are not mentioned
+                quality = anyQuality;
+            }
+            if (quality > preferredQuality) {
+                preferred = coding;
+                preferredQuality = quality;
+            }
+        }
+        return preferred;
+    }
+
+    private static double qualityOf(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).trim().equalsIgnoreCase("q")) {
+                try {
+                    double quality = Double.parseDouble(parameter.substring(equals + 1).trim());
+                    return Double.isNaN(quality) ? 0 : quality;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Opens a compressed stream for a new connection, if its client accepts a supported coding and the maximum
+     * number of compressed connections has not been reached. The returned compressor must be closed when the
+     * connection is closed, to release its deflate state.
+     * @param acceptEncoding the value of the <code>Accept-Encoding</code> header sent by the client, or
+     *                       <code>null</code> if the header is not present
+     * @return the compressor of the connection, or <code>null</code> if the connection must not be compressed
+     */
+    public StreamCompressor open(String acceptEncoding) {
+        ContentCoding coding = negotiate(acceptEncoding);
+        if (coding == null) {
+            return null;
+        }
+        int current;
+        do {
+            current = connections.get();
+            if (current >= maxConnections) {
+                rejectedConnections.increment();
+                return null;
+            }
+        } while (!connections.compareAndSet(current, current + 1));
+        return new StreamCompressor(this, coding, level);
+    }
+
+    void released() {
+        connections.decrementAndGet();
+    }
+
+    void record(int uncompressed, int compressed, long nanos) {
+        uncompressedBytes.add(uncompressed);
+        compressedBytes.add(compressed);
+        compressionNanos.add(nanos);
+    }
+
+    /**
+     * Returns the number of currently compressed connections
+     * @return the number of open compressors
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Returns the number of connections that accepted compression but were not compressed because the maximum
+     * number of compressed connections had been reached
+     * @return the number of rejected connections
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    /**
+     * Returns the number of bytes that have been compressed
+     * @return the number of bytes before compression
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    /**
+     * Returns the number of bytes that the compressed data took, including the headers and trailers of the streams
+     * @return the number of bytes after compression
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * Returns the ratio between the uncompressed and the compressed bytes (e.g. 4.0 means that the compressed
+     * data takes a quarter of the original size)
+     * @return the compression ratio, or 0 if nothing has been compressed yet
+     */
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 0 : (double) uncompressedBytes.sum() / compressed;
+    }
+
+    /**
+     * Returns the time spent compressing, in nanoseconds
+     * @return the accumulated compression time
+     */
+    public long getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.compression;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>Compressed stream of events of a single connection, as returned by {@link StreamCompression#open(String)}.</p>
+ *
+ * <p>Each write compresses the data with the deflate state of the previous writes and flushes it with
+ * {@link Deflater#SYNC_FLUSH}, so the client can decompress the event as soon as it receives it. The compressed bytes
+ * are written into the provided {@link OutputStream}. The first write includes the header of the stream, and
+ * {@link #finish(OutputStream)} writes its trailer.</p>
+ *
+ * <p>The compressor must be closed (or finished) when the connection is closed, to release its deflate state. It
+ * can be used from many threads, as long as the writes of each event and the writes into the connection are done
+ * in the same order (e.g. holding the same lock).</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class StreamCompressor implements Closeable {
+
+    private static final int DEFLATE_BUFFER_SIZE = 4096;
+
+    private final StreamCompression compression;
+    private final ContentCoding coding;
+
+    // guarded by this
+    private final CompressedBuffer output = new CompressedBuffer();
+    private final DeflaterOutputStream stream;
+    // null for GZIP streams, whose deflater is released by the stream itself
+    private final Deflater deflater;
+    private boolean closed = false;
+
+    StreamCompressor(StreamCompression compression, ContentCoding coding, int level) {
+        this.compression = compression;
+        this.coding = coding;
+        try {
+            if (coding == ContentCoding.GZIP) {
+                deflater = null;
+                stream = new LeveledGzipOutputStream(output, level);
+            } else {
+                deflater = new Deflater(level);
+                stream = new DeflaterOutputStream(output, deflater, DEFLATE_BUFFER_SIZE, true);
+            }
+        } catch (IOException e) {
+            // never thrown by the in-memory buffer
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the coding of the compressed stream, whose token must be sent in the <code>Content-Encoding</code>
+     * header
+     * @return the coding of the stream
+     */
+    public ContentCoding getCoding() {
+        return coding;
+    }
+
+    /**
+     * Compresses a {@link MessageEvent} and writes the compressed bytes into an {@link OutputStream}
+     * @param messageEvent the message to compress
+     * @param out where the compressed bytes are written
+     * @return the number of compressed bytes written into <code>out</code>
+     * @throws IOException if the compressor is closed, or there was an error writing into <code>out</code>
+     */
+    public synchronized int write(MessageEvent messageEvent, OutputStream out) throws IOException {
+        ensureOpen();
+        long start = System.nanoTime();
+        messageEvent.writeTo(stream);
+        return flush(messageEvent.getByteLength(), start, out);
+    }
+
+    /**
+     * Compresses some bytes and writes the compressed bytes into an {@link OutputStream}
+     * @param bytes the bytes to compress
+     * @param out where the compressed bytes are written
+     * @return the number of compressed bytes written into <code>out</code>
+     * @throws IOException if the compressor is closed, or there was an error writing into <code>out</code>
+     */
+    public synchronized int write(byte[] bytes, OutputStream out) throws IOException {
+        ensureOpen();
+        long start = System.nanoTime();
+        stream.write(bytes);
+        return flush(bytes.length, start, out);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Compressed stream is closed");
+        }
+    }
+
+    private int flush(int uncompressedBytes, long start, OutputStream out) throws IOException {
+        // SYNC_FLUSH
+        stream.flush();
+        int compressedBytes = output.size();
+        compression.record(uncompressedBytes, compressedBytes, System.nanoTime() - start);
+        output.drainTo(out);
+        return compressedBytes;
+    }
+
+    /**
+     * Writes the trailer of the compressed stream into an {@link OutputStream}, and closes the compressor
+     * @param out where the trailer is written
+     * @throws IOException if there was an error writing into <code>out</code>. The compressor is closed anyway
+     */
+    public synchronized void finish(OutputStream out) throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            stream.finish();
+            compression.record(0, output.size(), System.nanoTime() - start);
+            output.drainTo(out);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Releases the deflate state of the stream, without writing its trailer
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // never thrown by the in-memory buffer
+        }
+        if (deflater != null) {
+            deflater.end();
+        }
+        compression.released();
+    }
+
+    /**
+     * GZIP stream whose default deflater uses a given compression level
+     */
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, DEFLATE_BUFFER_SIZE, true);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * Reusable in-memory buffer for the compressed bytes of each write. Its memory is released after big writes.
+     */
+    private static class CompressedBuffer extends OutputStream {
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+        private byte[] buffer = new byte[INITIAL_CAPACITY];
+        private int count = 0;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (count + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + bytes));
+            }
+        }
+
+        int size() {
+            return count;
+        }
+
+        void drainTo(OutputStream out) throws IOException {
+            try {
+                out.write(buffer, 0, count);
+            } finally {
+                count = 0;
+                if (buffer.length > MAX_RETAINED_CAPACITY) {
+                    buffer = new byte[INITIAL_CAPACITY];
+                }
+            }
+        }
+    }
+}
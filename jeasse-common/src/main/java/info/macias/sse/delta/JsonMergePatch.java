@@ -0,0 +1,165 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.delta;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Computes and applies JSON merge patches (RFC 7396): a patch is a JSON object with the members that changed,
+ * where a <code>null</code> member removes the member from the document, and a nested object patches the nested
+ * object. Arrays are replaced as a whole.</p>
+ *
+ * <p>A merge patch can't change the root of a document that is not an object, nor set a member to
+ * <code>null</code>. In these cases, no patch is computed and the whole document must be sent.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public final class JsonMergePatch {
+
+    private JsonMergePatch() {
+    }
+
+    /**
+     * A parsed JSON document, to be compared many times without parsing it again
+     */
+    public static final class Document {
+        private final Object root;
+
+        private Document(Object root) {
+            this.root = root;
+        }
+
+        /**
+         * Parses a JSON document
+         * @param json the JSON text
+         * @return the parsed document
+         * @throws IllegalArgumentException if the text is not valid JSON
+         */
+        public static Document parse(String json) {
+            return new Document(Json.parse(json));
+        }
+
+        @Override
+        public String toString() {
+            return Json.write(root);
+        }
+    }
+
+    /**
+     * Returns the merge patch that transforms a document into another
+     * @param source the JSON text of the original document
+     * @param target the JSON text of the modified document
+     * @return the compact JSON text of the patch (<code>{}</code> if the documents are equal), or <code>null</code> if
+     * a merge patch can't express the changes
+     * @throws IllegalArgumentException if any of the texts is not valid JSON
+     */
+    public static String diff(String source, String target) {
+        return diff(Document.parse(source), Document.parse(target));
+    }
+
+    /**
+     * Returns the merge patch that transforms a document into another
+     * @param source the original document
+     * @param target the modified document
+     * @return the compact JSON text of the patch (<code>{}</code> if the documents are equal), or <code>null</code> if
+     * a merge patch can't express the changes
+     */
+    public static String diff(Document source, Document target) {
+        if (!(source.root instanceof Map) || !(target.root instanceof Map)) {
+            return null;
+        }
+        Map<String, Object> patch = diff((Map<?, ?>) source.root, (Map<?, ?>) target.root);
+        return patch == null ? null : Json.write(patch);
+    }
+
+    // returns null if the changes can't be expressed as a merge patch
+    private static Map<String, Object> diff(Map<?, ?> source, Map<?, ?> target) {
+        Map<String, Object> patch = new LinkedHashMap<>();
+        for (Object name : source.keySet()) {
+            if (!target.containsKey(name)) {
+                patch.put((String) name, Json.NULL);
+            }
+        }
+        for (Map.Entry<?, ?> member : target.entrySet()) {
+            Object previous = source.get(member.getKey());
+            Object value = member.getValue();
+            if (value.equals(previous)) {
+                continue;
+            }
+            if (previous instanceof Map && value instanceof Map) {
+                Map<String, Object> nested = diff((Map<?, ?>) previous, (Map<?, ?>) value);
+                if (nested == null) {
+                    return null;
+                }
+                patch.put((String) member.getKey(), nested);
+            } else if (hasNullMembers(value)) {
+                // the patch would remove them instead of setting them to null
+                return null;
+            } else {
+                patch.put((String) member.getKey(), value);
+            }
+        }
+        return patch;
+    }
+
+    private static boolean hasNullMembers(Object value) {
+        if (value == Json.NULL) {
+            return true;
+        }
+        if (value instanceof Map) {
+            for (Object member : ((Map<?, ?>) value).values()) {
+                if (hasNullMembers(member)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies a merge patch to a document, as the clients do
+     * @param target the JSON text of the document
+     * @param patch the JSON text of the merge patch
+     * @return the compact JSON text of the patched document
+     * @throws IllegalArgumentException if any of the texts is not valid JSON
+     */
+    public static String apply(String target, String patch) {
+        return Json.write(apply(Json.parse(target), Json.parse(patch)));
+    }
+
+    private static Object apply(Object target, Object patch) {
+        if (!(patch instanceof Map)) {
+            return patch;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (target instanceof Map) {
+            for (Map.Entry<?, ?> member : ((Map<?, ?>) target).entrySet()) {
+                result.put((String) member.getKey(), member.getValue());
+            }
+        }
+        for (Map.Entry<?, ?> member : ((Map<?, ?>) patch).entrySet()) {
+            String name = (String) member.getKey();
+            if (member.getValue() == Json.NULL) {
+                result.remove(name);
+            } else {
+                result.put(name, apply(result.get(name), member.getValue()));
+            }
+        }
+        return result;
+    }
+}
@@ -16,6 +16,12 @@ limitations under the License.
 
 package info.macias.sse.events;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * This class encapsulates a SSE Message Event. It may specify the next optional fields:
  *
@@ -25,21 +31,37 @@ package info.macias.sse.events;
  *     <li>id: a string that provides an unique identifier for this event</li>
  *     <li>retry: a number representing the timeout (in milliseconds) that the client must wait before
  *         reconnecting again to the server, after the event has been received</li>
+ *     <li>comment: a text that is ignored by the client. A message containing only a comment does not dispatch any
+ *         event, so it can be used to keep the connection alive</li>
  * </ul>
  * @author <a href="http://github.com/mariomac">Mario Macías</a>
  */
 public class MessageEvent {
+    // prefixes of the lines of an encoded message, as written by the MessageEventEncoder
+    private static final byte[] COMMENT_PREFIX = {':', ' '};
+    private static final byte[] EVENT_PREFIX = {'e', 'v', 'e', 'n', 't', ':', ' '};
+    private static final byte[] DATA_PREFIX = {'d', 'a', 't', 'a', ':', ' '};
+    private static final byte[] RETRY_PREFIX = {'r', 'e', 't', 'r', 'y', ':', ' '};
+    private static final byte[] ID_PREFIX = {'i', 'd', ':', ' '};
+
     private final String data;
     private final String event;
-    private final Integer retry;
+    private final boolean hasRetry;
+    private final int retry;
     private final String id;
+    private final String comment;
 
-    private final String toStringCache;
+    private final byte[] bytes;
+    // decoded from the bytes on the first invocation of toString
+    private String toStringCache;
 
-    private MessageEvent(String event, String data, Integer retry, String id, String toStringCache) {
+    private MessageEvent(String event, String data, boolean hasRetry, int retry, String id, String comment,
+                         byte[] bytes) {
+        this.comment = comment;
         this.data = data;
         this.event = event;
-        this.toStringCache = toStringCache;
+        this.bytes = bytes;
+        this.hasRetry = hasRetry;
         this.retry = retry;
         this.id = id;
 
@@ -67,7 +89,7 @@ public class MessageEvent {
      * @return the value of the 'retry' field
      */
     public final Integer getRetry() {
-        return retry;
+        return hasRetry ? retry : null;
     }
 
     /**
@@ -78,6 +100,14 @@ public class MessageEvent {
         return id;
     }
 
+    /**
+     * Returns the comment: a text that is ignored by the client
+     * @return the comment
+     */
+    public final String getComment() {
+        return comment;
+    }
+
     /**
      * Converts the MessageEvent to a String in the format to be transmitted to the listener clients. E.g.:
      * <pre>
@@ -90,7 +120,118 @@ public class MessageEvent {
      * @return the string representation of the MessageEvent. Ready to be transmitted.
      */
     public final String toString() {
-        return toStringCache;
+        String string = toStringCache;
+        if (string == null) {
+            string = new String(bytes, StandardCharsets.UTF_8);
+            toStringCache = string;
+        }
+        return string;
+    }
+
+    /**
+     * Returns the UTF-8 encoded form of {@link #toString()}, ready to be transmitted. The bytes are encoded only
+     * once, when the MessageEvent is built, and shared by all the invocations of this method.
+     * @return a read-only {@link ByteBuffer} whose remaining bytes are the encoded MessageEvent
+     */
+    public final ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the UTF-8 encoded form of {@link #toString()} into an {@link OutputStream}, without encoding it again.
+     * @param out the stream where the MessageEvent is written
+     * @throws IOException if there was an error writing into the stream
+     */
+    public final void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * Returns the length, in bytes, of the UTF-8 encoded MessageEvent
+     * @return the length of the encoded MessageEvent
+     */
+    public final int getByteLength() {
+        return bytes.length;
+    }
+
+    /**
+     * Instantiates a {@link MessageEvent} from its encoded form, as returned by {@link #toByteBuffer()} (e.g. read
+     * from a persistent log). The fields are parsed from the bytes, but the message is not encoded again: the
+     * provided array is kept, without copying it, as the encoded form of the new MessageEvent, so it must not be
+     * modified afterwards. The lines of the comment and the 'data' field are joined with '\n'.
+     * @param bytes the UTF-8 encoded MessageEvent, including the empty line that ends it
+     * @return the {@link MessageEvent} instance
+     * @throws IllegalArgumentException if the bytes are not an encoded MessageEvent
+     */
+    public static MessageEvent decode(byte[] bytes) {
+        StringBuilder comment = null;
+        StringBuilder data = null;
+        String event = null;
+        String id = null;
+        boolean hasRetry = false;
+        int retry = 0;
+        int start = 0;
+        while (true) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                end++;
+            }
+            if (end == bytes.length) {
+                throw new IllegalArgumentException("Encoded message must end with an empty line");
+            }
+            if (end == start) {
+                if (end + 1 != bytes.length) {
+                    throw new IllegalArgumentException("Unexpected bytes after the end of the message");
+                }
+                break;
+            }
+            if (startsWith(bytes, start, end, COMMENT_PREFIX)) {
+                comment = appendLine(comment, bytes, start + COMMENT_PREFIX.length, end);
+            } else if (startsWith(bytes, start, end, DATA_PREFIX)) {
+                data = appendLine(data, bytes, start + DATA_PREFIX.length, end);
+            } else if (startsWith(bytes, start, end, EVENT_PREFIX)) {
+                event = new String(bytes, start + EVENT_PREFIX.length, end - start - EVENT_PREFIX.length,
+                        StandardCharsets.UTF_8);
+            } else if (startsWith(bytes, start, end, ID_PREFIX)) {
+                id = new String(bytes, start + ID_PREFIX.length, end - start - ID_PREFIX.length,
+                        StandardCharsets.UTF_8);
+            } else if (startsWith(bytes, start, end, RETRY_PREFIX)) {
+                String value = new String(bytes, start + RETRY_PREFIX.length, end - start - RETRY_PREFIX.length,
+                        StandardCharsets.US_ASCII);
+                try {
+                    retry = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid 'retry' field: " + value);
+                }
+                hasRetry = true;
+            } else {
+                throw new IllegalArgumentException("Unknown field: "
+                        + new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            }
+            start = end + 1;
+        }
+        return new MessageEvent(event, data == null ? null : data.toString(), hasRetry, retry, id,
+                comment == null ? null : comment.toString(), bytes);
+    }
+
+    private static boolean startsWith(byte[] bytes, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static StringBuilder appendLine(StringBuilder text, byte[] bytes, int start, int end) {
+        String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        if (text == null) {
+            return new StringBuilder(line);
+        }
+        return text.append('\n').append(line);
     }
 
     /**
@@ -99,8 +240,10 @@ public class MessageEvent {
     public static class Builder {
         private String data = null;
         private String event = null;
-        private Integer retry = null;
+        private boolean hasRetry = false;
+        private int retry = 0;
         private String id = null;
+        private String comment = null;
 
         /**
          * Sets the information of the 'data' field: string data to be transmitted with the event
@@ -130,6 +273,7 @@ public class MessageEvent {
          * @return The same target instance where the method has been invoked on.
          */
         public Builder setRetry(int retry) {
+            this.hasRetry = true;
             this.retry = retry;
             return this;
         }
@@ -145,29 +289,44 @@ public class MessageEvent {
         }
 
         /**
-         * Instantiates a {@link MessageEvent} object with the same attributes as the Builder object.
+         * Sets a comment: a text that is ignored by the client. Comments are usually sent alone, in messages that
+         * keep the connection alive without dispatching any event in the client side.
+         * @param comment a text that is ignored by the client
+         * @return The same target instance where the method has been invoked on.
+         */
+        public Builder setComment(String comment) {
+            this.comment = comment;
+            return this;
+        }
+
+        /**
+         * Instantiates a {@link MessageEvent} object with the same attributes as the Builder object. The message is
+         * encoded to UTF-8 into a buffer that is reused by the invoking thread, and then copied into its final byte
+         * array: the lines of the comment and the 'data' field are
+         * separated at each '\n', '\r' or "\r\n", and the line breaks are removed from the 'event' and 'id' fields.
          * @return the {@link MessageEvent} instance
          */
         public MessageEvent build() {
-            StringBuilder sb = new StringBuilder();
-            if(event != null) {
-                sb.append("event: ").append(event.replace("\n", "")).append('\n');
-            }
-            if(data != null) {
-                for(String s : data.split("\n")) {
-                    sb.append("data: ").append(s).append('\n');
-                }
-            }
-            if(retry != null) {
-                sb.append("retry: ").append(retry).append('\n');
-            }
-            if(id != null) {
-                sb.append("id: ").append(id.replace("\n","")).append('\n');
-            }
+            MessageEventEncoder encoder = MessageEventEncoder.get();
+            encoder.encode(comment, event, data, hasRetry, retry, id);
+            return new MessageEvent(event, data, hasRetry, retry, id, comment, encoder.toByteArray());
+        }
 
-            // an empty line dispatches the event
-            sb.append('\n');
-            return new MessageEvent(event,data,retry,id,sb.toString());
+        /**
+         * Encodes the message that would be built by {@link #build()} into a caller-supplied buffer, without
+         * instantiating the {@link MessageEvent} nor allocating any memory. This allows writing many messages into a
+         * reusable buffer (e.g. a direct buffer to be written into a channel). The position of the buffer is advanced
+         * by the number of written bytes.
+         * @param buffer the buffer where the encoded message is written
+         * @return the number of written bytes
+         * @throws BufferOverflowException if the remaining bytes of the buffer are not enough for the message. Then,
+         * nothing is written
+         */
+        public int writeTo(ByteBuffer buffer) {
+            MessageEventEncoder encoder = MessageEventEncoder.get();
+            int length = encoder.encode(comment, event, data, hasRetry, retry, id);
+            encoder.writeTo(buffer);
+            return length;
         }
     }
 }
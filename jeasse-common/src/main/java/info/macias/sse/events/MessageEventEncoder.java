@@ -0,0 +1,260 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.events;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes the fields of a {@link MessageEvent} into UTF-8 bytes, ready to be transmitted. The line breaks are
+ * scanned by hand and the characters are encoded as they are scanned, into a byte array that is reused by all the
+ * messages encoded from the same thread, so no intermediate strings, arrays nor builders are allocated.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+final class MessageEventEncoder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // bigger buffers are released after use, so a single huge message does not retain its memory forever
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+    private static final ThreadLocal<MessageEventEncoder> ENCODERS = ThreadLocal.withInitial(MessageEventEncoder::new);
+
+    private static final byte[] COMMENT = {':', ' '};
+    private static final byte[] EVENT = {'e', 'v', 'e', 'n', 't', ':', ' '};
+    private static final byte[] DATA = {'d', 'a', 't', 'a', ':', ' '};
+    private static final byte[] RETRY = {'r', 'e', 't', 'r', 'y', ':', ' '};
+    private static final byte[] ID = {'i', 'd', ':', ' '};
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+    // the characters of the field being encoded, copied in bulk to be scanned faster than String.charAt
+    private char[] chars = new char[INITIAL_CAPACITY];
+
+    private MessageEventEncoder() {
+    }
+
+    /**
+     * Returns the encoder of the invoking thread
+     * @return the encoder of the invoking thread
+     */
+    static MessageEventEncoder get() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Encodes a message into the internal buffer, replacing the previously encoded message
+     * @return the number of bytes of the encoded message
+     */
+    int encode(String comment, String event, String data, boolean hasRetry, int retry, String id) {
+        length = 0;
+        if (comment != null) {
+            writeLines(COMMENT, comment, comment.length());
+        }
+        if (event != null) {
+            writeField(EVENT, event);
+        }
+        if (data != null) {
+            // as String.split, trailing empty lines are ignored
+            int end = data.length();
+            while (end > 0 && isLineBreak(data.charAt(end - 1))) {
+                end--;
+            }
+            if (end > 0 || data.isEmpty()) {
+                writeLines(DATA, data, end);
+            }
+        }
+        if (hasRetry) {
+            writeRetry(retry);
+        }
+        if (id != null) {
+            writeField(ID, id);
+        }
+        // an empty line dispatches the event
+        ensureCapacity(1);
+        buffer[length++] = '\n';
+        return length;
+    }
+
+    /**
+     * Returns a copy of the last encoded message
+     * @return the bytes of the last encoded message
+     */
+    byte[] toByteArray() {
+        byte[] bytes = Arrays.copyOf(buffer, length);
+        release();
+        return bytes;
+    }
+
+    /**
+     * Copies the last encoded message into a buffer
+     * @param out the destination buffer
+     * @throws BufferOverflowException if the remaining bytes of the buffer are not enough. Then, nothing is copied
+     */
+    void writeTo(ByteBuffer out) {
+        try {
+            out.put(buffer, 0, length);
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        if (chars.length > MAX_RETAINED_CAPACITY) {
+            chars = new char[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Writes a line for each line of the text: '\r', '\n' and "\r\n" are line breaks
+     */
+    private void writeLines(byte[] prefix, String text, int end) {
+        char[] chars = load(text, end);
+        int start = 0;
+        while (true) {
+            write(prefix);
+            int lineEnd = writeUtf8(chars, start, end);
+            ensureCapacity(1);
+            buffer[length++] = '\n';
+            if (lineEnd >= end) {
+                return;
+            }
+            start = lineEnd + 1;
+            if (chars[lineEnd] == '\r' && start < end && chars[start] == '\n') {
+                start++;
+            }
+        }
+    }
+
+    /**
+     * Writes a single-line field, removing its line breaks
+     */
+    private void writeField(byte[] prefix, String value) {
+        write(prefix);
+        int end = value.length();
+        char[] chars = load(value, end);
+        for (int start = 0; start < end; start++) {
+            start = writeUtf8(chars, start, end);
+        }
+        ensureCapacity(1);
+        buffer[length++] = '\n';
+    }
+
+    private void writeRetry(int retry) {
+        write(RETRY);
+        // the longest int, with sign, and the line break
+        ensureCapacity(12);
+        long value = retry;
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= value) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer[length++] = (byte) ('0' + value / divisor % 10);
+        }
+        buffer[length++] = '\n';
+    }
+
+    /**
+     * Encodes the characters from <code>from</code> (inclusive) to <code>to</code> (exclusive) or to the first line
+     * break. As {@link String#getBytes(java.nio.charset.Charset)}, unpaired
+     * surrogates are replaced by '?'
+     * @return the position of the line break, or <code>to</code>
+     */
+    private int writeUtf8(char[] text, int from, int to) {
+        // fast path for ASCII text, that needs a byte per character
+        ensureCapacity(to - from);
+        byte[] buf = buffer;
+        int pos = length;
+        int i = from;
+        for (; i < to; i++) {
+            char c = text[i];
+            if (c >= 0x80 || c <= '\r' && isLineBreak(c)) {
+                break;
+            }
+            buf[pos++] = (byte) c;
+        }
+        for (; i < to; i++) {
+            // up to 4 bytes per character (surrogate pairs)
+            if (pos + 4 > buf.length) {
+                length = pos;
+                ensureCapacity(Math.max(4, to - i));
+                buf = buffer;
+            }
+            char c = text[i];
+            if (c < 0x80) {
+                if (isLineBreak(c)) {
+                    length = pos;
+                    return i;
+                }
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | c >> 6);
+                buf[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text[i + 1])) {
+                int cp = Character.toCodePoint(c, text[++i]);
+                buf[pos++] = (byte) (0xF0 | cp >> 18);
+                buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                buf[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | c >> 12);
+                buf[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buf[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        length = pos;
+        return to;
+    }
+
+    /**
+     * Copies the first <code>end</code> characters of a string into the reusable array of characters
+     */
+    private char[] load(String text, int end) {
+        if (chars.length < end) {
+            chars = new char[Math.max(chars.length * 2, end)];
+        }
+        text.getChars(0, end, chars, 0);
+        return chars;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (length + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes));
+        }
+    }
+}
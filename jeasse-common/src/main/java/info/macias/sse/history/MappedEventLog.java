@@ -0,0 +1,376 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.history;
+
+import info.macias.sse.EventHistory;
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Persistent {@link EventHistory}: an append-only log of the broadcast messages, stored in a directory as a
+ * sequence of memory-mapped segment files, so the subscribers that reconnect after the server restarts can still
+ * receive the messages they missed.</p>
+ *
+ * <p>The messages are stored in their encoded form, so they are neither encoded when they are appended nor when
+ * they are replayed. Only the messages with an 'id' field are indexed, by the position of their last occurrence in
+ * the log. The index is kept in memory, and it is rebuilt from the segment files when the log is opened.</p>
+ *
+ * <p>The appended messages are written into the mapped memory, so they are kept if the server process crashes.
+ * To keep them if the operating system crashes, {@link #flush()} must be invoked.</p>
+ *
+ * <p>When the active segment is full, a new segment is created, and the oldest segments are deleted if the log
+ * exceeds its maximum size (see {@link Builder#setMaxBytes(long)}), or if their last message is older than the
+ * maximum age (see {@link Builder#setMaxAge(long, TimeUnit)}). The retention is applied to whole segments, and the
+ * active segment is never deleted.</p>
+ *
+ * <p>Only one log can be open for a given directory. This class is thread-safe.</p>
+ *
+ * <pre>
+ *     MappedEventLog log = new MappedEventLog.Builder(Paths.get("/var/lib/myapp/events"))
+ *             .setMaxBytes(1024L * 1024 * 1024)
+ *             .setMaxAge(1, TimeUnit.DAYS)
+ *             .build();
+ *     EventBroadcast broadcaster = new EventBroadcast.Builder()
+ *             .setHistory(log)
+ *             .build();
+ * </pre>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class MappedEventLog implements EventHistory, Closeable {
+
+    private static final String LOCK_FILE = "log.lock";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final FileChannel lockChannel;
+
+    // by base offset. Guarded by this
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    // log offset of the last occurrence of each id. Guarded by this
+    private final Map<String, Long> index = new HashMap<>();
+    // size of the segment files. Guarded by this
+    private long bytes = 0;
+    private boolean closed = false;
+
+    private MappedEventLog(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        this.maxBytes = builder.maxBytes;
+        this.maxAgeMillis = builder.maxAgeMillis;
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("Event log is already open: " + directory);
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + Segment.SUFFIX)) {
+                for (Path file : files) {
+                    Segment segment = Segment.open(file);
+                    segments.put(segment.getBaseOffset(), segment);
+                    bytes += segment.getCapacity();
+                }
+            }
+            for (Segment segment : segments.values()) {
+                for (int position = 0; position < segment.getEnd(); position = segment.next(position)) {
+                    String id = segment.getId(position);
+                    if (id != null) {
+                        index.put(id, segment.getBaseOffset() + position);
+                    }
+                }
+            }
+            if (segments.isEmpty()) {
+                Segment segment = Segment.create(directory, 0, segmentSize);
+                segments.put(0L, segment);
+                bytes += segment.getCapacity();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeSegments();
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stores a message at the end of the log.
+     * @param messageEvent the message to store
+     * @throws UncheckedIOException if the message could not be stored (e.g. the disk is full)
+     * @throws IllegalStateException if the log is closed
+     */
+    @Override
+    public synchronized void append(MessageEvent messageEvent) {
+        if (closed) {
+            throw new IllegalStateException("Event log is closed");
+        }
+        long now = System.currentTimeMillis();
+        byte[] id = messageEvent.getId() == null ? null : messageEvent.getId().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer message = messageEvent.toByteBuffer();
+        try {
+            Segment active = segments.lastEntry().getValue();
+            int position = active.append(now, id, message);
+            if (position < 0) {
+                active = roll(active, Segment.recordSize(id, message));
+                position = active.append(now, id, message);
+            }
+            if (id != null) {
+                index.put(messageEvent.getId(), active.getBaseOffset() + position);
+            }
+            expire(now);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // invoked holding the lock of this
+    private Segment roll(Segment active, int recordSize) throws IOException {
+        if (active.getEnd() == 0) {
+            // the record is bigger than an empty segment. Replacing it by a bigger one, with the same base offset
+            segments.remove(active.getBaseOffset());
+            bytes -= active.getCapacity();
+            active.delete();
+        }
+        long baseOffset = active.getBaseOffset() + active.getEnd();
+        Segment segment = Segment.create(directory, baseOffset, Math.max(segmentSize, recordSize));
+        segments.put(baseOffset, segment);
+        bytes += segment.getCapacity();
+        return segment;
+    }
+
+    // invoked holding the lock of this
+    private void expire(long now) throws IOException {
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (bytes <= maxBytes && oldest.getLastTimestamp() >= now - maxAgeMillis) {
+                return;
+            }
+            segments.remove(oldest.getBaseOffset());
+            bytes -= oldest.getCapacity();
+            for (int position = 0; position < oldest.getEnd(); position = oldest.next(position)) {
+                String id = oldest.getId(position);
+                if (id != null) {
+                    index.remove(id, oldest.getBaseOffset() + position);
+                }
+            }
+            oldest.delete();
+        }
+    }
+
+    /**
+     * Sends to a subscriber the messages that were stored after the message with the given id. The messages are
+     * read one by one from the mapped segments, so the log is not locked while they are sent.
+     * @param lastEventId the 'id' field of the last message received by the subscriber
+     * @param eventTarget the subscriber
+     * @return <code>true</code> if the subscriber has received all the messages stored after the given id.
+     * <code>false</code> if there is no message with such id, or the segments containing the messages to replay were
+     * deleted while they were being sent.
+     * @throws IOException if the connection of the subscriber failed while receiving the messages, or the log was
+     * closed while they were being sent
+     */
+    @Override
+    public boolean replay(String lastEventId, EventTarget eventTarget) throws IOException {
+        long offset;
+        synchronized (this) {
+            Long last = lastEventId == null ? null : index.get(lastEventId);
+            if (last == null) {
+                return false;
+            }
+            offset = last;
+        }
+        while (true) {
+            byte[] message;
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Event log is closed");
+                }
+                Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+                if (entry == null) {
+                    return false;
+                }
+                Segment segment = entry.getValue();
+                int position = segment.next((int) (offset - segment.getBaseOffset()));
+                while (position >= segment.getEnd()) {
+                    entry = segments.higherEntry(segment.getBaseOffset());
+                    if (entry == null) {
+                        return true;
+                    }
+                    segment = entry.getValue();
+                    position = 0;
+                }
+                message = segment.getMessage(position);
+                offset = segment.getBaseOffset() + position;
+            }
+            eventTarget.send(MessageEvent.decode(message));
+        }
+    }
+
+    /**
+     * Returns the number of segment files
+     * @return the number of segment files
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the size of the segment files, including their preallocated space
+     * @return the size of the segment files, in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Writes the stored messages to the storage device, so they are kept even if the operating system crashes.
+     */
+    public synchronized void flush() {
+        for (Segment segment : segments.values()) {
+            segment.flush();
+        }
+    }
+
+    /**
+     * Writes the stored messages to the storage device, and closes the segment files.
+     * @throws IOException if a file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            closeSegments();
+        } finally {
+            // releases the lock
+            lockChannel.close();
+        }
+    }
+
+    private void closeSegments() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        index.clear();
+    }
+
+    /**
+     * Helper class used to build a configured {@link MappedEventLog} instance.
+     */
+    public static class Builder {
+        /**
+         * Default size of the segment files, in bytes
+         */
+        public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+        private final Path directory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private long maxBytes = Long.MAX_VALUE;
+        private long maxAgeMillis = Long.MAX_VALUE;
+
+        /**
+         * Instantiates a builder
+         * @param directory the directory of the segment files. It is created if it does not exist
+         */
+        public Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Sets the size of the segment files, which are preallocated and mapped into memory as a whole. A message
+         * bigger than the segment size gets its own, bigger, segment. Defaults to {@link #DEFAULT_SEGMENT_SIZE}.
+         * @param segmentSize the size of the segment files, in bytes
+         * @return The same target instance where the method has been invoked on.
+         * @throws IllegalArgumentException if the size is not positive
+         */
+        public Builder setSegmentSize(int segmentSize) {
+            if (segmentSize <= 0) {
+                throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of the log. When it is exceeded, the oldest segments are deleted. By default, the
+         * size is not limited.
+         * @param maxBytes the maximum size of the segment files, in bytes
+         * @return The same target instance where the method has been invoked on.
+         * @throws IllegalArgumentException if the size is not positive
+         */
+        public Builder setMaxBytes(long maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("Maximum size must be positive: " + maxBytes);
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the maximum age of the messages. The oldest segments are deleted once their last message is older
+         * than the maximum age. By default, the age is not limited.
+         * @param maxAge the maximum age of the messages
+         * @param unit the time unit of the maximum age
+         * @return The same target instance where the method has been invoked on.
+         * @throws IllegalArgumentException if the age is not positive
+         */
+        public Builder setMaxAge(long maxAge, TimeUnit unit) {
+            if (maxAge <= 0) {
+                throw new IllegalArgumentException("Maximum age must be positive: " + maxAge);
+            }
+            this.maxAgeMillis = unit.toMillis(maxAge);
+            return this;
+        }
+
+        /**
+         * Opens the log, creating its directory if it does not exist, and reading the existing segment files
+         * @return the {@link MappedEventLog} instance
+         * @throws IOException if the log could not be opened, or it is already open
+         */
+        public MappedEventLog build() throws IOException {
+            return new MappedEventLog(this);
+        }
+    }
+}
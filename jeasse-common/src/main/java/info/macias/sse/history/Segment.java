@@ -0,0 +1,292 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.history;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Memory-mapped file of a {@link MappedEventLog}, holding a sequence of records. Each record contains:</p>
+ *
+ * <ul>
+ *     <li>the length of the rest of the record, excluding the checksum (4 bytes)</li>
+ *     <li>the CRC32 checksum of the rest of the record (4 bytes)</li>
+ *     <li>the time when the record was appended, in milliseconds since the epoch (8 bytes)</li>
+ *     <li>the length of the UTF-8 encoded 'id' field, or -1 if the message has no id (4 bytes)</li>
+ *     <li>the UTF-8 encoded 'id' field</li>
+ *     <li>the encoded message, as returned by {@link info.macias.sse.events.MessageEvent#toByteBuffer()}</li>
+ * </ul>
+ *
+ * <p>The file is preallocated, and the unused space is filled with zeros, so a record whose length is zero marks
+ * the end of the written records. A record whose checksum does not match (e.g. it was being written when the server
+ * crashed) is discarded with all the records after it. This class is not thread-safe.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+final class Segment {
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int TIMESTAMP_SIZE = 8;
+    private static final int ID_LENGTH_SIZE = 4;
+
+    static final String SUFFIX = ".log";
+
+    private final long baseOffset;
+    private final Path path;
+    private final FileChannel channel;
+    // declared as ByteBuffer, so the bytecode runs on Java 8, where MappedByteBuffer does not override its methods
+    private final ByteBuffer buffer;
+    private final CRC32 checksum = new CRC32();
+    // position after the last record
+    private int end = 0;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private Segment(long baseOffset, Path path, FileChannel channel, ByteBuffer buffer) {
+        this.baseOffset = baseOffset;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new, empty, segment file
+     * @param directory the directory of the log
+     * @param baseOffset the log offset of the first record of the segment
+     * @param capacity the size of the file
+     * @return the new segment
+     * @throws IOException if the file already exists or can't be created
+     */
+    static Segment create(Path directory, long baseOffset, int capacity) throws IOException {
+        Path path = directory.resolve(String.format("%020d", baseOffset) + SUFFIX);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new Segment(baseOffset, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing segment file, and discards the records after the first corrupted one, if any
+     * @param path the segment file, whose name is its base offset followed by {@link #SUFFIX}
+     * @return the segment
+     * @throws IOException if the file can't be opened
+     */
+    static Segment open(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        long baseOffset = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment is too big: " + path);
+            }
+            Segment segment = new Segment(baseOffset, path, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segment.recover();
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void recover() {
+        int position = 0;
+        while (position + LENGTH_SIZE + CHECKSUM_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            int payload = position + LENGTH_SIZE + CHECKSUM_SIZE;
+            if (length < TIMESTAMP_SIZE + ID_LENGTH_SIZE || length > buffer.capacity() - payload
+                    || checksum(payload, length) != buffer.getInt(position + LENGTH_SIZE)) {
+                // the rest of the file can't be trusted. Cleaning it, so it is not mistaken for records later
+                for (int i = position; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            lastTimestamp = buffer.getLong(payload);
+            position = payload + length;
+        }
+        end = position;
+    }
+
+    /**
+     * Returns the number of bytes of a record
+     * @param id the UTF-8 encoded 'id' field, or <code>null</code>
+     * @param message the encoded message
+     * @return the number of bytes of the record
+     */
+    static int recordSize(byte[] id, ByteBuffer message) {
+        return LENGTH_SIZE + CHECKSUM_SIZE + TIMESTAMP_SIZE + ID_LENGTH_SIZE + (id == null ? 0 : id.length)
+                + message.remaining();
+    }
+
+    /**
+     * Appends a record at the end of the segment
+     * @param timestamp the time when the record is appended, in milliseconds since the epoch
+     * @param id the UTF-8 encoded 'id' field, or <code>null</code>
+     * @param message the encoded message. Its position is not modified
+     * @return the position of the record in the segment, or -1 if there is not enough room for it
+     */
+    int append(long timestamp, byte[] id, ByteBuffer message) {
+        int size = recordSize(id, message);
+        if (size > buffer.capacity() - end) {
+            return -1;
+        }
+        int position = end;
+        int payload = position + LENGTH_SIZE + CHECKSUM_SIZE;
+        seek(payload);
+        buffer.putLong(timestamp);
+        buffer.putInt(id == null ? -1 : id.length);
+        if (id != null) {
+            buffer.put(id);
+        }
+        buffer.put(message.duplicate());
+        int length = size - LENGTH_SIZE - CHECKSUM_SIZE;
+        buffer.putInt(position + LENGTH_SIZE, checksum(payload, length));
+        // the length is written last: a record with length is complete, unless the server crashes
+        buffer.putInt(position, length);
+        end = position + size;
+        lastTimestamp = timestamp;
+        return position;
+    }
+
+    private int checksum(int from, int length) {
+        ByteBuffer bytes = buffer.duplicate();
+        // cast, so the bytecode runs on Java 8, where ByteBuffer does not override the methods of Buffer
+        ((Buffer) bytes).limit(from + length).position(from);
+        checksum.reset();
+        checksum.update(bytes);
+        return (int) checksum.getValue();
+    }
+
+    private void seek(int position) {
+        ((Buffer) buffer).position(position);
+    }
+
+    /**
+     * Returns the position of the record after the given one
+     * @param position the position of a record
+     * @return the position of the next record, which is {@link #getEnd()} if the given record is the last one
+     */
+    int next(int position) {
+        return position + LENGTH_SIZE + CHECKSUM_SIZE + buffer.getInt(position);
+    }
+
+    /**
+     * Returns the 'id' field of a record
+     * @param position the position of the record
+     * @return the 'id' field, or <code>null</code> if the message has no id
+     */
+    String getId(int position) {
+        int idPosition = position + LENGTH_SIZE + CHECKSUM_SIZE + TIMESTAMP_SIZE;
+        int idLength = buffer.getInt(idPosition);
+        if (idLength < 0) {
+            return null;
+        }
+        byte[] id = new byte[idLength];
+        seek(idPosition + ID_LENGTH_SIZE);
+        buffer.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a copy of the encoded message of a record
+     * @param position the position of the record
+     * @return the encoded message
+     */
+    byte[] getMessage(int position) {
+        int payload = position + LENGTH_SIZE + CHECKSUM_SIZE;
+        int idLength = Math.max(0, buffer.getInt(payload + TIMESTAMP_SIZE));
+        int messagePosition = payload + TIMESTAMP_SIZE + ID_LENGTH_SIZE + idLength;
+        byte[] message = new byte[payload + buffer.getInt(position) - messagePosition];
+        seek(messagePosition);
+        buffer.get(message);
+        return message;
+    }
+
+    /**
+     * Returns the log offset of the first record of the segment
+     * @return the log offset of the first record of the segment
+     */
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    /**
+     * Returns the position after the last record, which is also the number of used bytes
+     * @return the position after the last record
+     */
+    int getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the size of the file
+     * @return the size of the file
+     */
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns the time when the last record was appended
+     * @return the time when the last record was appended, in milliseconds since the epoch, or
+     * {@link Long#MIN_VALUE} if the segment is empty
+     */
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Writes the modified records to the storage device
+     */
+    void flush() {
+        ((MappedByteBuffer) buffer).force();
+    }
+
+    /**
+     * Closes the file. The mapped memory is released when the segment is garbage collected
+     * @throws IOException if the file can't be closed
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Closes and deletes the file
+     * @throws IOException if the file can't be deleted
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.metrics;
+
+/**
+ * <p>Listener that is notified of the activity of a broadcaster and its subscribers, to be forwarded to a metrics
+ * library or kept in memory (see {@link InMemoryMetrics}).</p>
+ *
+ * <p>All the methods have an empty default implementation, so implementations only need to override the ones they
+ * are interested in. The methods are invoked from the threads that broadcast the messages and, in fan-out mode,
+ * from the executor threads, so they must be thread-safe and should return quickly.</p>
+ *
+ * <p>When no metrics listener is configured, the broadcaster uses {@link #NOOP} and does not measure anything.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public interface BroadcastMetrics {
+
+    /**
+     * Listener that ignores all the notifications
+     */
+    BroadcastMetrics NOOP = new BroadcastMetrics() {
+    };
+
+    /**
+     * Invoked each time a message is broadcast, before it is sent to the subscribers
+     */
+    default void messageBroadcast() {
+    }
+
+    /**
+     * Invoked after a message (including the keep-alive comments) has been successfully written to a subscriber
+     * @param bytes the size of the message, in bytes
+     * @param latencyNanos the time spent writing the message, in nanoseconds
+     */
+    default void messageSent(int bytes, long latencyNanos) {
+    }
+
+    /**
+     * Invoked when writing a message to a subscriber throws an exception
+     */
+    default void sendFailed() {
+    }
+
+    /**
+     * Invoked when a message of normal priority is queued for a subscriber, in fan-out mode
+     * @param queueDepth the number of pending messages of the subscriber, including the new one
+     */
+    default void messageQueued(int queueDepth) {
+    }
+
+    /**
+     * Invoked when a high priority message is queued for a subscriber, in fan-out mode (see
+     * {@link info.macias.sse.EventBroadcast.Builder#setHighPriority(java.util.function.Predicate)})
+     * @param queueDepth the number of pending high priority messages of the subscriber, including the new one
+     */
+    default void priorityMessageQueued(int queueDepth) {
+    }
+
+    /**
+     * Invoked when a message is discarded because the queue of the subscriber is full, in fan-out mode with the
+     * {@link info.macias.sse.OverflowPolicy#DROP_OLDEST} and {@link info.macias.sse.OverflowPolicy#DROP_NEWEST}
+     * policies, or because the subscriber exceeded its {@link info.macias.sse.RateLimit}
+     */
+    default void messageDropped() {
+    }
+
+    /**
+     * Invoked when a message replaces a pending message with the same conflation key in the queue of a subscriber,
+     * in fan-out mode (see {@link info.macias.sse.EventBroadcast.Builder#setConflationKey(java.util.function.Function)}),
+     * or replaces the message held by a {@link info.macias.sse.RateLimit} with the
+     * {@link info.macias.sse.RateLimit.Policy#CONFLATE} policy
+     */
+    default void messageConflated() {
+    }
+
+    /**
+     * Invoked when a subscriber is added to the broadcaster
+     */
+    default void subscriberAdded() {
+    }
+
+    /**
+     * Invoked when a subscriber is removed from the broadcaster
+     * @param reason why the subscriber was removed
+     */
+    default void subscriberRemoved(RemovalReason reason) {
+    }
+}
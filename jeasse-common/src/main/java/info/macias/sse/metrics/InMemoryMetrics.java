@@ -0,0 +1,202 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>{@link BroadcastMetrics} implementation that keeps counters and histograms in memory, without depending on any
+ * metrics library. The values accumulate since the instance was created, and can be read at any moment (e.g. to
+ * expose them through JMX or a status endpoint).</p>
+ *
+ * <p>An instance can be shared by many broadcasters to aggregate their metrics.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class InMemoryMetrics implements BroadcastMetrics {
+
+    private final LongAdder messagesBroadcast = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder failedSends = new LongAdder();
+    private final LongAdder messagesDropped = new LongAdder();
+    private final LongAdder messagesConflated = new LongAdder();
+    private final LongAdder subscribersAdded = new LongAdder();
+    private final LongAdder[] subscribersRemoved = new LongAdder[RemovalReason.values().length];
+    private final Histogram sendLatency = new Histogram();
+    private final Histogram queueDepth = new Histogram();
+    private final Histogram priorityQueueDepth = new Histogram();
+
+    /**
+     * Instantiates a set of metrics with all the counters at zero
+     */
+    public InMemoryMetrics() {
+        for (int i = 0; i < subscribersRemoved.length; i++) {
+            subscribersRemoved[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void messageBroadcast() {
+        messagesBroadcast.increment();
+    }
+
+    @Override
+    public void messageSent(int bytes, long latencyNanos) {
+        messagesSent.increment();
+        bytesWritten.add(bytes);
+        sendLatency.record(latencyNanos);
+    }
+
+    @Override
+    public void sendFailed() {
+        failedSends.increment();
+    }
+
+    @Override
+    public void messageQueued(int queueDepth) {
+        this.queueDepth.record(queueDepth);
+    }
+
+    @Override
+    public void priorityMessageQueued(int queueDepth) {
+        priorityQueueDepth.record(queueDepth);
+    }
+
+    @Override
+    public void messageDropped() {
+        messagesDropped.increment();
+    }
+
+    @Override
+    public void messageConflated() {
+        messagesConflated.increment();
+    }
+
+    @Override
+    public void subscriberAdded() {
+        subscribersAdded.increment();
+    }
+
+    @Override
+    public void subscriberRemoved(RemovalReason reason) {
+        subscribersRemoved[reason.ordinal()].increment();
+    }
+
+    /**
+     * Returns the number of broadcast messages
+     * @return the number of broadcast messages
+     */
+    public long getMessagesBroadcast() {
+        return messagesBroadcast.sum();
+    }
+
+    /**
+     * Returns the number of messages successfully written to the subscribers, including keep-alive comments
+     * @return the number of messages written to the subscribers
+     */
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    /**
+     * Returns the number of bytes successfully written to the subscribers
+     * @return the number of bytes written to the subscribers
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Returns the number of writes to the subscribers that failed
+     * @return the number of failed writes
+     */
+    public long getFailedSends() {
+        return failedSends.sum();
+    }
+
+    /**
+     * Returns the number of messages discarded because the queue of a subscriber was full, or it exceeded its rate
+     * @return the number of discarded messages
+     */
+    public long getMessagesDropped() {
+        return messagesDropped.sum();
+    }
+
+    /**
+     * Returns the number of messages that replaced a pending or rate-limited message
+     * @return the number of conflated messages
+     */
+    public long getMessagesConflated() {
+        return messagesConflated.sum();
+    }
+
+    /**
+     * Returns the number of subscribers that have been added
+     * @return the number of added subscribers
+     */
+    public long getSubscribersAdded() {
+        return subscribersAdded.sum();
+    }
+
+    /**
+     * Returns the number of subscribers that have been removed for the given reason
+     * @param reason the reason of the removal
+     * @return the number of subscribers removed for the given reason
+     */
+    public long getSubscribersRemoved(RemovalReason reason) {
+        return subscribersRemoved[reason.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of subscribers that have been removed, for any reason
+     * @return the number of removed subscribers
+     */
+    public long getSubscribersRemoved() {
+        long removed = 0;
+        for (LongAdder adder : subscribersRemoved) {
+            removed += adder.sum();
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the histogram of the time spent writing each message to a subscriber, in nanoseconds
+     * @return the histogram of write latencies
+     */
+    public Histogram getSendLatency() {
+        return sendLatency;
+    }
+
+    /**
+     * Returns the histogram of the queue depths of the subscribers each time a message of normal priority is queued,
+     * in fan-out mode
+     * @return the histogram of queue depths
+     */
+    public Histogram getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the distribution of the depths of the high priority queues of the subscribers, recorded each time
+     * a high priority message is queued. Its count is the number of queued high priority messages
+     * @return the histogram of high priority queue depths
+     */
+    public Histogram getPriorityQueueDepth() {
+        return priorityQueueDepth;
+    }
+}
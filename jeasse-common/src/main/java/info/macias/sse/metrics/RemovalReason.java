@@ -0,0 +1,42 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.metrics;
+
+/**
+ * Reason why a subscriber was removed from a broadcaster
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public enum RemovalReason {
+    /**
+     * Writing a broadcast message to the subscriber failed (e.g. the client closed the connection)
+     */
+    SEND_FAILED,
+    /**
+     * The queue of outgoing messages of the subscriber was full, and the overflow policy is
+     * {@link info.macias.sse.OverflowPolicy#DISCONNECT}
+     */
+    QUEUE_OVERFLOW,
+    /**
+     * Writing a keep-alive comment to the subscriber failed
+     */
+    HEARTBEAT_FAILED,
+    /**
+     * The broadcaster was closed
+     */
+    CLOSED
+}
@@ -0,0 +1,81 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.EventBroadcastTest.RecordingEventTarget;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AttributeBroadcastTest {
+
+    private static Map<String, String> attributes(String user, String region) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("user", user);
+        attributes.put("region", region);
+        return attributes;
+    }
+
+    @Test
+    public void testSendToMatchingSubscribers() throws Exception {
+        AttributeBroadcast broadcast = new AttributeBroadcast();
+        RecordingEventTarget aliceLaptop = new RecordingEventTarget(0);
+        RecordingEventTarget alicePhone = new RecordingEventTarget(0);
+        RecordingEventTarget bob = new RecordingEventTarget(0);
+        broadcast.addSubscriber(aliceLaptop, attributes("alice", "eu"));
+        broadcast.addSubscriber(alicePhone, attributes("alice", "us"));
+        broadcast.addSubscriber(bob, attributes("bob", "eu"));
+
+        broadcast.sendTo("user", "alice", "message", "hi alice");
+        broadcast.sendTo("region", "eu", "message", "hi eu");
+        broadcast.sendTo("user", "carol", "message", "hi carol");
+
+        assertEquals(Arrays.asList("hi alice", "hi eu"), aliceLaptop.received);
+        assertEquals(Collections.singletonList("hi alice"), alicePhone.received);
+        assertEquals(Collections.singletonList("hi eu"), bob.received);
+        assertEquals(2, broadcast.getSubscriberCount("user", "alice"));
+        assertEquals(attributes("bob", "eu"), broadcast.getAttributes(bob));
+
+        // messages broadcast without attributes reach all the subscribers
+        broadcast.broadcast("message", "to all");
+        assertEquals(Arrays.asList("hi eu", "to all"), bob.received);
+    }
+
+    @Test
+    public void testFailedSubscribersAreRemovedFromTheIndex() throws Exception {
+        AttributeBroadcast broadcast = new AttributeBroadcast();
+        RecordingEventTarget gone = new RecordingEventTarget(0);
+        RecordingEventTarget alive = new RecordingEventTarget(0);
+        broadcast.addSubscriber(gone, attributes("alice", "eu"));
+        broadcast.addSubscriber(alive, attributes("bob", "eu"));
+
+        gone.disconnected = true;
+        broadcast.sendTo("region", "eu", "message", "hello");
+
+        assertEquals(1, broadcast.getSubscriberCount());
+        assertEquals(0, broadcast.getSubscriberCount("user", "alice"));
+        assertEquals(1, broadcast.getSubscriberCount("region", "eu"));
+        assertTrue(broadcast.getAttributes(gone).isEmpty());
+        assertEquals(Collections.singletonList("hello"), alive.received);
+    }
+}
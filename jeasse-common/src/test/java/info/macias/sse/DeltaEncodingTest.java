@@ -0,0 +1,127 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.EventBroadcastTest.RecordingEventTarget;
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeltaEncodingTest {
+
+    private static final String V1 = "{\"symbol\":\"ACME\",\"price\":10.5,\"volume\":1200,\"exchange\":\"NYSE\"}";
+    private static final String V2 = "{\"symbol\":\"ACME\",\"price\":10.7,\"volume\":1200,\"exchange\":\"NYSE\"}";
+    private static final String V3 = "{\"symbol\":\"ACME\",\"price\":10.8,\"volume\":1300,\"exchange\":\"NYSE\"}";
+    private static final String V4 = "{\"symbol\":\"ACME\",\"price\":10.6,\"volume\":1300,\"exchange\":\"NYSE\"}";
+
+    @Test
+    public void testPatchesForSubscribersInSync() throws Exception {
+        DeltaEncoding encoding = new DeltaEncoding();
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setDeltaEncoding(encoding)
+                .setOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                .build();
+        RecordingEventTarget early = new RecordingEventTarget(0);
+        broadcast.addSubscriber(early);
+        broadcast.broadcast(encoding.update("ACME", "quote", V1));
+
+        RecordingEventTarget late = new RecordingEventTarget(0);
+        broadcast.addSubscriber(late);
+        MessageEvent v2 = encoding.update("ACME", "quote", V2);
+        broadcast.broadcast(v2);
+
+        // unrelated messages are sent as they are
+        broadcast.broadcast("chat", "hello");
+
+        late.writable = false;
+        broadcast.broadcast(encoding.update("ACME", "quote", V3));
+        late.writable = true;
+        broadcast.broadcast(encoding.update("ACME", "quote", V4));
+
+        assertEquals(Arrays.asList(V1, "{\"price\":10.7}", "hello", "{\"price\":10.8,\"volume\":1300}",
+                "{\"price\":10.6}"), early.received);
+        assertEquals("quote", early.events.get(0).getEvent());
+        assertEquals("quote" + DeltaEncoding.PATCH_SUFFIX, early.events.get(1).getEvent());
+        // a new subscriber, and a subscriber that missed a version, get the whole document
+        assertEquals(Arrays.asList(V2, "hello", V4), late.received);
+        assertEquals("quote", late.events.get(2).getEvent());
+    }
+
+    @Test
+    public void testWholeDocuments() throws Exception {
+        DeltaEncoding encoding = new DeltaEncoding(1);
+        EventBroadcast broadcast = new EventBroadcast.Builder().setDeltaEncoding(encoding).build();
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        broadcast.addSubscriber(target);
+
+        broadcast.broadcast(encoding.update("a", null, "{\"x\":1}"));
+        // the patch would not be smaller
+        broadcast.broadcast(encoding.update("a", null, "{\"x\":2}"));
+        // the change can't be expressed as a merge patch
+        broadcast.broadcast(encoding.update("b", null, V1));
+        broadcast.broadcast(encoding.update("b", null, V1.replace("10.5", "null")));
+
+        broadcast.broadcast(encoding.update("c", null, V1));
+        MessageEvent expired = encoding.update("c", null, V2);
+        MessageEvent lagging = encoding.update("c", null, V3);
+        // versions older than the retained ones are sent whole, and the subscriber is not in sync until the next
+        // whole document
+        broadcast.broadcast(expired);
+        broadcast.broadcast(lagging);
+        broadcast.broadcast(encoding.update("c", null, V4));
+        // forgotten documents start again from the whole document
+        encoding.remove("c");
+        broadcast.broadcast(encoding.update("c", null, V1));
+        broadcast.broadcast(encoding.update("c", null, V2));
+
+        assertEquals(Arrays.asList("{\"x\":1}", "{\"x\":2}", V1, V1.replace("10.5", "null"),
+                V1, V2, V3, "{\"price\":10.6}", V1, "{\"price\":10.7}"), target.received);
+        assertEquals("message" + DeltaEncoding.PATCH_SUFFIX, target.events.get(9).getEvent());
+    }
+
+    @Test
+    public void testSubscribersForgetRemovedDocuments() throws Exception {
+        DeltaEncoding encoding = new DeltaEncoding();
+        RecordingEventTarget recording = new RecordingEventTarget(0);
+        DeltaEventTarget target = new DeltaEventTarget(recording, encoding);
+        target.send(encoding.update("a", null, V1));
+        target.send(encoding.update("b", null, V1));
+        target.send(encoding.update("c", null, V1));
+        assertEquals(3, target.getWrittenDocuments());
+
+        encoding.remove("a");
+        // any message forgets them, not only the documents
+        target.send("chat", "hello");
+        assertEquals(2, target.getWrittenDocuments());
+
+        encoding.remove("b");
+        encoding.remove("c");
+        target.send(encoding.update("d", null, V1));
+        assertEquals(1, target.getWrittenDocuments());
+
+        // documents updated again after being removed start from the whole document
+        MessageEvent again = encoding.update("a", null, V2);
+        target.send(again);
+        target.send(encoding.update("a", null, V3));
+        assertEquals(2, target.getWrittenDocuments());
+        assertEquals(Arrays.asList(V1, V1, V1, "hello", V1, V2, "{\"price\":10.8,\"volume\":1300}"),
+                recording.received);
+    }
+}
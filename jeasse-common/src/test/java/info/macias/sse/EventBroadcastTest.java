@@ -0,0 +1,738 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.InMemoryMetrics;
+import info.macias.sse.metrics.RemovalReason;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventBroadcastTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    // Executor whose tasks are run only when the test explicitly asks for it
+    private final Queue<Runnable> manualTasks = new ConcurrentLinkedQueue<>();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void runManualTasks() {
+        Runnable task;
+        while ((task = manualTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private EventBroadcast manualBroadcast(int queueCapacity, OverflowPolicy policy) {
+        return new EventBroadcast.Builder()
+                .setExecutor(manualTasks::add)
+                .setQueueCapacity(queueCapacity)
+                .setOverflowPolicy(policy)
+                .build();
+    }
+
+    /**
+     * Event target that stores the received messages, optionally blocking on each write until a latch is released
+     */
+    static class RecordingEventTarget implements EventTarget {
+        final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        final List<MessageEvent> events = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch blocker;
+        final CountDownLatch expected;
+        volatile boolean disconnected = false;
+        volatile boolean closed = false;
+        volatile boolean writable = true;
+        volatile Runnable writableHandler = null;
+
+        RecordingEventTarget(int expectedEvents) {
+            this(expectedEvents, new CountDownLatch(0));
+        }
+
+        RecordingEventTarget(int expectedEvents, CountDownLatch blocker) {
+            this.expected = new CountDownLatch(expectedEvents);
+            this.blocker = blocker;
+        }
+
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() throws IOException {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) throws IOException {
+            return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+        }
+
+        @Override
+        public EventTarget send(MessageEvent messageEvent) throws IOException {
+            if (disconnected) {
+                throw new IOException("disconnected");
+            }
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            received.add(messageEvent.getData());
+            events.add(messageEvent);
+            expected.countDown();
+            return this;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isWritable() {
+            return writable;
+        }
+
+        @Override
+        public void setWritableHandler(Runnable handler) {
+            writableHandler = handler;
+        }
+
+        boolean await() throws InterruptedException {
+            return expected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotDelayOthers() throws Exception {
+        // Given a fan-out broadcaster
+        EventBroadcast broadcast = new EventBroadcast.Builder().setExecutor(executor).build();
+
+        // With a subscriber that blocks on every write, and another fast subscriber
+        CountDownLatch blocker = new CountDownLatch(1);
+        RecordingEventTarget slow = new RecordingEventTarget(10, blocker);
+        RecordingEventTarget fast = new RecordingEventTarget(10);
+        broadcast.addSubscriber(slow);
+        broadcast.addSubscriber(fast);
+
+        // When messages are broadcast
+        for (int i = 0; i < 10; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+
+        // The fast subscriber receives all of them while the slow one is still blocked
+        assertTrue(fast.await());
+        assertTrue(slow.received.isEmpty());
+
+        // And the slow subscriber eventually receives all of them, in order
+        blocker.countDown();
+        assertTrue(slow.await());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(String.valueOf(i), slow.received.get(i));
+            assertEquals(String.valueOf(i), fast.received.get(i));
+        }
+    }
+
+    @Test
+    public void testMessagesAreReceivedInOrder() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder().setExecutor(executor).build();
+        RecordingEventTarget target = new RecordingEventTarget(1000);
+        broadcast.addSubscriber(target);
+
+        for (int i = 0; i < 1000; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+
+        assertTrue(target.await());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(String.valueOf(i), target.received.get(i));
+        }
+    }
+
+    @Test
+    public void testLargeFanOutIsQueuedFromTheExecutor() throws Exception {
+        EventBroadcast broadcast = manualBroadcast(10, OverflowPolicy.DISCONNECT);
+        List<RecordingEventTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 2 * FanOutDispatcher.CHUNK_SIZE + 1; i++) {
+            RecordingEventTarget target = new RecordingEventTarget(2);
+            broadcast.addSubscriber(target);
+            targets.add(target);
+        }
+
+        broadcast.broadcast("message", "0");
+        broadcast.broadcast("message", "1");
+        // the broadcasting thread has not visited the subscribers
+        for (int depth : broadcast.getQueueDepths().values()) {
+            assertEquals(0, depth);
+        }
+
+        runManualTasks();
+        for (RecordingEventTarget target : targets) {
+            assertEquals(Arrays.asList("0", "1"), target.received);
+        }
+    }
+
+    @Test
+    public void testLargeFanOutKeepsTheOrder() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder().setExecutor(executor).build();
+        List<RecordingEventTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 3 * FanOutDispatcher.CHUNK_SIZE; i++) {
+            RecordingEventTarget target = new RecordingEventTarget(100);
+            broadcast.addSubscriber(target);
+            targets.add(target);
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+            expected.add(String.valueOf(i));
+            if (i == 50) {
+                // they are detached in the next broadcasts, so there are fewer subscribers than a chunk while the
+                // previous messages may be still dispatched
+                for (RecordingEventTarget target : targets.subList(1, targets.size())) {
+                    target.disconnected = true;
+                }
+            }
+        }
+        assertTrue(targets.get(0).await());
+        assertEquals(expected, targets.get(0).received);
+        for (RecordingEventTarget target : targets.subList(1, targets.size())) {
+            List<String> received = new ArrayList<>(target.received);
+            assertEquals(expected.subList(0, received.size()), received);
+        }
+    }
+
+    @Test
+    public void testDisconnectedSubscribersAreDetached() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder().setExecutor(executor).build();
+        RecordingEventTarget target = new RecordingEventTarget(1);
+        broadcast.addSubscriber(target);
+        broadcast.broadcast("message", "hello");
+        assertTrue(target.await());
+
+        // When the subscriber disconnects
+        target.disconnected = true;
+        broadcast.broadcast("message", "fails");
+
+        // It is detached from the broadcaster in the next broadcasts
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (broadcast.hasSubscribers() && System.currentTimeMillis() < deadline) {
+            broadcast.broadcast("message", "ping");
+            Thread.sleep(10);
+        }
+        assertFalse(broadcast.hasSubscribers());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder().setExecutor(executor).build();
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        broadcast.addSubscriber(target);
+
+        broadcast.close();
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!target.closed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(target.closed);
+        assertFalse(broadcast.hasSubscribers());
+    }
+
+    @Test
+    public void testDropOldestPolicy() throws Exception {
+        EventBroadcast broadcast = manualBroadcast(2, OverflowPolicy.DROP_OLDEST);
+        RecordingEventTarget target = new RecordingEventTarget(2);
+        broadcast.addSubscriber(target);
+
+        for (int i = 0; i < 5; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+        assertEquals(2, (int) broadcast.getQueueDepths().get(target));
+
+        runManualTasks();
+        assertEquals(Arrays.asList("3", "4"), target.received);
+        assertEquals(0, (int) broadcast.getQueueDepths().get(target));
+    }
+
+    @Test
+    public void testDropNewestPolicy() throws Exception {
+        EventBroadcast broadcast = manualBroadcast(2, OverflowPolicy.DROP_NEWEST);
+        RecordingEventTarget target = new RecordingEventTarget(2);
+        broadcast.addSubscriber(target);
+
+        for (int i = 0; i < 5; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+        assertEquals(2, (int) broadcast.getQueueDepths().get(target));
+
+        runManualTasks();
+        assertEquals(Arrays.asList("0", "1"), target.received);
+        assertTrue(broadcast.hasSubscribers());
+    }
+
+    @Test
+    public void testDisconnectPolicy() throws Exception {
+        EventBroadcast broadcast = manualBroadcast(2, OverflowPolicy.DISCONNECT);
+        RecordingEventTarget slow = new RecordingEventTarget(1);
+        broadcast.addSubscriber(slow);
+
+        for (int i = 0; i < 3; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+        // The subscriber is detached as soon as its queue overflows
+        assertFalse(broadcast.hasSubscribers());
+
+        // And it only receives the reconnection hint before being closed
+        runManualTasks();
+        assertEquals(1, slow.events.size());
+        assertNull(slow.events.get(0).getData());
+        assertEquals(EventBroadcast.Builder.DEFAULT_DISCONNECT_RETRY, (int) slow.events.get(0).getRetry());
+        assertTrue(slow.closed);
+    }
+
+    @Test
+    public void testReplayMissedMessages() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setReplayBuffer(new ReplayBuffer(100))
+                .build();
+        for (int i = 0; i < 10; i++) {
+            broadcast.broadcast(new MessageEvent.Builder().setId(String.valueOf(i)).setData(String.valueOf(i)).build());
+        }
+
+        RecordingEventTarget reconnected = new RecordingEventTarget(3);
+        assertTrue(broadcast.addSubscriber(reconnected, "6"));
+        assertEquals(Arrays.asList("7", "8", "9"), reconnected.received);
+
+        RecordingEventTarget tooOld = new RecordingEventTarget(0);
+        assertFalse(broadcast.addSubscriber(tooOld, "unknown"));
+        assertTrue(tooOld.received.isEmpty());
+
+        broadcast.broadcast("message", "10");
+        assertEquals(Arrays.asList("7", "8", "9", "10"), reconnected.received);
+        assertEquals(Arrays.asList("10"), tooOld.received);
+    }
+
+    @Test
+    public void testReplayHandoverWhileBroadcasting() throws Exception {
+        final int messages = 5000;
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setExecutor(executor)
+                .setQueueCapacity(messages)
+                .setReplayBuffer(new ReplayBuffer(messages))
+                .build();
+        broadcast.broadcast(new MessageEvent.Builder().setId("0").setData("0").build());
+
+        // Given a broadcaster that is continuously sending messages
+        Thread publisher = new Thread(() -> {
+            for (int i = 1; i < messages; i++) {
+                broadcast.broadcast(new MessageEvent.Builder().setId(String.valueOf(i)).setData(String.valueOf(i)).build());
+            }
+        });
+        publisher.start();
+
+        // When subscribers reconnect in the meantime
+        List<RecordingEventTarget> subscribers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            RecordingEventTarget target = new RecordingEventTarget(messages - 1);
+            assertTrue(broadcast.addSubscriber(target, "0"));
+            subscribers.add(target);
+        }
+        publisher.join();
+
+        // All of them receive all the messages after the last one they had, exactly once and in order
+        for (RecordingEventTarget target : subscribers) {
+            assertTrue(target.await());
+            assertEquals(messages - 1, target.received.size());
+            for (int i = 1; i < messages; i++) {
+                assertEquals(String.valueOf(i), target.received.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        EventBroadcast broadcast = new EventBroadcast.Builder().setMetrics(metrics).build();
+        RecordingEventTarget alive = new RecordingEventTarget(2);
+        RecordingEventTarget dead = new RecordingEventTarget(1);
+        broadcast.addSubscriber(alive);
+        broadcast.addSubscriber(dead);
+
+        MessageEvent message = new MessageEvent.Builder().setData("hello").build();
+        broadcast.broadcast(message);
+        dead.disconnected = true;
+        broadcast.broadcast(message);
+        broadcast.close();
+
+        assertEquals(2, metrics.getMessagesBroadcast());
+        assertEquals(3, metrics.getMessagesSent());
+        assertEquals(3 * message.getByteLength(), metrics.getBytesWritten());
+        assertEquals(3, metrics.getSendLatency().getCount());
+        assertEquals(1, metrics.getFailedSends());
+        assertEquals(2, metrics.getSubscribersAdded());
+        assertEquals(1, metrics.getSubscribersRemoved(RemovalReason.SEND_FAILED));
+        assertEquals(1, metrics.getSubscribersRemoved(RemovalReason.CLOSED));
+        assertEquals(2, metrics.getSubscribersRemoved());
+        // the user-provided targets are still visible through the broadcaster
+        broadcast.addSubscriber(alive);
+        assertTrue(broadcast.getQueueDepths().containsKey(alive));
+    }
+
+    @Test
+    public void testQueueMetrics() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        EventBroadcast dropping = new EventBroadcast.Builder()
+                .setExecutor(manualTasks::add)
+                .setQueueCapacity(2)
+                .setOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                .setMetrics(metrics)
+                .build();
+        dropping.addSubscriber(new RecordingEventTarget(2));
+        for (int i = 0; i < 5; i++) {
+            dropping.broadcast("message", String.valueOf(i));
+        }
+        assertEquals(3, metrics.getMessagesDropped());
+        assertEquals(2, metrics.getQueueDepth().getCount());
+        assertEquals(2, metrics.getQueueDepth().getMax());
+
+        EventBroadcast disconnecting = new EventBroadcast.Builder()
+                .setExecutor(manualTasks::add)
+                .setQueueCapacity(2)
+                .setMetrics(metrics)
+                .build();
+        disconnecting.addSubscriber(new RecordingEventTarget(1));
+        for (int i = 0; i < 3; i++) {
+            disconnecting.broadcast("message", String.valueOf(i));
+        }
+        assertEquals(1, metrics.getSubscribersRemoved(RemovalReason.QUEUE_OVERFLOW));
+
+        runManualTasks();
+        // the reconnection hint is also written
+        assertEquals(3, metrics.getMessagesSent());
+    }
+
+    @Test
+    public void testUnwritableSubscribersInSyncMode() throws Exception {
+        EventBroadcast skipping = new EventBroadcast.Builder().setOverflowPolicy(OverflowPolicy.DROP_NEWEST).build();
+        RecordingEventTarget slow = new RecordingEventTarget(1);
+        skipping.addSubscriber(slow);
+        slow.writable = false;
+        skipping.broadcast("message", "skipped");
+        slow.writable = true;
+        skipping.broadcast("message", "received");
+        assertEquals(Arrays.asList("received"), slow.received);
+
+        EventBroadcast evicting = new EventBroadcast();
+        RecordingEventTarget stalled = new RecordingEventTarget(1);
+        RecordingEventTarget healthy = new RecordingEventTarget(1);
+        evicting.addSubscriber(stalled);
+        evicting.addSubscriber(healthy);
+        stalled.writable = false;
+        evicting.broadcast("message", "hello");
+        // the stalled subscriber only receives the reconnection hint before being closed
+        assertEquals(1, evicting.getSubscriberCount());
+        assertTrue(stalled.closed);
+        assertEquals(1, stalled.events.size());
+        assertNull(stalled.events.get(0).getData());
+        assertEquals(Arrays.asList("hello"), healthy.received);
+    }
+
+    @Test
+    public void testFanOutWaitsForWritableSubscribers() throws Exception {
+        EventBroadcast broadcast = manualBroadcast(10, OverflowPolicy.DROP_OLDEST);
+        RecordingEventTarget target = new RecordingEventTarget(3);
+        broadcast.addSubscriber(target);
+        target.writable = false;
+        for (int i = 0; i < 3; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+        runManualTasks();
+        // the messages are kept in the queue while the target is not writable
+        assertTrue(target.received.isEmpty());
+        assertEquals(3, (int) broadcast.getQueueDepths().get(target));
+
+        target.writable = true;
+        target.writableHandler.run();
+        runManualTasks();
+        assertEquals(Arrays.asList("0", "1", "2"), target.received);
+    }
+
+    @Test
+    public void testRemainingCapacity() throws Exception {
+        EventBroadcast broadcast = manualBroadcast(3, OverflowPolicy.DROP_NEWEST);
+        AtomicInteger notifications = new AtomicInteger();
+        broadcast.setWritableHandler(notifications::incrementAndGet);
+        assertEquals(Integer.MAX_VALUE, broadcast.getRemainingCapacity());
+
+        RecordingEventTarget fast = new RecordingEventTarget(0);
+        RecordingEventTarget slow = new RecordingEventTarget(0);
+        broadcast.addSubscriber(fast);
+        broadcast.addSubscriber(slow);
+        broadcast.broadcast("e", "0");
+        broadcast.broadcast("e", "1");
+        assertEquals(1, broadcast.getRemainingCapacity());
+
+        slow.writable = false;
+        runManualTasks();
+        // the capacity follows the slowest subscriber
+        assertEquals(1, broadcast.getRemainingCapacity());
+        broadcast.broadcast("e", "2");
+        assertEquals(0, broadcast.getRemainingCapacity());
+        runManualTasks();
+        // draining the subscribers that were not full does not notify anything
+        assertEquals(0, broadcast.getRemainingCapacity());
+        assertEquals(0, notifications.get());
+
+        slow.writable = true;
+        slow.writableHandler.run();
+        runManualTasks();
+        assertEquals(3, broadcast.getRemainingCapacity());
+        assertEquals(1, notifications.get());
+    }
+
+    @Test
+    public void testRemainingCapacityWhenFullSubscriberDisconnects() throws Exception {
+        EventBroadcast broadcast = manualBroadcast(2, OverflowPolicy.DROP_NEWEST);
+        AtomicInteger notifications = new AtomicInteger();
+        broadcast.setWritableHandler(notifications::incrementAndGet);
+        RecordingEventTarget failing = new RecordingEventTarget(0);
+        RecordingEventTarget closed = new RecordingEventTarget(0);
+        broadcast.addSubscriber(failing);
+        broadcast.addSubscriber(closed);
+        failing.writable = false;
+        closed.writable = false;
+        broadcast.broadcast("e", "0");
+        broadcast.broadcast("e", "1");
+        runManualTasks();
+        assertEquals(0, broadcast.getRemainingCapacity());
+
+        // the first write fails: nothing is written, but the queue is discarded
+        failing.disconnected = true;
+        failing.writable = true;
+        failing.writableHandler.run();
+        runManualTasks();
+        assertEquals(0, notifications.get());
+
+        // the other subscriber is detached without ever becoming writable
+        for (EventTarget target : broadcast.getSubscribers()) {
+            if (EventBroadcast.undecorate(target) == closed) {
+                broadcast.detach(target, RemovalReason.HEARTBEAT_FAILED);
+            }
+        }
+        assertEquals(1, notifications.get());
+        assertEquals(2, broadcast.getRemainingCapacity());
+    }
+
+    @Test
+    public void testRemainingCapacityWithoutExecutor() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        AtomicInteger notifications = new AtomicInteger();
+        broadcast.setWritableHandler(notifications::incrementAndGet);
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        broadcast.addSubscriber(target);
+        assertEquals(1, broadcast.getRemainingCapacity());
+
+        target.writable = false;
+        assertEquals(0, broadcast.getRemainingCapacity());
+        target.writable = true;
+        target.writableHandler.run();
+        assertEquals(1, broadcast.getRemainingCapacity());
+        assertEquals(1, notifications.get());
+    }
+
+    @Test
+    public void testShutdownDrainsSubscribers() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        EventBroadcast broadcast = new EventBroadcast.Builder().setExecutor(executor).setMetrics(metrics).build();
+        RecordingEventTarget first = new RecordingEventTarget(4);
+        RecordingEventTarget second = new RecordingEventTarget(4);
+        broadcast.addSubscriber(first);
+        broadcast.addSubscriber(second);
+        for (int i = 0; i < 3; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+
+        assertTrue(broadcast.shutdown(1000, TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(broadcast.hasSubscribers());
+        Set<Integer> retries = new HashSet<>();
+        for (RecordingEventTarget target : Arrays.asList(first, second)) {
+            // the queued messages are written before the retry hint
+            assertEquals(Arrays.asList("0", "1", "2", null), target.received);
+            retries.add(target.events.get(3).getRetry());
+            assertTrue(target.closed);
+        }
+        // the reconnections are spread over the maximum retry
+        assertEquals(new HashSet<>(Arrays.asList(500, 1000)), retries);
+        assertEquals(2, metrics.getSubscribersRemoved(RemovalReason.CLOSED));
+
+        RecordingEventTarget late = new RecordingEventTarget(0);
+        try {
+            broadcast.addSubscriber(late);
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(late.closed);
+        assertFalse(broadcast.hasSubscribers());
+    }
+
+    @Test
+    public void testShutdownTimeout() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast();
+        RecordingEventTarget fast = new RecordingEventTarget(1);
+        RecordingEventTarget blocked = new RecordingEventTarget(1, new CountDownLatch(1));
+        broadcast.addSubscriber(fast);
+        broadcast.addSubscriber(blocked);
+
+        assertFalse(broadcast.shutdown(0, 200, TimeUnit.MILLISECONDS));
+        assertTrue(fast.await());
+        assertTrue(fast.closed);
+        assertEquals(0, (int) fast.events.get(0).getRetry());
+        // the write that was blocked is interrupted, and the target is closed
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!blocked.closed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(blocked.closed);
+        assertTrue(blocked.received.isEmpty());
+    }
+
+    @Test
+    public void testShutdownClosesSubscriberBlockedForever() throws Exception {
+        AtomicInteger closes = new AtomicInteger();
+        CountDownLatch connectionClosed = new CountDownLatch(1);
+        // like a socket write, the send ignores interruptions and only returns when the connection is closed
+        RecordingEventTarget blocked = new RecordingEventTarget(0) {
+            @Override
+            public EventTarget send(MessageEvent messageEvent) throws IOException {
+                while (connectionClosed.getCount() > 0) {
+                    try {
+                        connectionClosed.await();
+                    } catch (InterruptedException e) {
+                        // ignored
+                    }
+                }
+                throw new IOException("connection closed");
+            }
+
+            @Override
+            public void close() {
+                closes.incrementAndGet();
+                super.close();
+                connectionClosed.countDown();
+            }
+        };
+        EventBroadcast broadcast = new EventBroadcast();
+        broadcast.addSubscriber(blocked);
+
+        assertFalse(broadcast.shutdown(0, 200, TimeUnit.MILLISECONDS));
+        // closed by the shutdown, not by its writer
+        assertTrue(blocked.closed);
+        Thread.sleep(50);
+        assertEquals(1, closes.get());
+    }
+
+    @Test
+    public void testConflation() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setExecutor(manualTasks::add)
+                .setQueueCapacity(3)
+                .setOverflowPolicy(OverflowPolicy.DROP_OLDEST)
+                .setConflationKey(MessageEvent::getEvent)
+                .setMetrics(metrics)
+                .build();
+        RecordingEventTarget target = new RecordingEventTarget(3);
+        broadcast.addSubscriber(target);
+        for (int i = 0; i < 5; i++) {
+            broadcast.broadcast("price-a", "a" + i);
+            broadcast.broadcast("price-b", "b" + i);
+        }
+        // messages without key are never conflated
+        broadcast.broadcast(null, "chat");
+        assertEquals(3, (int) broadcast.getQueueDepths().get(target));
+        assertEquals(8, metrics.getMessagesConflated());
+        assertEquals(0, metrics.getMessagesDropped());
+
+        runManualTasks();
+        // each key keeps its original position, with its latest value
+        assertEquals(Arrays.asList("a4", "b4", "chat"), target.received);
+
+        broadcast.broadcast("price-a", "a5");
+        runManualTasks();
+        assertEquals(Arrays.asList("a4", "b4", "chat", "a5"), target.received);
+    }
+
+    @Test
+    public void testHighPriorityMessagesJumpAhead() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setExecutor(manualTasks::add)
+                .setQueueCapacity(3)
+                .setOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                .setHighPriority(message -> "control".equals(message.getEvent()))
+                .setMetrics(metrics)
+                .build();
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        broadcast.addSubscriber(target);
+        // a flood of bulk messages fills the normal queue, but not the high priority one
+        for (int i = 0; i < 10; i++) {
+            broadcast.broadcast("bulk", String.valueOf(i));
+        }
+        broadcast.broadcast("control", "reload");
+        assertEquals(4, (int) broadcast.getQueueDepths().get(target));
+
+        runManualTasks();
+        assertEquals(Arrays.asList("reload", "0", "1", "2"), target.received);
+        assertEquals(7, metrics.getMessagesDropped());
+        assertEquals(1, metrics.getPriorityQueueDepth().getCount());
+        assertEquals(3, metrics.getQueueDepth().getCount());
+
+        // high priority messages are written even if the subscriber is not writable
+        target.writable = false;
+        broadcast.broadcast("bulk", "waiting");
+        broadcast.broadcast("control", "logout");
+        runManualTasks();
+        assertEquals(Arrays.asList("reload", "0", "1", "2", "logout"), target.received);
+    }
+}
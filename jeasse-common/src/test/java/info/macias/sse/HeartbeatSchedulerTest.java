@@ -0,0 +1,86 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package info.macias.sse;
+
+import info.macias.sse.EventBroadcastTest.RecordingEventTarget;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeartbeatSchedulerTest {
+
+    private final HeartbeatScheduler heartbeat = new HeartbeatScheduler(100, TimeUnit.MILLISECONDS);
+
+    @After
+    public void close() {
+        heartbeat.close();
+    }
+
+    @Test
+    public void testHeartbeatsAreSentToAllTargets() throws Exception {
+        RecordingEventTarget[] targets = new RecordingEventTarget[50];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = new RecordingEventTarget(3);
+            heartbeat.register(targets[i], () -> { });
+        }
+        assertEquals(targets.length, heartbeat.size());
+
+        for (RecordingEventTarget target : targets) {
+            assertTrue(target.await());
+            assertEquals(HeartbeatScheduler.HEARTBEAT, target.events.get(0));
+        }
+    }
+
+    @Test
+    public void testFailingTargetsAreUnregistered() throws Exception {
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        target.disconnected = true;
+        CountDownLatch failed = new CountDownLatch(1);
+        heartbeat.register(target, failed::countDown);
+
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        assertEquals(0, heartbeat.size());
+    }
+
+    @Test
+    public void testBroadcasterDetachesDeadSubscribers() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder().setHeartbeat(heartbeat).build();
+        RecordingEventTarget alive = new RecordingEventTarget(1);
+        RecordingEventTarget dead = new RecordingEventTarget(0);
+        broadcast.addSubscriber(alive);
+        broadcast.addSubscriber(dead);
+        dead.disconnected = true;
+
+        // the dead subscriber is detached without any broadcast
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (broadcast.getSubscriberCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, broadcast.getSubscriberCount());
+        assertTrue(alive.await());
+        assertEquals(1, heartbeat.size());
+
+        broadcast.close();
+        assertEquals(0, heartbeat.size());
+        assertFalse(broadcast.hasSubscribers());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import info.macias.sse.EventBroadcastTest.RecordingEventTarget;
+import info.macias.sse.events.MessageEvent;
+import info.macias.sse.metrics.InMemoryMetrics;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        RateLimit dashboards = new RateLimit(0.1, 2);
+        RecordingEventTarget dashboard = new RecordingEventTarget(0);
+        RecordingEventTarget other = new RecordingEventTarget(0);
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setRateLimits(target -> target == dashboard ? dashboards : null)
+                .setMetrics(metrics)
+                .build();
+        broadcast.addSubscriber(dashboard);
+        broadcast.addSubscriber(other);
+
+        for (int i = 0; i < 5; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+        // comments are not limited
+        broadcast.broadcast(new MessageEvent.Builder().setComment("ping").build());
+
+        assertEquals(Arrays.asList("0", "1", null), dashboard.received);
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", null), other.received);
+        assertEquals(3, metrics.getMessagesDropped());
+    }
+
+    @Test
+    public void testConflate() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setRateLimit(new RateLimit(5, 1, RateLimit.Policy.CONFLATE, scheduler))
+                .build();
+        RecordingEventTarget target = new RecordingEventTarget(2);
+        broadcast.addSubscriber(target);
+        for (int i = 0; i < 10; i++) {
+            broadcast.broadcast("price", String.valueOf(i));
+        }
+        assertTrue(target.await());
+        // the latest message is sent when the next token is available
+        assertEquals(Arrays.asList("0", "9"), target.received);
+    }
+
+    @Test
+    public void testDelay() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setRateLimit(new RateLimit(50, 1, RateLimit.Policy.DELAY, scheduler).setMaxDelayedMessages(3))
+                .build();
+        RecordingEventTarget target = new RecordingEventTarget(4);
+        broadcast.addSubscriber(target);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+        assertTrue(target.await());
+        // a message every 20 ms. The last one did not fit in the queue
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Arrays.asList("0", "1", "2", "3"), target.received);
+        Thread.sleep(100);
+        assertEquals(4, target.received.size());
+    }
+
+    @Test
+    public void testBlockedSubscriberDoesNotDelayReleases() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch unblock = new CountDownLatch(1);
+        try {
+            // the scheduler is shared by all the subscribers
+            EventBroadcast broadcast = new EventBroadcast.Builder()
+                    .setExecutor(executor)
+                    .setRateLimit(new RateLimit(50, 1, RateLimit.Policy.DELAY, scheduler))
+                    .build();
+            // the first message is sent at once, and the write of the first held one blocks
+            RecordingEventTarget blocked = new RecordingEventTarget(0) {
+                @Override
+                public EventTarget send(MessageEvent messageEvent) throws IOException {
+                    if ("1".equals(messageEvent.getData())) {
+                        try {
+                            unblock.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    return super.send(messageEvent);
+                }
+            };
+            RecordingEventTarget target = new RecordingEventTarget(3);
+            broadcast.addSubscriber(blocked);
+            broadcast.addSubscriber(target);
+            for (int i = 0; i < 3; i++) {
+                broadcast.broadcast("message", String.valueOf(i));
+            }
+            // the held messages are written from the executor, so the blocked write does not hold the scheduler
+            assertTrue(target.await());
+            assertEquals(Arrays.asList("0", "1", "2"), target.received);
+            assertEquals(Collections.singletonList("0"), blocked.received);
+        } finally {
+            unblock.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
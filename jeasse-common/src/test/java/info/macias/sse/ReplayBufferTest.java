@@ -0,0 +1,81 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package info.macias.sse;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayBufferTest {
+
+    private static MessageEvent event(String id, String data) {
+        return new MessageEvent.Builder().setId(id).setData(data).build();
+    }
+
+    private static List<String> data(List<MessageEvent> events) {
+        List<String> data = new ArrayList<>();
+        for (MessageEvent event : events) {
+            data.add(event.getData());
+        }
+        return data;
+    }
+
+    @Test
+    public void testEventsAfter() {
+        ReplayBuffer buffer = new ReplayBuffer(10);
+        buffer.append(event("1", "a"));
+        buffer.append(event(null, "b"));
+        buffer.append(event("3", "c"));
+        buffer.append(event("4", "d"));
+
+        assertEquals(Arrays.asList("b", "c", "d"), data(buffer.getEventsAfter("1")));
+        assertEquals(Arrays.asList("d"), data(buffer.getEventsAfter("3")));
+        assertTrue(buffer.getEventsAfter("4").isEmpty());
+        assertNull(buffer.getEventsAfter("unknown"));
+        assertNull(buffer.getEventsAfter(null));
+        assertEquals(4, buffer.size());
+    }
+
+    @Test
+    public void testOldestEventsAreDiscarded() {
+        ReplayBuffer buffer = new ReplayBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.append(event(String.valueOf(i), String.valueOf(i)));
+        }
+        assertEquals(3, buffer.size());
+        assertNull(buffer.getEventsAfter("0"));
+        assertNull(buffer.getEventsAfter("1"));
+        assertEquals(Arrays.asList("3", "4"), data(buffer.getEventsAfter("2")));
+    }
+
+    @Test
+    public void testRepeatedIdsReplayFromTheLastOccurrence() {
+        ReplayBuffer buffer = new ReplayBuffer(3);
+        buffer.append(event("a", "1"));
+        buffer.append(event("b", "2"));
+        buffer.append(event("a", "3"));
+        buffer.append(event("c", "4"));
+        // the first occurrence of "a" has been discarded, but not the last one
+        assertEquals(Arrays.asList("4"), data(buffer.getEventsAfter("a")));
+    }
+}
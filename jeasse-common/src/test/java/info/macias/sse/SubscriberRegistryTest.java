@@ -0,0 +1,82 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriberRegistryTest {
+
+    @Test
+    public void testAddAndRemove() {
+        SubscriberRegistry registry = new SubscriberRegistry();
+        EventTarget[] targets = new EventTarget[40];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = new EventBroadcastTest.RecordingEventTarget(0);
+            assertTrue(registry.add(targets[i]));
+        }
+        assertFalse(registry.add(targets[0]));
+        assertEquals(40, registry.size());
+
+        // removing from the head, the middle and the tail moves the last subscriber into the gap
+        assertTrue(registry.remove(targets[0]));
+        assertTrue(registry.remove(targets[20]));
+        assertTrue(registry.remove(targets[39]));
+        assertFalse(registry.remove(targets[20]));
+        assertEquals(37, registry.size());
+        assertFalse(registry.contains(targets[20]));
+
+        Set<EventTarget> expected = new HashSet<>(Arrays.asList(targets));
+        expected.removeAll(Arrays.asList(targets[0], targets[20], targets[39]));
+        assertEquals(expected, new HashSet<>(Arrays.asList(registry.snapshot())));
+        // the moved subscribers can still be removed
+        for (EventTarget target : expected) {
+            assertTrue(registry.remove(target));
+        }
+        assertTrue(registry.isEmpty());
+        assertEquals(0, registry.snapshot().length);
+    }
+
+    @Test
+    public void testSnapshotIsReusedUntilChanged() {
+        SubscriberRegistry registry = new SubscriberRegistry();
+        EventTarget first = new EventBroadcastTest.RecordingEventTarget(0);
+        EventTarget second = new EventBroadcastTest.RecordingEventTarget(0);
+        registry.add(first);
+        EventTarget[] snapshot = registry.snapshot();
+        assertSame(snapshot, registry.snapshot());
+
+        registry.add(second);
+        // a taken snapshot does not change
+        assertArrayEquals(new EventTarget[]{first}, snapshot);
+        assertArrayEquals(new EventTarget[]{first, second}, registry.snapshot());
+
+        EventTarget[] removed = registry.clear();
+        assertArrayEquals(new EventTarget[]{first, second}, removed);
+        assertTrue(registry.isEmpty());
+        assertTrue(registry.add(first));
+    }
+}
@@ -0,0 +1,235 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package info.macias.sse;
+
+import info.macias.sse.EventBroadcastTest.RecordingEventTarget;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopicBroadcastTest {
+
+    @Test
+    public void testBroadcastOnlyToTopicSubscribers() throws Exception {
+        TopicBroadcast broadcast = new TopicBroadcast();
+        RecordingEventTarget sports = new RecordingEventTarget(0);
+        RecordingEventTarget news = new RecordingEventTarget(0);
+        RecordingEventTarget both = new RecordingEventTarget(0);
+        broadcast.subscribe(sports, "sports");
+        broadcast.subscribe(news, "news");
+        broadcast.subscribe(both, "sports", "news");
+
+        broadcast.broadcast("sports", "message", "goal");
+        broadcast.broadcast("news", "message", "elections");
+        broadcast.broadcast("weather", "message", "rain");
+
+        assertEquals(Arrays.asList("goal"), sports.received);
+        assertEquals(Arrays.asList("elections"), news.received);
+        assertEquals(Arrays.asList("goal", "elections"), both.received);
+
+        // targets in many topics are registered only once
+        assertEquals(3, broadcast.getSubscriberCount());
+        assertEquals(2, broadcast.getSubscriberCount("sports"));
+        assertEquals(new HashSet<>(Arrays.asList("sports", "news")), broadcast.getTopics(both));
+
+        // messages broadcast without topic reach all the subscribers
+        broadcast.broadcast("message", "to all");
+        assertEquals(Arrays.asList("goal", "elections", "to all"), both.received);
+        assertEquals(Arrays.asList("goal", "to all"), sports.received);
+    }
+
+    @Test
+    public void testUnsubscribe() throws Exception {
+        TopicBroadcast broadcast = new TopicBroadcast();
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        broadcast.subscribe(target, "a", "b");
+        broadcast.unsubscribe(target, "a");
+
+        broadcast.broadcast("a", "message", "1");
+        broadcast.broadcast("b", "message", "2");
+
+        assertEquals(Collections.singletonList("2"), target.received);
+        assertEquals(Collections.singleton("b"), broadcast.getTopics());
+    }
+
+    @Test
+    public void testDisconnectedSubscribersAreRemovedFromAllTopics() throws Exception {
+        TopicBroadcast broadcast = new TopicBroadcast();
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        broadcast.subscribe(target, "a", "b");
+
+        target.disconnected = true;
+        broadcast.broadcast("a", "message", "1");
+
+        assertFalse(broadcast.hasSubscribers());
+        assertEquals(0, broadcast.getSubscriberCount("b"));
+        assertTrue(broadcast.getTopics().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentSubscriptionsOpenTheTargetOnce() throws Exception {
+        TopicBroadcast broadcast = new TopicBroadcast();
+        AtomicInteger opens = new AtomicInteger();
+        CountDownLatch opening = new CountDownLatch(1);
+        RecordingEventTarget target = new RecordingEventTarget(0) {
+            @Override
+            public EventTarget open() throws IOException {
+                opens.incrementAndGet();
+                opening.countDown();
+                try {
+                    // gives the other subscriptions time to arrive while the target is being opened
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return this;
+            }
+        };
+        RecordingEventTarget other = new RecordingEventTarget(0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> subscriptions = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                String topic = "topic" + i;
+                subscriptions.add(executor.submit(() -> {
+                    broadcast.subscribe(target, topic);
+                    return null;
+                }));
+            }
+            // the map is not held while the target is opened
+            assertTrue(opening.await(5, TimeUnit.SECONDS));
+            broadcast.subscribe(other, "topic0");
+            for (Future<?> subscription : subscriptions) {
+                subscription.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, opens.get());
+        assertEquals(2, broadcast.getSubscriberCount());
+        assertEquals(new HashSet<>(Arrays.asList("topic0", "topic1", "topic2", "topic3")), broadcast.getTopics(target));
+
+        broadcast.broadcast("topic0", "message", "hello");
+        assertEquals(Collections.singletonList("hello"), target.received);
+        assertEquals(Collections.singletonList("hello"), other.received);
+    }
+
+    @Test
+    public void testTargetThatFailsToOpenIsNotSubscribed() throws Exception {
+        TopicBroadcast broadcast = new TopicBroadcast();
+        AtomicInteger opens = new AtomicInteger();
+        RecordingEventTarget target = new RecordingEventTarget(0) {
+            @Override
+            public EventTarget open() throws IOException {
+                if (opens.incrementAndGet() == 1) {
+                    throw new IOException("disconnected");
+                }
+                return this;
+            }
+        };
+        try {
+            broadcast.subscribe(target, "news");
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(broadcast.hasSubscribers());
+        assertTrue(broadcast.getTopics(target).isEmpty());
+
+        broadcast.subscribe(target, "news");
+        assertEquals(2, opens.get());
+        assertEquals(1, broadcast.getSubscriberCount("news"));
+    }
+
+    @Test
+    public void testSubscribeDoesNotLockTheTarget() throws Exception {
+        TopicBroadcast broadcast = new TopicBroadcast();
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the target may be synchronized by its own connection
+            synchronized (target) {
+                executor.submit(() -> {
+                    broadcast.subscribe(target, "news");
+                    return null;
+                }).get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, broadcast.getSubscriberCount("news"));
+    }
+
+    @Test
+    public void testSubscriptionRacingADetachDoesNotLeaveTheSubscriberInATopic() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 500; i++) {
+                TopicBroadcast broadcast = new TopicBroadcast();
+                RecordingEventTarget target = new RecordingEventTarget(0) {
+                    @Override
+                    public EventTarget open() throws IOException {
+                        if (disconnected) {
+                            throw new IOException("disconnected");
+                        }
+                        return this;
+                    }
+                };
+                broadcast.subscribe(target, "a");
+                target.disconnected = true;
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> detaching = executor.submit(() -> {
+                    start.await();
+                    broadcast.broadcast("a", "message", "fails");
+                    return null;
+                });
+                Future<?> subscribing = executor.submit(() -> {
+                    start.await();
+                    try {
+                        broadcast.subscribe(target, "b", "c");
+                    } catch (IOException e) {
+                        // detached meanwhile, or before, so it can't be opened again
+                    }
+                    return null;
+                });
+                start.countDown();
+                detaching.get(5, TimeUnit.SECONDS);
+                subscribing.get(5, TimeUnit.SECONDS);
+
+                assertFalse(broadcast.hasSubscribers());
+                assertTrue(broadcast.getTopics().isEmpty());
+                assertTrue(broadcast.getTopics(target).isEmpty());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
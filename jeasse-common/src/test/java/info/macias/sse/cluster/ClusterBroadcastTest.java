@@ -0,0 +1,125 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package info.macias.sse.cluster;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ClusterBroadcastTest {
+
+    private static final int NODES = 3;
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final List<ClusterBroadcast> broadcasts = new ArrayList<>();
+    private final List<List<String>> received = new ArrayList<>();
+
+    @After
+    public void close() {
+        broadcasts.forEach(ClusterBroadcast::close);
+    }
+
+    private void startCluster() throws IOException {
+        List<TcpClusterTransport> transports = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            TcpClusterTransport transport = new TcpClusterTransport(new InetSocketAddress("127.0.0.1", 0));
+            List<String> node = Collections.synchronizedList(new ArrayList<>());
+            received.add(node);
+            broadcasts.add(new ClusterBroadcast(transport, messageEvent -> node.add(messageEvent.getData())));
+            transports.add(transport);
+        }
+        for (TcpClusterTransport transport : transports) {
+            for (TcpClusterTransport peer : transports) {
+                if (peer != transport) {
+                    transport.addPeer(peer.getLocalAddress());
+                }
+            }
+        }
+    }
+
+    private void awaitReceived(int messages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (List<String> node : received) {
+            while (node.size() < messages && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void testBroadcastReachesAllNodes() throws Exception {
+        startCluster();
+        for (int i = 0; i < 1000; i++) {
+            broadcasts.get(i % NODES).broadcast("message", String.valueOf(i));
+        }
+        awaitReceived(1000);
+        // nobody receives its own messages twice
+        Thread.sleep(100);
+        for (List<String> node : received) {
+            assertEquals(1000, node.size());
+        }
+    }
+
+    @Test
+    public void testMessagesFromSameNodeAreOrdered() throws Exception {
+        startCluster();
+        for (int i = 0; i < 1000; i++) {
+            broadcasts.get(0).broadcast("message", String.valueOf(i));
+        }
+        awaitReceived(1000);
+        for (List<String> node : received) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(String.valueOf(i), node.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testCodec() throws Exception {
+        MessageEvent full = new MessageEvent.Builder()
+                .setEvent("update")
+                .setData("first line\nsecond line: ñ")
+                .setId("42")
+                .setRetry(1500)
+                .setComment("note")
+                .build();
+        MessageEvent decoded = MessageEventCodec.decode(MessageEventCodec.encode(full));
+        assertEquals(full.toString(), decoded.toString());
+        assertArrayEquals(bytes(full), bytes(decoded));
+
+        MessageEvent empty = MessageEventCodec.decode(MessageEventCodec.encode(new MessageEvent.Builder().build()));
+        assertNull(empty.getEvent());
+        assertNull(empty.getData());
+        assertNull(empty.getRetry());
+    }
+
+    private static byte[] bytes(MessageEvent messageEvent) {
+        byte[] bytes = new byte[messageEvent.getByteLength()];
+        messageEvent.toByteBuffer().get(bytes);
+        return bytes;
+    }
+}
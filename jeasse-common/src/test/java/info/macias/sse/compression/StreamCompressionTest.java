@@ -0,0 +1,143 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.compression;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamCompressionTest {
+
+    @Test
+    public void testNegotiate() {
+        assertEquals(ContentCoding.GZIP, StreamCompression.negotiate("gzip, deflate, br"));
+        assertEquals(ContentCoding.GZIP, StreamCompression.negotiate("deflate;q=0.5, GZIP"));
+        assertEquals(ContentCoding.DEFLATE, StreamCompression.negotiate("gzip;q=0, deflate"));
+        assertEquals(ContentCoding.GZIP, StreamCompression.negotiate("*"));
+        assertNull(StreamCompression.negotiate("identity"));
+        assertNull(StreamCompression.negotiate("br, gzip; q=0"));
+        assertNull(StreamCompression.negotiate(""));
+        assertNull(StreamCompression.negotiate(null));
+    }
+
+    @Test
+    public void testNegotiateExcludedCodingWithWildcard() {
+        assertEquals(ContentCoding.DEFLATE, StreamCompression.negotiate("gzip;q=0, *"));
+        assertEquals(ContentCoding.DEFLATE, StreamCompression.negotiate("*, x-gzip;q=0"));
+        assertNull(StreamCompression.negotiate("gzip;q=0, deflate;q=0, *"));
+        assertNull(StreamCompression.negotiate("*;q=0"));
+    }
+
+    @Test
+    public void testNegotiateRanksByQuality() {
+        assertEquals(ContentCoding.DEFLATE, StreamCompression.negotiate("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(ContentCoding.DEFLATE, StreamCompression.negotiate("gzip;q=0.1, *;q=0.9"));
+        assertEquals(ContentCoding.GZIP, StreamCompression.negotiate("deflate;q=0.3, *;q=0.5"));
+        // the same quality keeps the order of preference
+        assertEquals(ContentCoding.GZIP, StreamCompression.negotiate("deflate;q=0.5, gzip;q=0.5"));
+        assertEquals(ContentCoding.GZIP, StreamCompression.negotiate("deflate;q=invalid, gzip;q=0.001"));
+    }
+
+    @Test
+    public void testEachMessageCanBeDecompressedWhenItIsWritten() throws Exception {
+        StreamCompression compression = new StreamCompression();
+        StreamCompressor compressor = compression.open("gzip");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // the GZIP header is 10 bytes long. The rest is raw deflate data until the trailer
+        Inflater inflater = new Inflater(true);
+        StringBuilder received = new StringBuilder();
+        int inflated = 10;
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            MessageEvent message = new MessageEvent.Builder()
+                    .setEvent("price")
+                    .setData("{\"symbol\":\"ACME\",\"price\":" + (100 + i) + "}")
+                    .build();
+            expected.append(message.toString());
+            compressor.write(message, out);
+
+            byte[] compressed = out.toByteArray();
+            inflater.setInput(compressed, inflated, compressed.length - inflated);
+            inflated = compressed.length;
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = inflater.inflate(buffer)) > 0) {
+                received.append(new String(buffer, 0, length, StandardCharsets.UTF_8));
+            }
+            // the message is available without waiting for more data
+            assertEquals(expected.toString(), received.toString());
+        }
+        compressor.finish(out);
+        inflater.end();
+
+        assertEquals(expected.toString(), decompress(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+        assertEquals(0, compression.getConnections());
+        assertEquals(expected.length(), compression.getUncompressedBytes());
+        assertEquals(out.size(), compression.getCompressedBytes());
+        assertTrue(compression.getCompressionRatio() > 2);
+        assertTrue(compression.getCompressionNanos() > 0);
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        StreamCompressor compressor = new StreamCompression().open("deflate");
+        assertEquals(ContentCoding.DEFLATE, compressor.getCoding());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageEvent message = new MessageEvent.Builder().setData("hello").build();
+        compressor.write(message, out);
+        compressor.finish(out);
+        assertEquals(message.toString(), decompress(new InflaterInputStream(new ByteArrayInputStream(out.toByteArray()))));
+    }
+
+    @Test
+    public void testMaxConnections() {
+        StreamCompression compression = new StreamCompression(1, 1);
+        StreamCompressor first = compression.open("gzip");
+        assertNotNull(first);
+        assertNull(compression.open("gzip"));
+        assertEquals(1, compression.getRejectedConnections());
+
+        first.close();
+        first.close();
+        assertEquals(0, compression.getConnections());
+        assertNotNull(compression.open("gzip"));
+    }
+
+    private static String decompress(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
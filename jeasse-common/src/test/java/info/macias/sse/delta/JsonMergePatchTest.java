@@ -0,0 +1,65 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.delta;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JsonMergePatchTest {
+
+    @Test
+    public void testDiff() {
+        String source = "{\"symbol\": \"ACME\", \"price\": 10.5, \"volume\": 1200, "
+                + "\"book\": {\"bid\": 10.4, \"ask\": 10.6}, \"tags\": [\"a\", \"b\"], \"halted\": false}";
+        String target = "{\"symbol\":\"ACME\",\"price\":10.7,\"book\":{\"bid\":10.4,\"ask\":10.8},"
+                + "\"tags\":[\"a\"],\"halted\":false,\"note\":\"line\\n\\\"quoted\\\"\"}";
+        String patch = JsonMergePatch.diff(source, target);
+        assertEquals("{\"volume\":null,\"price\":10.7,\"book\":{\"ask\":10.8},\"tags\":[\"a\"],"
+                + "\"note\":\"line\\n\\\"quoted\\\"\"}", patch);
+        assertEquals(JsonMergePatch.apply(target, "{}"), JsonMergePatch.apply(source, patch));
+
+        assertEquals("{}", JsonMergePatch.diff(source, source));
+    }
+
+    @Test
+    public void testUnrepresentableChanges() {
+        // a merge patch can't set a member to null
+        assertNull(JsonMergePatch.diff("{\"a\":1}", "{\"a\":null}"));
+        assertNull(JsonMergePatch.diff("{\"a\":1}", "{\"a\":{\"b\":null}}"));
+        // nor change a root that is not an object
+        assertNull(JsonMergePatch.diff("[1,2]", "[1,3]"));
+        // arrays are replaced as they are, even with null elements
+        assertEquals("{\"a\":[null]}", JsonMergePatch.diff("{\"a\":[1]}", "{\"a\":[null]}"));
+    }
+
+    @Test
+    public void testInvalidJson() {
+        for (String invalid : new String[]{"", "{", "{\"a\":}", "{\"a\":1,}", "[1 2]", "\"unterminated", "01x",
+                "{\"a\":1} trailing", "tru"}) {
+            try {
+                JsonMergePatch.Document.parse(invalid);
+                throw new AssertionError("expected IllegalArgumentException for " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals("{\"a\":[1,-2.5e+3,true,null,\"\\u0001\"]}",
+                JsonMergePatch.Document.parse(" { \"a\" : [ 1 , -2.5e+3 , true , null , \"\\u0001\" ] } ").toString());
+    }
+}
@@ -4,6 +4,11 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class MessageEventTest {
 
     @Test
@@ -76,4 +81,117 @@ public class MessageEventTest {
         assertEquals("retry: 1234\n\n", ev.toString());
     }
 
+    @Test
+    public void testCommentBuilder() {
+        MessageEvent ev = new MessageEvent.Builder()
+            .setComment("keep\nalive")
+            .build();
+
+        assertEquals("keep\nalive", ev.getComment());
+        assertNull(ev.getData());
+        assertEquals(": keep\n: alive\n\n", ev.toString());
+        assertEquals(": \n\n", new MessageEvent.Builder().setComment("").build().toString());
+    }
+
+    @Test
+    public void testEncodedBytes() throws Exception {
+        MessageEvent ev = new MessageEvent.Builder()
+            .setEvent("greeting")
+            .setData("Macías says ¡hola! \u20ac")
+            .build();
+
+        byte[] expected = ev.toString().getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, ev.getByteLength());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ev.writeTo(out);
+        assertArrayEquals(expected, out.toByteArray());
+
+        ByteBuffer buffer = ev.toByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        byte[] read = new byte[buffer.remaining()];
+        buffer.get(read);
+        assertArrayEquals(expected, read);
+        // each invocation returns an independent view of the same bytes
+        assertEquals(expected.length, ev.toByteBuffer().remaining());
+    }
+
+    @Test
+    public void testCarriageReturnLineBreaks() {
+        MessageEvent ev = new MessageEvent.Builder()
+            .setEvent("a\r\nb")
+            .setData("1\r2\r\n3\n\r4\r\n")
+            .setComment("x\ry")
+            .build();
+
+        assertEquals(": x\n: y\n"
+                     + "event: ab\n"
+                     + "data: 1\n"
+                     + "data: 2\n"
+                     + "data: 3\n"
+                     + "data: \n"
+                     + "data: 4\n\n", ev.toString());
+        assertEquals("retry: -5\n\n", new MessageEvent.Builder().setRetry(-5).build().toString());
+    }
+
+    @Test
+    public void testWriteToBuffer() {
+        MessageEvent.Builder builder = new MessageEvent.Builder()
+            .setEvent("greeting")
+            .setId("7")
+            .setRetry(Integer.MAX_VALUE)
+            .setData("Macías says\n¡hola! \u20ac \uD83D\uDE00");
+        byte[] expected = builder.build().toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 1);
+        buffer.put((byte) 'x');
+        assertEquals(expected.length, builder.writeTo(buffer));
+        assertEquals(expected.length + 1, buffer.position());
+        byte[] written = new byte[expected.length];
+        buffer.position(1);
+        buffer.get(written);
+        assertArrayEquals(expected, written);
+
+        ByteBuffer small = ByteBuffer.allocate(expected.length - 1);
+        try {
+            builder.writeTo(small);
+            fail("BufferOverflowException expected");
+        } catch (BufferOverflowException e) {
+            assertEquals(0, small.position());
+        }
+    }
+
+    @Test
+    public void testDecode() {
+        MessageEvent ev = new MessageEvent.Builder()
+            .setComment("keep\nalive")
+            .setEvent("greeting")
+            .setId("7")
+            .setRetry(-3)
+            .setData("Macías says\r\n\n¡hola!")
+            .build();
+        byte[] bytes = ev.toString().getBytes(StandardCharsets.UTF_8);
+
+        MessageEvent decoded = MessageEvent.decode(bytes);
+        assertEquals("keep\nalive", decoded.getComment());
+        assertEquals("greeting", decoded.getEvent());
+        assertEquals("7", decoded.getId());
+        assertEquals(-3, (int) decoded.getRetry());
+        // line breaks are normalized
+        assertEquals("Macías says\n\n¡hola!", decoded.getData());
+        assertEquals(ev.toString(), decoded.toString());
+
+        try {
+            MessageEvent.decode("data: a\n".getBytes(StandardCharsets.UTF_8));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // missing empty line
+        }
+        try {
+            MessageEvent.decode("foo: a\n\n".getBytes(StandardCharsets.UTF_8));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // unknown field
+        }
+    }
 }
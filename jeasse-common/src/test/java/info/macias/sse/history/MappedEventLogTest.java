@@ -0,0 +1,169 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.history;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedEventLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MessageEvent event(String id, String data) {
+        return new MessageEvent.Builder().setId(id).setData(data).build();
+    }
+
+    private static List<MessageEvent> replay(MappedEventLog log, String lastEventId, boolean expected)
+            throws IOException {
+        RecordingEventTarget target = new RecordingEventTarget();
+        assertEquals(expected, log.replay(lastEventId, target));
+        return target.received;
+    }
+
+    private static List<String> data(List<MessageEvent> events) {
+        List<String> data = new ArrayList<>();
+        for (MessageEvent event : events) {
+            data.add(event.getData());
+        }
+        return data;
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("events");
+        MessageEvent multiline = new MessageEvent.Builder()
+                .setEvent("greeting").setId("3").setRetry(100).setData("¡hola!\nMacías").build();
+        try (MappedEventLog log = new MappedEventLog.Builder(directory).setSegmentSize(128).build()) {
+            log.append(event("1", "a"));
+            log.append(event(null, "b"));
+            log.append(multiline);
+            log.append(event("4", "d"));
+            assertTrue(log.getSegmentCount() > 1);
+            assertEquals(Arrays.asList("b", "¡hola!\nMacías", "d"), data(replay(log, "1", true)));
+        }
+
+        try (MappedEventLog log = new MappedEventLog.Builder(directory).setSegmentSize(128).build()) {
+            List<MessageEvent> replayed = replay(log, "1", true);
+            assertEquals(Arrays.asList("b", "¡hola!\nMacías", "d"), data(replayed));
+            MessageEvent restored = replayed.get(1);
+            assertEquals("greeting", restored.getEvent());
+            assertEquals("3", restored.getId());
+            assertEquals(100, (int) restored.getRetry());
+            assertArrayEquals(multiline.toString().getBytes("UTF-8"), restored.toString().getBytes("UTF-8"));
+
+            assertTrue(replay(log, "4", true).isEmpty());
+            assertTrue(replay(log, "unknown", false).isEmpty());
+
+            // the new messages are appended after the recovered ones
+            log.append(event("5", "e"));
+            assertEquals(Arrays.asList("d", "e"), data(replay(log, "3", true)));
+        }
+    }
+
+    @Test
+    public void testOnlyOneInstancePerDirectory() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (MappedEventLog log = new MappedEventLog.Builder(directory).build()) {
+            try {
+                new MappedEventLog.Builder(directory).build();
+                fail("IOException expected");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testSizeRetention() throws IOException {
+        try (MappedEventLog log = new MappedEventLog.Builder(folder.getRoot().toPath())
+                .setSegmentSize(256).setMaxBytes(1024).build()) {
+            for (int i = 0; i < 100; i++) {
+                log.append(event(String.valueOf(i), String.valueOf(i)));
+            }
+            assertTrue(log.getBytes() <= 1024);
+            assertEquals(log.getBytes() / 256, log.getSegmentCount());
+            // the oldest messages were deleted
+            assertTrue(replay(log, "0", false).isEmpty());
+            assertEquals(Arrays.asList("99"), data(replay(log, "98", true)));
+        }
+    }
+
+    @Test
+    public void testAgeRetention() throws Exception {
+        try (MappedEventLog log = new MappedEventLog.Builder(folder.getRoot().toPath())
+                .setSegmentSize(128).setMaxAge(50, TimeUnit.MILLISECONDS).build()) {
+            // fills the first segment
+            log.append(event("old", "old"));
+            log.append(event("1", "1"));
+            log.append(event("2", "2"));
+            assertEquals(1, log.getSegmentCount());
+            Thread.sleep(100);
+            // a new segment is created, and the old one is deleted
+            for (int i = 3; i < 10; i++) {
+                log.append(event(String.valueOf(i), String.valueOf(i)));
+            }
+            assertFalse(log.replay("old", new RecordingEventTarget()));
+            assertEquals(Arrays.asList("9"), data(replay(log, "8", true)));
+        }
+    }
+
+    private static class RecordingEventTarget implements EventTarget {
+        private final List<MessageEvent> received = new ArrayList<>();
+
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) {
+            return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+        }
+
+        @Override
+        public EventTarget send(MessageEvent messageEvent) {
+            received.add(messageEvent);
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.flow;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.events.MessageEvent;
+
+import java.util.concurrent.Flow;
+
+/**
+ * <p>{@link Flow.Subscriber} that broadcasts the received messages to the subscribers of an {@link EventBroadcast},
+ * so a reactive pipeline can feed it at the pace of its slowest subscriber.</p>
+ *
+ * <p>The messages are requested following the remaining capacity of the broadcaster (see
+ * {@link EventBroadcast#getRemainingCapacity()}): in fan-out mode, there are never more requested messages than free
+ * space in the fullest subscriber queue, so a slow audience throttles the publisher instead of overflowing the queues.
+ * More messages are requested when the subscribers notify that they can accept them again. Without subscribers, the
+ * messages are requested and discarded, as {@link EventBroadcast#broadcast(MessageEvent)} does.</p>
+ *
+ * <p>Outside the fan-out mode, the messages are written from the thread that invokes {@link #onNext(MessageEvent)},
+ * and they are requested one by one while all the subscribers are writable.</p>
+ *
+ * <p>The subscriber takes the writable handler of the broadcaster (see
+ * {@link EventBroadcast#setWritableHandler(Runnable)}), so a broadcaster must not be fed by more than one
+ * subscriber at the same time. The subscribers of the broadcaster are not closed when the stream completes.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class BroadcastSubscriber extends DemandSubscriber {
+
+    /**
+     * Default maximum number of messages requested and not yet received
+     */
+    public static final int DEFAULT_MAX_OUTSTANDING = 64;
+
+    private final EventBroadcast broadcast;
+    private final int maxOutstanding;
+
+    /**
+     * Instantiates a subscriber that feeds a broadcaster, with up to {@link #DEFAULT_MAX_OUTSTANDING} messages
+     * requested and not yet received
+     * @param broadcast the broadcaster
+     */
+    public BroadcastSubscriber(EventBroadcast broadcast) {
+        this(broadcast, DEFAULT_MAX_OUTSTANDING);
+    }
+
+    /**
+     * Instantiates a subscriber that feeds a broadcaster
+     * @param broadcast the broadcaster
+     * @param maxOutstanding the maximum number of messages requested and not yet received, even if the subscribers
+     *                       of the broadcaster could accept more
+     */
+    public BroadcastSubscriber(EventBroadcast broadcast, int maxOutstanding) {
+        if (maxOutstanding <= 0) {
+            throw new IllegalArgumentException("maxOutstanding must be positive: " + maxOutstanding);
+        }
+        this.broadcast = broadcast;
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    @Override
+    long demand() {
+        return Math.min(broadcast.getRemainingCapacity(), maxOutstanding);
+    }
+
+    @Override
+    void subscribed() {
+        broadcast.setWritableHandler(this::requestMore);
+    }
+
+    @Override
+    void deliver(MessageEvent item) {
+        broadcast.broadcast(item);
+    }
+
+    @Override
+    void terminated() {
+        broadcast.setWritableHandler(null);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.flow;
+
+import info.macias.sse.events.MessageEvent;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>{@link Flow.Subscriber} that requests the items on demand of a sink: it never has more items requested and not
+ * yet received than the sink can accept (see {@link #demand()}), and it requests more when the sink notifies that it
+ * can accept them again.</p>
+ *
+ * <p>The invocations of the subscription are serialized without locks: the thread that finds another one invoking
+ * it just leaves a note, and the other thread invokes the subscription again on its behalf.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+abstract class DemandSubscriber implements Flow.Subscriber<MessageEvent> {
+
+    private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+    // items requested to the subscription and not yet received
+    private final AtomicLong outstanding = new AtomicLong();
+    // number of pending invocations of requestMore. Only the one that increments it from zero invokes the subscription
+    private final AtomicInteger pendingRequests = new AtomicInteger();
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final CompletionStage<Void> completionStage = completion.minimalCompletionStage();
+
+    private volatile boolean cancelled = false;
+    // only accessed by the thread that invokes the subscription
+    private boolean cancelSent = false;
+
+    /**
+     * Returns how many items the sink can accept, including the items that have been requested and not yet received
+     * @return the number of items the sink can accept
+     */
+    abstract long demand();
+
+    /**
+     * Invoked once, when the subscriber has been subscribed, before requesting the first items
+     */
+    abstract void subscribed();
+
+    /**
+     * Sends an item to the sink
+     * @param item the received item
+     */
+    abstract void deliver(MessageEvent item);
+
+    /**
+     * Invoked once, when the stream has been completed, failed or cancelled
+     */
+    abstract void terminated();
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription, "subscription can't be null");
+        if (!this.subscription.compareAndSet(null, subscription)) {
+            // a subscriber can't be subscribed twice
+            subscription.cancel();
+            return;
+        }
+        if (!completion.isDone()) {
+            subscribed();
+        }
+        requestMore();
+    }
+
+    @Override
+    public void onNext(MessageEvent item) {
+        Objects.requireNonNull(item, "item can't be null");
+        if (completion.isDone()) {
+            // items may still arrive after cancelling
+            return;
+        }
+        deliver(item);
+        // only once the sink has taken the item, or a concurrent request could count it twice as free space
+        outstanding.decrementAndGet();
+        requestMore();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable, "throwable can't be null");
+        if (completion.completeExceptionally(throwable)) {
+            terminated();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (completion.complete(null)) {
+            terminated();
+        }
+    }
+
+    /**
+     * Cancels the subscription. The items that are received afterwards are ignored.
+     */
+    public void cancel() {
+        if (completion.cancel(false)) {
+            cancelled = true;
+            requestMore();
+            terminated();
+        }
+    }
+
+    /**
+     * Returns a stage that completes when the stream completes. It fails with the error of the stream, or with a
+     * {@link java.util.concurrent.CancellationException} if the subscription is cancelled.
+     * @return the completion of the stream
+     */
+    public CompletionStage<Void> getCompletion() {
+        return completionStage;
+    }
+
+    /**
+     * Requests the items that the sink can accept and have not been requested yet, or cancels the subscription
+     */
+    final void requestMore() {
+        if (pendingRequests.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            Flow.Subscription subscription = this.subscription.get();
+            if (subscription == null) {
+                continue;
+            }
+            if (cancelled) {
+                if (!cancelSent) {
+                    cancelSent = true;
+                    subscription.cancel();
+                }
+            } else if (!completion.isDone()) {
+                // read before the demand: an item delivered in between can only make the request smaller
+                long requested = outstanding.get();
+                long n = demand() - requested;
+                if (n > 0) {
+                    outstanding.addAndGet(n);
+                    subscription.request(n);
+                }
+            }
+        } while (pendingRequests.decrementAndGet() != 0);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.flow;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+import java.util.concurrent.Flow;
+
+/**
+ * <p>{@link Flow.Subscriber} that sends the received messages to a single {@link EventTarget}, requesting them
+ * while the target is writable (see {@link EventTarget#isWritable()}). When the target becomes writable again, more
+ * messages are requested, so a slow client throttles the publisher instead of buffering without limit.</p>
+ *
+ * <p>The target is acknowledged and opened when the subscriber is subscribed, and it is closed when the stream
+ * completes, fails or is cancelled. If sending a message fails (e.g. the client disconnected), the subscription is
+ * cancelled. The subscriber takes the writable handler of the target, so the target must not be added to a
+ * broadcaster too.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class EventTargetSubscriber extends DemandSubscriber {
+
+    /**
+     * Default maximum number of messages requested and not yet received
+     */
+    public static final int DEFAULT_MAX_OUTSTANDING = 16;
+
+    private final EventTarget target;
+    private final int maxOutstanding;
+
+    /**
+     * Instantiates a subscriber that sends the messages to a target, with up to {@link #DEFAULT_MAX_OUTSTANDING}
+     * messages requested and not yet received
+     * @param target the target, not yet acknowledged nor open
+     */
+    public EventTargetSubscriber(EventTarget target) {
+        this(target, DEFAULT_MAX_OUTSTANDING);
+    }
+
+    /**
+     * Instantiates a subscriber that sends the messages to a target
+     * @param target the target, not yet acknowledged nor open
+     * @param maxOutstanding the maximum number of messages requested and not yet received while the target is
+     *                       writable
+     */
+    public EventTargetSubscriber(EventTarget target, int maxOutstanding) {
+        if (maxOutstanding <= 0) {
+            throw new IllegalArgumentException("maxOutstanding must be positive: " + maxOutstanding);
+        }
+        this.target = target;
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    @Override
+    long demand() {
+        return target.isWritable() ? maxOutstanding : 0;
+    }
+
+    @Override
+    void subscribed() {
+        target.setWritableHandler(this::requestMore);
+        try {
+            target.ok().open();
+        } catch (IOException e) {
+            cancel();
+        }
+    }
+
+    @Override
+    void deliver(MessageEvent item) {
+        try {
+            target.send(item);
+        } catch (IOException e) {
+            // Client disconnected
+            cancel();
+        }
+    }
+
+    @Override
+    void terminated() {
+        target.setWritableHandler(null);
+        target.close();
+    }
+}
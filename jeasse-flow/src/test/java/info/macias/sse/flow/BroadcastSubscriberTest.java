@@ -0,0 +1,196 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.flow;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.OverflowPolicy;
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BroadcastSubscriberTest {
+
+    // Executor whose tasks are run only when the test explicitly asks for it
+    private final Queue<Runnable> manualTasks = new ConcurrentLinkedQueue<>();
+
+    private void runManualTasks() {
+        Runnable task;
+        while ((task = manualTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static MessageEvent message(String data) {
+        return new MessageEvent.Builder().setData(data).build();
+    }
+
+    @Test
+    public void testDemandFollowsQueueCapacity() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setExecutor(manualTasks::add)
+                .setQueueCapacity(4)
+                .setOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                .build();
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        broadcast.addSubscriber(target);
+
+        BroadcastSubscriber subscriber = new BroadcastSubscriber(broadcast);
+        RecordingSubscription subscription = new RecordingSubscription();
+        subscriber.onSubscribe(subscription);
+        assertEquals(4, subscription.requested.get());
+
+        for (int i = 0; i < 4; i++) {
+            subscriber.onNext(message(String.valueOf(i)));
+        }
+        // the queue is full: no more messages are requested until it is drained
+        assertEquals(4, subscription.requested.get());
+
+        target.writable = false;
+        runManualTasks();
+        assertEquals(4, subscription.requested.get());
+
+        target.writable = true;
+        target.writableHandler.run();
+        runManualTasks();
+        assertEquals(8, subscription.requested.get());
+        assertEquals(4, target.received.size());
+    }
+
+    @Test
+    public void testDemandResumesWhenFullSubscriberDisconnects() throws Exception {
+        EventBroadcast broadcast = new EventBroadcast.Builder()
+                .setExecutor(manualTasks::add)
+                .setQueueCapacity(4)
+                .setOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                .build();
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        broadcast.addSubscriber(target);
+        target.writable = false;
+
+        BroadcastSubscriber subscriber = new BroadcastSubscriber(broadcast);
+        RecordingSubscription subscription = new RecordingSubscription();
+        subscriber.onSubscribe(subscription);
+        for (int i = 0; i < 4; i++) {
+            subscriber.onNext(message(String.valueOf(i)));
+        }
+        runManualTasks();
+        assertEquals(4, subscription.requested.get());
+
+        // the client goes away: the first write fails, so nothing is written, and the queue is discarded
+        target.disconnected = true;
+        target.writable = true;
+        target.writableHandler.run();
+        runManualTasks();
+        assertTrue(target.received.isEmpty());
+        assertEquals(8, subscription.requested.get());
+
+        // the failed subscriber is detached in the next broadcast, and the demand is not limited by it anymore
+        subscriber.onNext(message("4"));
+        assertFalse(broadcast.hasSubscribers());
+        assertEquals(5 + BroadcastSubscriber.DEFAULT_MAX_OUTSTANDING, subscription.requested.get());
+    }
+
+    @Test
+    public void testDemandWithoutSubscribers() {
+        EventBroadcast broadcast = new EventBroadcast();
+        BroadcastSubscriber subscriber = new BroadcastSubscriber(broadcast, 8);
+        RecordingSubscription subscription = new RecordingSubscription();
+        subscriber.onSubscribe(subscription);
+        assertEquals(8, subscription.requested.get());
+        subscriber.onNext(message("discarded"));
+        assertEquals(9, subscription.requested.get());
+    }
+
+    @Test
+    public void testSubscriptionRules() {
+        EventBroadcast broadcast = new EventBroadcast();
+        BroadcastSubscriber subscriber = new BroadcastSubscriber(broadcast);
+        try {
+            subscriber.onSubscribe(null);
+            throw new AssertionError("expected NullPointerException");
+        } catch (NullPointerException e) {
+            // expected
+        }
+        RecordingSubscription first = new RecordingSubscription();
+        RecordingSubscription second = new RecordingSubscription();
+        subscriber.onSubscribe(first);
+        // a subscriber can't be subscribed twice
+        subscriber.onSubscribe(second);
+        assertTrue(second.cancelled);
+        assertEquals(0, second.requested.get());
+        try {
+            subscriber.onNext(null);
+            throw new AssertionError("expected NullPointerException");
+        } catch (NullPointerException e) {
+            // expected
+        }
+
+        subscriber.cancel();
+        assertTrue(first.cancelled);
+        assertTrue(subscriber.getCompletion().toCompletableFuture().isCompletedExceptionally());
+        long requested = first.requested.get();
+        // items received after cancelling are ignored
+        subscriber.onNext(message("late"));
+        subscriber.onComplete();
+        assertEquals(requested, first.requested.get());
+    }
+
+    @Test
+    public void testSubmissionPublisher() throws Exception {
+        int messages = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            EventBroadcast broadcast = new EventBroadcast.Builder()
+                    .setExecutor(executor)
+                    .setQueueCapacity(16)
+                    .setOverflowPolicy(OverflowPolicy.DISCONNECT)
+                    .build();
+            RecordingEventTarget target = new RecordingEventTarget(messages);
+            broadcast.addSubscriber(target);
+            BroadcastSubscriber subscriber = new BroadcastSubscriber(broadcast);
+            List<String> expected = new ArrayList<>();
+            try (SubmissionPublisher<MessageEvent> publisher = new SubmissionPublisher<>()) {
+                publisher.subscribe(subscriber);
+                for (int i = 0; i < messages; i++) {
+                    publisher.submit(message(String.valueOf(i)));
+                    expected.add(String.valueOf(i));
+                }
+            }
+            CompletableFuture<Void> completion = subscriber.getCompletion().toCompletableFuture();
+            completion.get(10, TimeUnit.SECONDS);
+            assertTrue(target.await());
+            // the queue never overflowed, so the subscriber was not disconnected
+            assertFalse(target.closed);
+            assertEquals(expected, target.received);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.flow;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventTargetSubscriberTest {
+
+    private static MessageEvent message(String data) {
+        return new MessageEvent.Builder().setData(data).build();
+    }
+
+    @Test
+    public void testDemandFollowsWritability() {
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        EventTargetSubscriber subscriber = new EventTargetSubscriber(target, 2);
+        RecordingSubscription subscription = new RecordingSubscription();
+        subscriber.onSubscribe(subscription);
+        assertTrue(target.opened);
+        assertEquals(2, subscription.requested.get());
+
+        subscriber.onNext(message("a"));
+        assertEquals(3, subscription.requested.get());
+        target.writable = false;
+        subscriber.onNext(message("b"));
+        subscriber.onNext(message("c"));
+        assertEquals(3, subscription.requested.get());
+
+        target.writable = true;
+        target.writableHandler.run();
+        assertEquals(5, subscription.requested.get());
+        assertEquals(Arrays.asList("a", "b", "c"), target.received);
+    }
+
+    @Test
+    public void testSendFailureCancels() {
+        RecordingEventTarget target = new RecordingEventTarget(0);
+        EventTargetSubscriber subscriber = new EventTargetSubscriber(target);
+        RecordingSubscription subscription = new RecordingSubscription();
+        subscriber.onSubscribe(subscription);
+        target.disconnected = true;
+        subscriber.onNext(message("lost"));
+        assertTrue(subscription.cancelled);
+        assertTrue(target.closed);
+        assertTrue(subscriber.getCompletion().toCompletableFuture().isCompletedExceptionally());
+    }
+
+    @Test
+    public void testTerminationClosesTarget() throws Exception {
+        RecordingEventTarget completed = new RecordingEventTarget(0);
+        EventTargetSubscriber subscriber = new EventTargetSubscriber(completed);
+        RecordingSubscription subscription = new RecordingSubscription();
+        subscriber.onSubscribe(subscription);
+        subscriber.onComplete();
+        assertTrue(completed.closed);
+        assertFalse(subscription.cancelled);
+        subscriber.getCompletion().toCompletableFuture().get();
+
+        RecordingEventTarget failed = new RecordingEventTarget(0);
+        subscriber = new EventTargetSubscriber(failed);
+        subscriber.onSubscribe(new RecordingSubscription());
+        IllegalStateException error = new IllegalStateException("upstream failure");
+        subscriber.onError(error);
+        assertTrue(failed.closed);
+        try {
+            subscriber.getCompletion().toCompletableFuture().get();
+            throw new AssertionError("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+}
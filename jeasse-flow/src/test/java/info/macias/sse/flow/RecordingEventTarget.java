@@ -0,0 +1,89 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.flow;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event target that stores the received messages
+ */
+class RecordingEventTarget implements EventTarget {
+    final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch expected;
+    volatile boolean opened = false;
+    volatile boolean disconnected = false;
+    volatile boolean closed = false;
+    volatile boolean writable = true;
+    volatile Runnable writableHandler = null;
+
+    RecordingEventTarget(int expectedEvents) {
+        this.expected = new CountDownLatch(expectedEvents);
+    }
+
+    @Override
+    public EventTarget ok() {
+        return this;
+    }
+
+    @Override
+    public EventTarget open() throws IOException {
+        opened = true;
+        return this;
+    }
+
+    @Override
+    public EventTarget send(String event, String data) throws IOException {
+        return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+    }
+
+    @Override
+    public EventTarget send(MessageEvent messageEvent) throws IOException {
+        if (disconnected) {
+            throw new IOException("disconnected");
+        }
+        received.add(messageEvent.getData());
+        expected.countDown();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return writable;
+    }
+
+    @Override
+    public void setWritableHandler(Runnable handler) {
+        writableHandler = handler;
+    }
+
+    boolean await() throws InterruptedException {
+        return expected.await(10, TimeUnit.SECONDS);
+    }
+}
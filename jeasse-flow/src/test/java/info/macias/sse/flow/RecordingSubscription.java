@@ -0,0 +1,41 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.flow;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscription that records the requests and cancellations of its subscriber
+ */
+class RecordingSubscription implements Flow.Subscription {
+    final AtomicLong requested = new AtomicLong();
+    volatile boolean cancelled = false;
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("non-positive request: " + n);
+        }
+        requested.addAndGet(n);
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+}
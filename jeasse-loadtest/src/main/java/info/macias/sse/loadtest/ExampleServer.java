@@ -0,0 +1,82 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.loadtest;
+
+import info.macias.sse.servlet3.example.chat.ChatServer;
+import info.macias.sse.vertx3.example.chat.ChatVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.eclipse.jetty.server.Server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One of the chat examples, running in the same JVM as the load test. Both examples receive the messages to
+ * broadcast as POST requests to <code>/send</code>, and the SSE subscriptions as GET requests to the same path.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+interface ExampleServer extends AutoCloseable {
+
+    long TIMEOUT_SECONDS = 30;
+
+    /**
+     * Starts an example server
+     * @param name "servlet" for the chat servlet on an embedded Jetty, or "vertx" for the chat verticle
+     * @param port the port to listen to
+     * @return the started server
+     * @throws Exception if the server could not be started
+     */
+    static ExampleServer start(String name, int port) throws Exception {
+        switch (name) {
+            case "servlet":
+                Server jetty = ChatServer.start(port);
+                return () -> {
+                    jetty.stop();
+                    jetty.destroy();
+                };
+            case "vertx":
+                Vertx vertx = Vertx.vertx();
+                CompletableFuture<String> deployed = new CompletableFuture<>();
+                vertx.deployVerticle(new ChatVerticle(),
+                        new DeploymentOptions().setConfig(new JsonObject().put("http.port", port)),
+                        ar -> {
+                            if (ar.succeeded()) {
+                                deployed.complete(ar.result());
+                            } else {
+                                deployed.completeExceptionally(ar.cause());
+                            }
+                        });
+                ExampleServer server = () -> {
+                    CompletableFuture<Void> closed = new CompletableFuture<>();
+                    vertx.close(ar -> closed.complete(null));
+                    closed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                };
+                try {
+                    deployed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    server.close();
+                    throw e;
+                }
+                return server;
+            default:
+                throw new IllegalArgumentException("Unknown server: " + name + ". Expected servlet or vertx");
+        }
+    }
+}
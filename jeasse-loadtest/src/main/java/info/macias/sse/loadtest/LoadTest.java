@@ -0,0 +1,220 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Load test for the chat examples. It starts one of them in this JVM, opens many SSE connections to it through
+ * the loopback interface, and posts chat messages at a fixed rate, reporting every second:</p>
+ *
+ * <ul>
+ *     <li>the end-to-end latency percentiles, from the POST request to the reception by each client</li>
+ *     <li>the delivered messages and bytes per second</li>
+ *     <li>the established connections, and the ones closed by the server</li>
+ *     <li>the used heap and the number of threads of the JVM. The client side only adds one selector thread and
+ *     a publisher thread</li>
+ * </ul>
+ *
+ * <p>Before posting messages, the connections are opened at a given rate, and the connection setup rate and time
+ * are reported. During the test, a fraction of the clients can be slow readers, and random connections can be
+ * abruptly closed and replaced. Run it with <code>--help</code> to see the options.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class LoadTest {
+
+    private static final String USAGE = "Usage: java -jar loadtest.jar [options]\n"
+            + "  --server servlet|vertx  example server to test (default: servlet)\n"
+            + "  --connections N         number of SSE connections (default: 1000)\n"
+            + "  --connect-rate N        connections opened per second before the test (default: 1000)\n"
+            + "  --rate N                chat messages posted per second (default: 10)\n"
+            + "  --payload N             padding characters of each message (default: 64)\n"
+            + "  --duration N            seconds posting messages (default: 30)\n"
+            + "  --slow-readers F        fraction of connections that read slowly, from 0 to 1 (default: 0)\n"
+            + "  --slow-rate N           bytes per second read by the slow readers (default: 1024)\n"
+            + "  --disconnects N         connections abruptly closed and replaced per second (default: 0)\n";
+
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SETUP_TIMEOUT_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(1);
+            return;
+        }
+        if (options.containsKey("help")) {
+            System.out.print(USAGE);
+            return;
+        }
+        String server = options.getOrDefault("server", "servlet");
+        int connections = Integer.parseInt(options.getOrDefault("connections", "1000"));
+        int connectRate = Integer.parseInt(options.getOrDefault("connect-rate", "1000"));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "10"));
+        int payload = Integer.parseInt(options.getOrDefault("payload", "64"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        double slowReaders = Double.parseDouble(options.getOrDefault("slow-readers", "0"));
+        long slowRate = Long.parseLong(options.getOrDefault("slow-rate", "1024"));
+        int disconnects = Integer.parseInt(options.getOrDefault("disconnects", "0"));
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        System.out.printf("Starting the %s example on port %d%n", server, port);
+        try (ExampleServer example = ExampleServer.start(server, port);
+             SseClientPool clients = new SseClientPool(port, slowReaders, slowRate)) {
+            if (!connect(clients, connections, connectRate)) {
+                return;
+            }
+            run(clients, port, rate, payload, duration, disconnects);
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if ("help".equals(name)) {
+                options.put(name, "");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value of " + args[i]);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Opens the connections at the given rate, and waits for all of them to receive the welcome message
+     * @return whether all the connections were established
+     */
+    private static boolean connect(SseClientPool clients, int connections, int connectRate)
+            throws InterruptedException {
+        System.out.printf("Opening %d connections at %d connections/s%n", connections, connectRate);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(SETUP_TIMEOUT_SECONDS);
+        int opened = 0;
+        while (clients.getEstablished() < connections) {
+            long now = System.nanoTime();
+            if (now > deadline) {
+                System.out.printf("Only %d of %d connections were established in %d seconds (%d failed)%n",
+                        clients.getEstablished(), connections, SETUP_TIMEOUT_SECONDS, clients.getFailedConnections());
+                return false;
+            }
+            int due = (int) Math.min(connections, (now - start) * connectRate / TimeUnit.SECONDS.toNanos(1) + 1);
+            if (due > opened) {
+                clients.open(due - opened);
+                opened = due;
+            }
+            Thread.sleep(10);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        LatencyHistogram setup = clients.getSetupTime();
+        System.out.printf("Established %d connections in %.2f s (%.0f connections/s). "
+                        + "Setup time p50: %.2f ms, p99: %.2f ms, max: %.2f ms. Failed connections: %d%n",
+                connections, seconds, connections / seconds,
+                millis(setup.getPercentile(50)), millis(setup.getPercentile(99)), millis(setup.getMax()),
+                clients.getFailedConnections());
+        return true;
+    }
+
+    private static void run(SseClientPool clients, int port, int rate, int payload, int duration, int disconnects)
+            throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ScheduledExecutorService disconnector = Executors.newSingleThreadScheduledExecutor();
+        if (disconnects > 0) {
+            disconnector.scheduleAtFixedRate(clients::disconnectRandom,
+                    0, TimeUnit.SECONDS.toNanos(1) / disconnects, TimeUnit.NANOSECONDS);
+        }
+        LatencyHistogram total = new LatencyHistogram();
+        // latency of the last second
+        LatencyHistogram interval = new LatencyHistogram();
+        long maxHeap = 0;
+        System.out.printf("Posting %d messages/s for %d s%n", rate, duration);
+        System.out.printf("%4s %9s %12s %12s %9s %9s %9s %9s %8s %8s %8s%n", "sec", "posted", "delivered/s",
+                "KB/s", "p50 ms", "p99 ms", "max ms", "conns", "closed", "heap MB", "threads");
+        long start = System.nanoTime();
+        long lastReceived = clients.getReceived();
+        long lastBytes = clients.getReceivedBytes();
+        try (Publisher publisher = new Publisher(port, rate, payload)) {
+            publisher.start();
+            for (int second = 1; second <= duration; second++) {
+                long next = start + TimeUnit.SECONDS.toNanos(second);
+                TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+                interval.drainFrom(clients.getLatency());
+                long received = clients.getReceived();
+                long bytes = clients.getReceivedBytes();
+                long heap = memory.getHeapMemoryUsage().getUsed();
+                maxHeap = Math.max(maxHeap, heap);
+                System.out.printf("%4d %9d %12d %12d %9.2f %9.2f %9.2f %9d %8d %8d %8d%n",
+                        second, publisher.getPublished(), received - lastReceived, (bytes - lastBytes) / 1024,
+                        millis(interval.getPercentile(50)), millis(interval.getPercentile(99)),
+                        millis(interval.getMax()), clients.getEstablished(), clients.getClosedByServer(),
+                        heap / (1024 * 1024), threads.getThreadCount());
+                total.drainFrom(interval);
+                lastReceived = received;
+                lastBytes = bytes;
+            }
+            disconnector.shutdownNow();
+            System.out.println();
+            System.out.printf("Posted messages: %d (%d failed)%n", publisher.getPublished(), publisher.getFailed());
+        } finally {
+            disconnector.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        total.drainFrom(clients.getLatency());
+        System.out.printf("Delivered messages: %d (%.0f messages/s, %.0f KB/s)%n", clients.getReceived(),
+                clients.getReceived() / seconds, clients.getReceivedBytes() / seconds / 1024);
+        System.out.printf("Latency p50: %.2f ms, p90: %.2f ms, p99: %.2f ms, p99.9: %.2f ms, max: %.2f ms%n",
+                millis(total.getPercentile(50)), millis(total.getPercentile(90)), millis(total.getPercentile(99)),
+                millis(total.getPercentile(99.9)), millis(total.getMax()));
+        LatencyHistogram slow = clients.getSlowLatency();
+        if (slow.getCount() > 0) {
+            System.out.printf("Slow readers latency p50: %.2f ms, p99: %.2f ms, max: %.2f ms (%d messages)%n",
+                    millis(slow.getPercentile(50)), millis(slow.getPercentile(99)), millis(slow.getMax()),
+                    slow.getCount());
+        }
+        System.out.printf("Connections: %d established, %d closed by the server, %d abruptly closed by the clients, "
+                        + "%d failed%n", clients.getTotalEstablished(), clients.getClosedByServer(),
+                clients.getDisconnected(), clients.getFailedConnections());
+        System.out.printf("Max used heap: %d MB. Peak threads: %d%n", maxHeap / (1024 * 1024),
+                threads.getPeakThreadCount());
+    }
+
+    private static double millis(long nanos) {
+        return (double) nanos / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Posts chat messages to an example server at a fixed rate. Each message contains the value of
+ * {@link System#nanoTime()} when it was posted, so the clients can measure the end-to-end latency.
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class Publisher implements AutoCloseable {
+
+    /**
+     * Sender of the posted messages. The examples broadcast them as "lt says: nanoTime padding"
+     */
+    static final String SENDER = "lt";
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private final URL url;
+    private final String padding;
+    private final long periodNanos;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "loadtest-publisher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param port the port of the example server
+     * @param rate the number of messages per second
+     * @param payloadBytes the number of padding characters of each message
+     * @throws IOException if the URL of the server is malformed
+     */
+    Publisher(int port, int rate, int payloadBytes) throws IOException {
+        this.url = new URL("http://127.0.0.1:" + port + "/send");
+        char[] padding = new char[payloadBytes];
+        Arrays.fill(padding, 'x');
+        this.padding = new String(padding);
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    }
+
+    /**
+     * Starts posting messages
+     */
+    void start() {
+        scheduler.scheduleAtFixedRate(this::publish, 0, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void publish() {
+        String body = "{\"sender\":\"" + SENDER + "\",\"message\":\"" + System.nanoTime() + " " + padding + "\"}";
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            int status = connection.getResponseCode();
+            // the response is read completely, so the connection is reused for the next message
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    while (in.read() >= 0) {
+                        // discarding the response
+                    }
+                }
+            }
+            if (status < 400) {
+                published.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of messages posted successfully
+     * @return the number of messages posted successfully
+     */
+    long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * Returns the number of messages that could not be posted
+     * @return the number of messages that could not be posted
+     */
+    long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Stops posting messages, and waits for the message being posted, if any
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public void close() throws InterruptedException {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(ExampleServer.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+}
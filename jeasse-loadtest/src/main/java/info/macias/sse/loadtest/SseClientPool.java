@@ -0,0 +1,505 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Non-blocking HTTP client that keeps many SSE connections open against an example server, from a single
+ * selector thread. For each received chat message, it records the time elapsed since it was posted by the
+ * {@link Publisher}.</p>
+ *
+ * <p>A fraction of the connections are slow readers, which read at most a given number of bytes per second, so
+ * the server buffers grow. Their latency is recorded apart. Any connection can be abruptly disconnected (with a TCP
+ * reset), and replaced by a new one.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+class SseClientPool implements AutoCloseable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // the chat examples broadcast the posted messages as "sender says: message"
+    private static final byte[] MESSAGE_PREFIX =
+            ("data: " + Publisher.SENDER + " says: ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA_PREFIX = "data: ".getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress address;
+    private final byte[] request;
+    private final double slowFraction;
+    private final long slowBytesPerSecond;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    // accessed only from the selector thread
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<Connection> paused = new ArrayList<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final Random random = new Random(0);
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram slowLatency = new LatencyHistogram();
+    private final LatencyHistogram setupTime = new LatencyHistogram();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicInteger established = new AtomicInteger();
+    private final AtomicLong totalEstablished = new AtomicLong();
+    private final AtomicLong closedByServer = new AtomicLong();
+    private final AtomicLong failedConnections = new AtomicLong();
+    private final AtomicLong disconnected = new AtomicLong();
+
+    /**
+     * @param port the port of the example server, in the loopback interface
+     * @param slowFraction the fraction of the connections that are slow readers, between 0 and 1
+     * @param slowBytesPerSecond the maximum number of bytes that a slow reader reads per second
+     * @throws IOException if the selector could not be opened
+     */
+    SseClientPool(int port, double slowFraction, long slowBytesPerSecond) throws IOException {
+        this.address = new InetSocketAddress("127.0.0.1", port);
+        this.request = ("GET /send HTTP/1.1\r\n"
+                + "Host: 127.0.0.1:" + port + "\r\n"
+                + "Accept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.slowFraction = slowFraction;
+        this.slowBytesPerSecond = slowBytesPerSecond;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::loop, "loadtest-clients");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Opens new connections
+     * @param count the number of connections to open
+     */
+    void open(int count) {
+        submit(() -> {
+            for (int i = 0; i < count; i++) {
+                connect();
+            }
+        });
+    }
+
+    /**
+     * Abruptly closes a random connection, with a TCP reset, and opens a new one
+     */
+    void disconnectRandom() {
+        submit(() -> {
+            if (connections.isEmpty()) {
+                return;
+            }
+            Connection connection = connections.get(random.nextInt(connections.size()));
+            try {
+                connection.channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            } catch (IOException e) {
+                // closing anyway
+            }
+            close(connection);
+            disconnected.incrementAndGet();
+            connect();
+        });
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(100);
+                for (Iterator<Connection> it = paused.iterator(); it.hasNext(); ) {
+                    Connection connection = it.next();
+                    if (connection.nextReadNanos <= now) {
+                        it.remove();
+                        if (connection.key.isValid()) {
+                            connection.key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } else {
+                        timeoutNanos = Math.min(timeoutNanos, connection.nextReadNanos - now);
+                    }
+                }
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        // closed by a task
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            connection.channel.finishConnect();
+                            connection.write();
+                        } else if (key.isWritable()) {
+                            connection.write();
+                        } else if (key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (IOException e) {
+                        if (connection.welcomed) {
+                            closedByServer.incrementAndGet();
+                        } else {
+                            failedConnections.incrementAndGet();
+                        }
+                        close(connection);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Selector failed", e);
+        } finally {
+            for (Connection connection : new ArrayList<>(connections)) {
+                close(connection);
+            }
+        }
+    }
+
+    private void connect() {
+        Connection connection = null;
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            connection = new Connection(channel, random.nextDouble() < slowFraction);
+            connection.index = connections.size();
+            connections.add(connection);
+            connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            if (channel.connect(address)) {
+                connection.write();
+            }
+        } catch (IOException e) {
+            failedConnections.incrementAndGet();
+            if (connection != null) {
+                close(connection);
+            }
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection.index < 0) {
+            return;
+        }
+        Connection last = connections.remove(connections.size() - 1);
+        if (last != connection) {
+            connections.set(connection.index, last);
+            last.index = connection.index;
+        }
+        connection.index = -1;
+        if (connection.welcomed) {
+            established.decrementAndGet();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // ignoring
+        }
+    }
+
+    /**
+     * Returns the latency of the messages received by the normal readers
+     * @return the latency, in nanoseconds
+     */
+    LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the latency of the messages received by the slow readers
+     * @return the latency, in nanoseconds
+     */
+    LatencyHistogram getSlowLatency() {
+        return slowLatency;
+    }
+
+    /**
+     * Returns the time since a connection is opened until it receives the welcome message
+     * @return the setup time, in nanoseconds
+     */
+    LatencyHistogram getSetupTime() {
+        return setupTime;
+    }
+
+    /**
+     * Returns the number of chat messages received by all the connections
+     * @return the number of received chat messages
+     */
+    long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * Returns the number of bytes received by all the connections
+     * @return the number of received bytes
+     */
+    long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * Returns the number of connections that have received the welcome message and are still open
+     * @return the number of established connections
+     */
+    int getEstablished() {
+        return established.get();
+    }
+
+    /**
+     * Returns the number of connections that have received the welcome message, including the closed ones
+     * @return the total number of established connections
+     */
+    long getTotalEstablished() {
+        return totalEstablished.get();
+    }
+
+    /**
+     * Returns the number of established connections that were closed by the server
+     * @return the number of connections closed by the server
+     */
+    long getClosedByServer() {
+        return closedByServer.get();
+    }
+
+    /**
+     * Returns the number of connections that failed before receiving the welcome message
+     * @return the number of failed connections
+     */
+    long getFailedConnections() {
+        return failedConnections.get();
+    }
+
+    /**
+     * Returns the number of connections that were abruptly closed by {@link #disconnectRandom()}
+     * @return the number of abruptly closed connections
+     */
+    long getDisconnected() {
+        return disconnected.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        running = false;
+        selector.wakeup();
+        thread.join();
+        selector.close();
+    }
+
+    /**
+     * An SSE connection, and the state of the parser of its HTTP response
+     */
+    private class Connection {
+        private static final int STATUS_LINE = 0;
+        private static final int HEADERS = 1;
+        private static final int CHUNK_SIZE = 2;
+        private static final int CHUNK_DATA = 3;
+        private static final int CHUNK_END = 4;
+        private static final int BODY = 5;
+
+        private final SocketChannel channel;
+        private final boolean slow;
+        private final long openNanos = System.nanoTime();
+        private SelectionKey key;
+        // position in the list of connections, or -1 if it is closed
+        private int index;
+        private ByteBuffer pendingRequest = ByteBuffer.wrap(request);
+        private long nextReadNanos = 0;
+        // the welcome message has been received
+        private boolean welcomed = false;
+
+        private int state = STATUS_LINE;
+        private final StringBuilder header = new StringBuilder();
+        private boolean chunked = false;
+        private long chunkRemaining = 0;
+        private boolean chunkExtension = false;
+        private byte[] line = new byte[256];
+        private int lineLength = 0;
+
+        Connection(SocketChannel channel, boolean slow) {
+            this.channel = channel;
+            this.slow = slow;
+        }
+
+        void write() throws IOException {
+            channel.write(pendingRequest);
+            if (pendingRequest.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                pendingRequest = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void read() throws IOException {
+            long now = System.nanoTime();
+            if (slow && nextReadNanos > now) {
+                key.interestOps(0);
+                paused.add(this);
+                return;
+            }
+            readBuffer.clear();
+            if (slow) {
+                readBuffer.limit((int) Math.max(1, Math.min(READ_BUFFER_SIZE, slowBytesPerSecond / 10)));
+            }
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                throw new IOException("Connection closed");
+            }
+            receivedBytes.addAndGet(read);
+            if (slow) {
+                nextReadNanos = Math.max(now, nextReadNanos) + TimeUnit.SECONDS.toNanos(read) / slowBytesPerSecond;
+            }
+            parse(readBuffer.array(), read, now);
+        }
+
+        private void parse(byte[] bytes, int length, long now) throws IOException {
+            int i = 0;
+            while (i < length) {
+                switch (state) {
+                    case STATUS_LINE:
+                    case HEADERS:
+                        byte b = bytes[i++];
+                        if (b == '\n') {
+                            header();
+                        } else if (b != '\r') {
+                            header.append((char) b);
+                        }
+                        break;
+                    case CHUNK_SIZE:
+                        chunkSize(bytes[i++]);
+                        break;
+                    case CHUNK_DATA:
+                        int n = (int) Math.min(length - i, chunkRemaining);
+                        body(bytes, i, n, now);
+                        i += n;
+                        chunkRemaining -= n;
+                        if (chunkRemaining == 0) {
+                            state = CHUNK_END;
+                        }
+                        break;
+                    case CHUNK_END:
+                        if (bytes[i++] == '\n') {
+                            state = CHUNK_SIZE;
+                        }
+                        break;
+                    default:
+                        body(bytes, i, length - i, now);
+                        i = length;
+                }
+            }
+        }
+
+        private void header() throws IOException {
+            String text = header.toString();
+            header.setLength(0);
+            if (state == STATUS_LINE) {
+                if (!text.startsWith("HTTP/1.1 200")) {
+                    throw new IOException("Unexpected response: " + text);
+                }
+                state = HEADERS;
+            } else if (text.isEmpty()) {
+                state = chunked ? CHUNK_SIZE : BODY;
+            } else if (text.toLowerCase().startsWith("transfer-encoding:") && text.toLowerCase().contains("chunked")) {
+                chunked = true;
+            }
+        }
+
+        private void chunkSize(byte b) throws IOException {
+            if (b == '\n') {
+                if (chunkRemaining == 0) {
+                    throw new IOException("End of the event stream");
+                }
+                chunkExtension = false;
+                state = CHUNK_DATA;
+            } else if (b == ';') {
+                chunkExtension = true;
+            } else if (b != '\r' && !chunkExtension) {
+                int digit = Character.digit(b, 16);
+                if (digit < 0) {
+                    throw new IOException("Invalid chunk size");
+                }
+                chunkRemaining = chunkRemaining * 16 + digit;
+            }
+        }
+
+        private void body(byte[] bytes, int offset, int length, long now) {
+            for (int i = offset; i < offset + length; i++) {
+                byte b = bytes[i];
+                if (b == '\n') {
+                    line(now);
+                    lineLength = 0;
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+
+        private void line(long now) {
+            if (startsWith(MESSAGE_PREFIX)) {
+                long sent = 0;
+                for (int i = MESSAGE_PREFIX.length; i < lineLength && line[i] >= '0' && line[i] <= '9'; i++) {
+                    sent = sent * 10 + line[i] - '0';
+                }
+                (slow ? slowLatency : latency).record(now - sent);
+                received.incrementAndGet();
+            } else if (!welcomed && startsWith(DATA_PREFIX)) {
+                welcomed = true;
+                established.incrementAndGet();
+                totalEstablished.incrementAndGet();
+                setupTime.record(now - openNanos);
+            }
+        }
+
+        private boolean startsWith(byte[] prefix) {
+            if (lineLength < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (line[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
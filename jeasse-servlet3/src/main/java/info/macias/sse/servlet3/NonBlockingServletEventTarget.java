@@ -0,0 +1,391 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.servlet3;
+
+import info.macias.sse.EventTarget;
+import info.macias.sse.events.MessageEvent;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * <p>SSE dispatcher for one-to-one connections from Server to client-side subscriber, that uses the non-blocking
+ * output of Servlet 3.1.</p>
+ *
+ * <p>Sending a message never blocks: it is queued, and written only when the container reports that the
+ * connection is ready to accept more data (see {@link WriteListener}). Messages written together are flushed once.
+ * This way, the broadcasting thread is never held by a slow subscriber, and many thousands of connections can be
+ * served from a small thread pool, even with a broadcaster that is not in fan-out mode.</p>
+ *
+ * <p>The number of bytes pending to be written is bounded. The target is not writable (see {@link #isWritable()})
+ * while more than half of the bound is pending, so the broadcasters can skip or disconnect a slow subscriber. If a
+ * subscriber is so slow that the bound is reached, its connection is closed and {@link #send(MessageEvent)} throws
+ * an {@link IOException}, so the broadcaster detaches it.</p>
+ *
+ * <p>This class requires a Servlet 3.1 container.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class NonBlockingServletEventTarget implements EventTarget {
+
+    /**
+     * Default maximum number of bytes pending to be written to a subscriber
+     */
+    public static final int DEFAULT_MAX_PENDING_BYTES = 1024 * 1024;
+
+    private static final MessageEvent OPEN_EVENT = new MessageEvent.Builder().setEvent("open").build();
+
+    private final AsyncContext asyncContext;
+    private final int maxPendingBytes;
+
+    // guarded by this
+    private final Deque<MessageEvent> pending = new ArrayDeque<>();
+    private int pendingBytes = 0;
+    private ServletOutputStream out = null;
+    private boolean unflushed = false;
+    private boolean closing = false;
+    private boolean completed = false;
+    private IOException error = null;
+    private boolean writable = true;
+
+    private volatile Runnable writableHandler = null;
+
+    /**
+     * Builds a new dispatcher from an {@link HttpServletRequest} object, with at most
+     * {@link #DEFAULT_MAX_PENDING_BYTES} pending to be written.
+     * @param request The {@link HttpServletRequest} reference, as sent by the subscriber.
+     */
+    public NonBlockingServletEventTarget(HttpServletRequest request) {
+        this(request, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * Builds a new dispatcher from an {@link HttpServletRequest} object.
+     * @param request The {@link HttpServletRequest} reference, as sent by the subscriber.
+     * @param maxPendingBytes the maximum number of bytes that can be pending to be written before the subscriber
+     *                        is disconnected
+     */
+    public NonBlockingServletEventTarget(HttpServletRequest request, int maxPendingBytes) {
+        if (maxPendingBytes <= 0) {
+            throw new IllegalArgumentException("maxPendingBytes must be positive: " + maxPendingBytes);
+        }
+        this.maxPendingBytes = maxPendingBytes;
+        asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        asyncContext.addListener(new AsyncListenerImpl());
+    }
+
+    /**
+     * If the connection is accepted, the server sends the 200 (OK) status message, plus the next HTTP headers:
+     * <pre>
+     *     Content-type: text/event-stream;charset=utf-8
+     *     Cache-Control: no-cache
+     *     Connection: keep-alive
+     * </pre>
+     * @return The same {@link NonBlockingServletEventTarget} object that received the method call
+     */
+    @Override
+    public NonBlockingServletEventTarget ok() {
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        response.setStatus(200);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Connection", "keep-alive");
+        return this;
+    }
+
+    /**
+     * Switches the response to non-blocking mode, and queues the message that tells the client-side subscriber
+     * that the connection has been open
+     *
+     * @return The same {@link NonBlockingServletEventTarget} object that received the method call
+     * @throws IOException if the response's {@link java.io.OutputStream} can't be obtained
+     */
+    @Override
+    public NonBlockingServletEventTarget open() throws IOException {
+        ServletOutputStream stream = asyncContext.getResponse().getOutputStream();
+        synchronized (this) {
+            pending.add(OPEN_EVENT);
+            pendingBytes += OPEN_EVENT.getByteLength();
+        }
+        // the container invokes onWritePossible as soon as the stream is ready
+        stream.setWriteListener(new WriteListenerImpl(stream));
+        return this;
+    }
+
+    /**
+     * Queues a {@link MessageEvent} for the subscriber, containing only 'event' and 'data' fields.
+     * @param event The descriptor of the 'event' field.
+     * @param data The content of the 'data' field.
+     * @return The same {@link NonBlockingServletEventTarget} object that received the method call
+     * @throws IOException if a previous write failed, the connection is closed, or there are too many bytes pending
+     * to be written
+     */
+    @Override
+    public NonBlockingServletEventTarget send(String event, String data) throws IOException {
+        return send(new MessageEvent.Builder()
+                .setData(data)
+                .setEvent(event)
+                .build());
+    }
+
+    /**
+     * Queues a {@link MessageEvent} for the subscriber, and writes it immediately if the connection is ready.
+     * This method never blocks.
+     * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+     * @return The same {@link NonBlockingServletEventTarget} object that received the method call
+     * @throws IOException if a previous write failed, the connection is closed, or there are too many bytes pending
+     * to be written. In the last case, the connection is closed
+     */
+    @Override
+    public NonBlockingServletEventTarget send(MessageEvent messageEvent) throws IOException {
+        IOException overflow = null;
+        boolean becameWritable;
+        synchronized (this) {
+            if (error != null) {
+                throw error;
+            }
+            if (closing || completed) {
+                throw new IOException("Event target is closed");
+            }
+            if ((long) pendingBytes + messageEvent.getByteLength() > maxPendingBytes) {
+                fail(new IOException("Too many bytes pending to be written: " + pendingBytes + ". Disconnecting"));
+                overflow = error;
+            } else {
+                pending.add(messageEvent);
+                pendingBytes += messageEvent.getByteLength();
+                // before onWritePossible has been invoked for the first time, isReady must not be invoked
+                if (out != null) {
+                    write();
+                }
+            }
+            becameWritable = updateWritable();
+        }
+        if (becameWritable) {
+            notifyWritable();
+        }
+        if (overflow != null) {
+            throw overflow;
+        }
+        return this;
+    }
+
+    // writes the pending messages while the container accepts them without blocking. Invoked holding the lock
+    private void write() {
+        try {
+            while (out.isReady()) {
+                MessageEvent messageEvent = pending.poll();
+                if (messageEvent != null) {
+                    pendingBytes -= messageEvent.getByteLength();
+                    messageEvent.writeTo(out);
+                    unflushed = true;
+                } else if (unflushed) {
+                    unflushed = false;
+                    out.flush();
+                } else {
+                    if (closing) {
+                        complete();
+                    }
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // discards the pending messages and closes the connection. Invoked holding the lock
+    private void fail(IOException e) {
+        if (error == null) {
+            error = e;
+        }
+        pending.clear();
+        pendingBytes = 0;
+        complete();
+    }
+
+    private void complete() {
+        if (!completed) {
+            completed = true;
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Updates whether the target is writable, after the pending bytes have changed or the connection has been
+     * closed. Invoked holding the lock
+     * @return <code>true</code> if the target has just become writable, so the writable handler must be invoked,
+     * once the lock has been released
+     */
+    private boolean updateWritable() {
+        boolean wasWritable = writable;
+        // a closed target is writable, so the next message fails immediately and the subscriber is detached
+        writable = completed || pendingBytes <= maxPendingBytes / 2;
+        return writable && !wasWritable;
+    }
+
+    private void notifyWritable() {
+        Runnable handler = writableHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    /**
+     * Returns <code>false</code> while more than half of the maximum number of pending bytes are pending to be
+     * written. Returns <code>true</code> if the connection is closed, so the next message fails immediately and the
+     * subscriber is detached.
+     * @return whether the target can accept more messages
+     */
+    @Override
+    public synchronized boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Sets the handler to be invoked when the target becomes writable again, after {@link #isWritable()} has
+     * returned <code>false</code>: when the pending bytes have been written, or the connection has been closed.
+     * @param handler the handler, that is invoked from the container threads or from the thread sending a message
+     */
+    @Override
+    public void setWritableHandler(Runnable handler) {
+        this.writableHandler = handler;
+    }
+
+    /**
+     * Returns the number of bytes of the messages that have been sent but not yet written to the connection
+     * @return the number of bytes pending to be written
+     */
+    public synchronized int getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Returns the value of the <code>Last-Event-ID</code> header sent by a reconnecting subscriber, to be passed to
+     * {@link info.macias.sse.EventBroadcast#addSubscriber(EventTarget, String)}.
+     * @return the 'id' field of the last event received by the subscriber, or <code>null</code> if the header is
+     * not present
+     */
+    public String getLastEventId() {
+        return ((HttpServletRequest) asyncContext.getRequest()).getHeader("Last-Event-ID");
+    }
+
+    /**
+     * Closes the connection between the server and the client, once the pending messages have been written.
+     * This method never blocks.
+     */
+    @Override
+    public void close() {
+        boolean becameWritable;
+        synchronized (this) {
+            if (closing || completed) {
+                return;
+            }
+            closing = true;
+            if (out == null && pending.isEmpty()) {
+                complete();
+            } else if (out != null) {
+                write();
+            }
+            becameWritable = updateWritable();
+        }
+        if (becameWritable) {
+            notifyWritable();
+        }
+    }
+
+    private class WriteListenerImpl implements WriteListener {
+        private final ServletOutputStream stream;
+
+        WriteListenerImpl(ServletOutputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void onWritePossible() {
+            boolean becameWritable;
+            synchronized (NonBlockingServletEventTarget.this) {
+                out = stream;
+                if (!completed) {
+                    write();
+                }
+                becameWritable = updateWritable();
+            }
+            if (becameWritable) {
+                notifyWritable();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            boolean becameWritable;
+            synchronized (NonBlockingServletEventTarget.this) {
+                fail(t instanceof IOException ? (IOException) t : new IOException(t));
+                becameWritable = updateWritable();
+            }
+            if (becameWritable) {
+                notifyWritable();
+            }
+        }
+    }
+
+    private class AsyncListenerImpl implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            boolean becameWritable;
+            synchronized (NonBlockingServletEventTarget.this) {
+                completed = true;
+                pending.clear();
+                pendingBytes = 0;
+                becameWritable = updateWritable();
+            }
+            if (becameWritable) {
+                notifyWritable();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            boolean becameWritable;
+            synchronized (NonBlockingServletEventTarget.this) {
+                Throwable t = event.getThrowable();
+                fail(t instanceof IOException ? (IOException) t : new IOException("Connection error", t));
+                becameWritable = updateWritable();
+            }
+            if (becameWritable) {
+                notifyWritable();
+            }
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+    }
+}
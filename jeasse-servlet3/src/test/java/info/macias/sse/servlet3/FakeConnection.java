@@ -0,0 +1,237 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.servlet3;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Fake request, response and asynchronous context of a Servlet 3.1 container, whose output stream records the
+ * written bytes and lets the tests decide when it is ready, when it fails and when the container completes.
+ */
+class FakeConnection {
+
+    final Map<String, String> requestHeaders = new HashMap<>();
+    final Map<String, String> responseHeaders = new HashMap<>();
+    final List<AsyncListener> listeners = new ArrayList<>();
+    final Output out = new Output();
+    final HttpServletRequest request;
+    final AsyncContext asyncContext;
+    final HttpServletResponse response;
+    int completions = 0;
+
+    FakeConnection() {
+        response = proxy(HttpServletResponse.class, (method, args) -> {
+            switch (method) {
+                case "getOutputStream":
+                    return out;
+                case "setHeader":
+                case "addHeader":
+                    responseHeaders.put((String) args[0], (String) args[1]);
+                    return null;
+                default:
+                    return null;
+            }
+        });
+        asyncContext = proxy(AsyncContext.class, (method, args) -> {
+            switch (method) {
+                case "getResponse":
+                    return response;
+                case "getRequest":
+                    return FakeConnection.this.request;
+                case "addListener":
+                    listeners.add((AsyncListener) args[0]);
+                    return null;
+                case "complete":
+                    completions++;
+                    return null;
+                case "start":
+                    // as a container thread
+                    new Thread((Runnable) args[0]).start();
+                    return null;
+                default:
+                    return null;
+            }
+        });
+        request = proxy(HttpServletRequest.class, (method, args) -> {
+            switch (method) {
+                case "startAsync":
+                    return asyncContext;
+                case "getHeader":
+                    return requestHeaders.get(args[0]);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * Notifies the listeners that the container has completed the request
+     */
+    void containerComplete() throws IOException {
+        for (AsyncListener listener : listeners) {
+            listener.onComplete(new AsyncEvent(asyncContext));
+        }
+    }
+
+    /**
+     * Notifies the listeners that the container has found an error in the connection
+     */
+    void containerError(Throwable t) throws IOException {
+        for (AsyncListener listener : listeners) {
+            listener.onError(new AsyncEvent(asyncContext, t));
+        }
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(FakeConnection.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return type.getSimpleName();
+                        }
+                    }
+                    Object result = handler.invoke(method.getName(), args);
+                    if (result == null && method.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    if (result == null && method.getReturnType() == int.class) {
+                        return 0;
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Output stream of the response. It is not ready once its capacity has been written, until it is drained
+     */
+    static class Output extends ServletOutputStream {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        WriteListener writeListener = null;
+        // the number of bytes that can be written before the stream is not ready
+        int capacity = Integer.MAX_VALUE;
+        volatile IOException failure = null;
+        private IOException flushFailure = null;
+        private CountDownLatch flushStall = null;
+        private int flushes = 0;
+
+        @Override
+        public synchronized boolean isReady() {
+            return capacity > 0;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.writeListener = writeListener;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            written.write(bytes, offset, length);
+            capacity -= Math.min(capacity, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            CountDownLatch stall;
+            synchronized (this) {
+                stall = flushStall;
+            }
+            if (stall != null) {
+                try {
+                    stall.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (flushFailure != null) {
+                    throw flushFailure;
+                }
+                flushes++;
+            }
+        }
+
+        /**
+         * Makes the next flushes fail, while the writes keep succeeding
+         */
+        synchronized void failOnFlush(IOException failure) {
+            flushFailure = failure;
+        }
+
+        /**
+         * Blocks the next flushes until the latch is released, as a client that does not read
+         */
+        synchronized void stallFlushes(CountDownLatch stall) {
+            flushStall = stall;
+        }
+
+        synchronized int flushes() {
+            return flushes;
+        }
+
+        /**
+         * Lets the stream accept more bytes, and notifies the write listener as the container does
+         */
+        void drain(int bytes) throws IOException {
+            synchronized (this) {
+                capacity = bytes;
+            }
+            writeListener.onWritePossible();
+        }
+
+        synchronized String text() {
+            return new String(written.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
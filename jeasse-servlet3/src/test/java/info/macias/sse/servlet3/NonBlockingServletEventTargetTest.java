@@ -0,0 +1,212 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.servlet3;
+
+import info.macias.sse.events.MessageEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NonBlockingServletEventTargetTest {
+
+    private static final String OPEN = "event: open\n\n";
+
+    private static MessageEvent message(String data) {
+        return new MessageEvent.Builder().setData(data).build();
+    }
+
+    @Test
+    public void testMessagesAreWrittenWhenTheStreamIsReady() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        NonBlockingServletEventTarget target = new NonBlockingServletEventTarget(connection.request);
+        target.ok().open();
+        // queued until the container invokes onWritePossible for the first time
+        target.send(message("1"));
+        assertEquals("", connection.out.text());
+
+        connection.out.drain(Integer.MAX_VALUE);
+        assertEquals(OPEN + message("1"), connection.out.text());
+        assertEquals(1, connection.out.flushes());
+
+        target.send(message("2"));
+        assertEquals(OPEN + message("1") + message("2"), connection.out.text());
+        assertEquals(0, target.getPendingBytes());
+    }
+
+    @Test
+    public void testPendingBytesAreBounded() throws IOException {
+        int length = message("x").getByteLength();
+        FakeConnection connection = new FakeConnection();
+        NonBlockingServletEventTarget target = new NonBlockingServletEventTarget(connection.request, 4 * length);
+        AtomicInteger notifications = new AtomicInteger();
+        target.setWritableHandler(notifications::incrementAndGet);
+        target.ok().open();
+        connection.out.drain(OPEN.length());
+        assertEquals(OPEN, connection.out.text());
+
+        // the stream is not ready anymore, so the messages are kept
+        target.send(message("x"));
+        target.send(message("x"));
+        assertTrue(target.isWritable());
+        target.send(message("x"));
+        assertFalse(target.isWritable());
+        assertEquals(3 * length, target.getPendingBytes());
+
+        // draining below the half of the bound makes it writable again
+        connection.out.drain(2 * length);
+        assertEquals(length, target.getPendingBytes());
+        assertTrue(target.isWritable());
+        assertEquals(1, notifications.get());
+
+        target.send(message("x"));
+        target.send(message("x"));
+        target.send(message("x"));
+        try {
+            target.send(message("x"));
+            fail("the bound must be enforced");
+        } catch (IOException e) {
+            // expected
+        }
+        // the slow subscriber is disconnected, and the target is writable so it is detached at the next send
+        assertEquals(1, connection.completions);
+        assertEquals(0, target.getPendingBytes());
+        assertTrue(target.isWritable());
+        assertEquals(2, notifications.get());
+        try {
+            target.send(message("x"));
+            fail("the target is closed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCloseCompletesAfterDrain() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        NonBlockingServletEventTarget target = new NonBlockingServletEventTarget(connection.request);
+        target.ok().open();
+        connection.out.drain(OPEN.length());
+        target.send(message("1"));
+        target.send(message("2"));
+
+        target.close();
+        // the pending messages are written before completing
+        assertEquals(0, connection.completions);
+        try {
+            target.send(message("3"));
+            fail("the target is closing");
+        } catch (IOException e) {
+            // expected
+        }
+
+        connection.out.drain(Integer.MAX_VALUE);
+        assertEquals(OPEN + message("1") + message("2"), connection.out.text());
+        assertEquals(1, connection.completions);
+        target.close();
+        assertEquals(1, connection.completions);
+    }
+
+    @Test
+    public void testCloseBeforeTheStreamIsReady() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        NonBlockingServletEventTarget target = new NonBlockingServletEventTarget(connection.request);
+        target.ok();
+        target.close();
+        assertEquals(1, connection.completions);
+    }
+
+    @Test
+    public void testWriteError() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        NonBlockingServletEventTarget target = new NonBlockingServletEventTarget(connection.request);
+        target.ok().open();
+        connection.out.drain(Integer.MAX_VALUE);
+
+        IOException failure = new IOException("broken pipe");
+        connection.out.failure = failure;
+        // the error of the write is thrown by the next send
+        target.send(message("1"));
+        assertEquals(1, connection.completions);
+        try {
+            target.send(message("2"));
+            fail("the previous write failed");
+        } catch (IOException e) {
+            assertEquals(failure, e);
+        }
+    }
+
+    @Test
+    public void testWriteListenerError() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        NonBlockingServletEventTarget target = new NonBlockingServletEventTarget(connection.request, 1024);
+        AtomicInteger notifications = new AtomicInteger();
+        target.setWritableHandler(notifications::incrementAndGet);
+        target.ok().open();
+        target.send(new MessageEvent.Builder().setData(new String(new char[600])).build());
+        assertFalse(target.isWritable());
+
+        IOException failure = new IOException("reset");
+        connection.out.writeListener.onError(failure);
+        assertEquals(1, connection.completions);
+        assertEquals(0, target.getPendingBytes());
+        // a subscriber waiting to be writable is released, and detached at the next send
+        assertTrue(target.isWritable());
+        assertEquals(1, notifications.get());
+        try {
+            target.send(message("1"));
+            fail("the connection failed");
+        } catch (IOException e) {
+            assertEquals(failure, e);
+        }
+    }
+
+    @Test
+    public void testContainerError() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        NonBlockingServletEventTarget target = new NonBlockingServletEventTarget(connection.request);
+        target.ok().open();
+        connection.containerError(new IllegalStateException("timeout"));
+        try {
+            target.send(message("1"));
+            fail("the connection failed");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testContainerComplete() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        NonBlockingServletEventTarget target = new NonBlockingServletEventTarget(connection.request);
+        target.ok().open();
+        target.send(message("1"));
+        connection.containerComplete();
+        assertEquals(0, target.getPendingBytes());
+        try {
+            target.send(message("2"));
+            fail("the connection is complete");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.servlet3;
+
+import info.macias.sse.compression.StreamCompression;
+import info.macias.sse.events.MessageEvent;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServletEventTargetTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final StreamCompression compression = new StreamCompression();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static MessageEvent message(String data) {
+        return new MessageEvent.Builder().setData(data).build();
+    }
+
+    private static void awaitFlushes(FakeConnection connection, int flushes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (connection.out.flushes() < flushes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(flushes, connection.out.flushes());
+    }
+
+    @Test
+    public void testFlushAfterEachMessageByDefault() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        ServletEventTarget target = new ServletEventTarget(connection.request);
+        target.ok().open();
+        target.send(message("1"));
+        target.send(message("2"));
+        assertEquals(3, connection.out.flushes());
+        assertEquals("event: open\n\n" + message("1") + message("2"), connection.out.text());
+    }
+
+    @Test
+    public void testBatchIsFlushedWhenItReachesItsSize() throws Exception {
+        int length = message("x").getByteLength();
+        FakeConnection connection = new FakeConnection();
+        ServletEventTarget target = new ServletEventTarget(connection.request)
+                .setBatching(scheduler, 1, TimeUnit.HOURS, 3 * length);
+        target.ok().open();
+        assertEquals(1, connection.out.flushes());
+
+        target.send(message("x"));
+        target.send(message("x"));
+        // written, but not flushed yet
+        assertEquals("event: open\n\n" + message("x") + message("x"), connection.out.text());
+        assertEquals(1, connection.out.flushes());
+
+        target.send(message("x"));
+        assertEquals(2, connection.out.flushes());
+        target.send(message("x"));
+        assertEquals(2, connection.out.flushes());
+    }
+
+    @Test
+    public void testBatchIsFlushedAfterTheMaxDelay() throws Exception {
+        FakeConnection connection = new FakeConnection();
+        ServletEventTarget target = new ServletEventTarget(connection.request)
+                .setBatching(scheduler, 50, TimeUnit.MILLISECONDS, 64 * 1024);
+        target.ok().open();
+
+        long start = System.nanoTime();
+        target.send(message("1"));
+        target.send(message("2"));
+        assertEquals(1, connection.out.flushes());
+        // a single delayed flush for both messages
+        awaitFlushes(connection, 2);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        Thread.sleep(100);
+        assertEquals(2, connection.out.flushes());
+
+        // the next message schedules a new flush
+        target.send(message("3"));
+        awaitFlushes(connection, 3);
+    }
+
+    @Test
+    public void testDelayedFlushErrorIsThrownByTheNextSend() throws Exception {
+        FakeConnection connection = new FakeConnection();
+        ServletEventTarget target = new ServletEventTarget(connection.request)
+                .setBatching(scheduler, 10, TimeUnit.MILLISECONDS, 64 * 1024);
+        target.ok().open();
+        target.send(message("1"));
+        IOException failure = new IOException("broken pipe");
+        connection.out.failOnFlush(failure);
+        Thread.sleep(100);
+        try {
+            target.send(message("2"));
+            throw new AssertionError("expected IOException");
+        } catch (IOException e) {
+            assertEquals(failure, e);
+        }
+    }
+
+    @Test
+    public void testStalledFlushDoesNotDelayOtherTargets() throws Exception {
+        FakeConnection stalled = new FakeConnection();
+        FakeConnection other = new FakeConnection();
+        ServletEventTarget stalledTarget = new ServletEventTarget(stalled.request)
+                .setBatching(scheduler, 10, TimeUnit.MILLISECONDS, 64 * 1024);
+        ServletEventTarget otherTarget = new ServletEventTarget(other.request)
+                .setBatching(scheduler, 50, TimeUnit.MILLISECONDS, 64 * 1024);
+        stalledTarget.ok().open();
+        otherTarget.ok().open();
+
+        CountDownLatch stall = new CountDownLatch(1);
+        stalled.out.stallFlushes(stall);
+        try {
+            stalledTarget.send(message("1"));
+            otherTarget.send(message("1"));
+            // the scheduler is not blocked by the flush of the stalled target
+            awaitFlushes(other, 2);
+            assertEquals(1, stalled.out.flushes());
+        } finally {
+            stall.countDown();
+        }
+        awaitFlushes(stalled, 2);
+    }
+
+    @Test
+    public void testCompressedBatchCountsTheCompressedBytes() throws Exception {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            data.append("repeated ");
+        }
+        MessageEvent message = message(data.toString());
+        int maxBatchBytes = 3 * message.getByteLength();
+        FakeConnection connection = new FakeConnection();
+        connection.requestHeaders.put("Accept-Encoding", "gzip");
+        ServletEventTarget target = new ServletEventTarget(connection.request)
+                .setCompression(compression)
+                .setBatching(scheduler, 1, TimeUnit.HOURS, maxBatchBytes);
+        target.ok().open();
+        int opened = connection.out.written.size();
+
+        int sent = 0;
+        int written = 0;
+        while (connection.out.flushes() == 1) {
+            assertTrue("the batch is never flushed", written < maxBatchBytes);
+            target.send(message);
+            sent++;
+            written = connection.out.written.size() - opened;
+        }
+        // flushed when the compressed bytes reach the batch size, not the uncompressed ones
+        assertTrue(sent > 3);
+        assertTrue(written >= maxBatchBytes);
+        target.close();
+    }
+
+    private ServletEventTarget open(FakeConnection connection) throws IOException {
+        connection.requestHeaders.put("Accept-Encoding", "gzip");
+        ServletEventTarget target = new ServletEventTarget(connection.request).setCompression(compression);
+        target.ok().open();
+        assertEquals("gzip", connection.responseHeaders.get("Content-Encoding"));
+        assertEquals(1, compression.getConnections());
+        return target;
+    }
+
+    @Test
+    public void testCompressorIsReleasedOnComplete() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        ServletEventTarget target = open(connection);
+        target.send("message", "hello");
+        target.close();
+        assertEquals(1, connection.completions);
+        connection.containerComplete();
+        assertEquals(0, compression.getConnections());
+    }
+
+    @Test
+    public void testCompressorIsReleasedOnError() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        open(connection);
+        connection.containerError(new IOException("reset"));
+        assertEquals(0, compression.getConnections());
+        // some containers complete the request after the error
+        connection.containerComplete();
+        assertEquals(0, compression.getConnections());
+    }
+
+    @Test
+    public void testCompressorIsReleasedWhenSendFails() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        ServletEventTarget target = open(connection);
+        connection.out.failure = new IOException("broken pipe");
+        try {
+            target.send("message", "hello");
+            fail("the write must fail");
+        } catch (IOException e) {
+            assertEquals("broken pipe", e.getMessage());
+        }
+        // the container never completes a request whose client is gone
+        assertEquals(0, compression.getConnections());
+    }
+
+    @Test
+    public void testCompressorIsReleasedWhenOpenFails() throws IOException {
+        FakeConnection connection = new FakeConnection();
+        connection.requestHeaders.put("Accept-Encoding", "gzip");
+        connection.out.failure = new IOException("broken pipe");
+        ServletEventTarget target = new ServletEventTarget(connection.request).setCompression(compression);
+        try {
+            target.ok().open();
+            fail("the write must fail");
+        } catch (IOException e) {
+            assertEquals(0, compression.getConnections());
+        }
+    }
+}
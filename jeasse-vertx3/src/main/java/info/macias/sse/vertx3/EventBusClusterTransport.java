@@ -0,0 +1,95 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.vertx3;
+
+import info.macias.sse.cluster.ClusterTransport;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.MessageConsumer;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * <p>{@link ClusterTransport} that publishes the messages through the Vert.x event bus. In a clustered Vert.x
+ * instance, the messages reach all the nodes of the Vert.x cluster that use the same address.</p>
+ *
+ * <p>Each transport instance is a node: it ignores the messages that it published itself, so many nodes can share
+ * the same (local or clustered) Vert.x instance.</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class EventBusClusterTransport implements ClusterTransport {
+
+    /**
+     * Default event bus address
+     */
+    public static final String DEFAULT_ADDRESS = "jeasse.cluster";
+
+    private static final String ORIGIN_HEADER = "jeasse-origin";
+
+    private final Vertx vertx;
+    private final String address;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final DeliveryOptions deliveryOptions = new DeliveryOptions().addHeader(ORIGIN_HEADER, nodeId);
+
+    private MessageConsumer<Buffer> consumer = null;
+
+    /**
+     * Instantiates a transport that publishes the messages on {@link #DEFAULT_ADDRESS}
+     * @param vertx the Vert.x instance
+     */
+    public EventBusClusterTransport(Vertx vertx) {
+        this(vertx, DEFAULT_ADDRESS);
+    }
+
+    /**
+     * Instantiates a transport
+     * @param vertx the Vert.x instance
+     * @param address the event bus address where the messages are published
+     */
+    public EventBusClusterTransport(Vertx vertx, String address) {
+        this.vertx = vertx;
+        this.address = address;
+    }
+
+    @Override
+    public synchronized void start(Consumer<byte[]> receiver) {
+        if (consumer != null) {
+            throw new IllegalStateException("Transport already started");
+        }
+        consumer = vertx.eventBus().consumer(address, message -> {
+            if (!nodeId.equals(message.headers().get(ORIGIN_HEADER))) {
+                receiver.accept(message.body().getBytes());
+            }
+        });
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        vertx.eventBus().publish(address, Buffer.buffer(message), deliveryOptions);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (consumer != null) {
+            consumer.unregister();
+            consumer = null;
+        }
+    }
+}
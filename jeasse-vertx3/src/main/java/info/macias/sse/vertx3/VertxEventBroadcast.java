@@ -0,0 +1,289 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.vertx3;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.EventTarget;
+import info.macias.sse.OverflowPolicy;
+import info.macias.sse.events.MessageEvent;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Closeable;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <p>Broadcaster for Vert.x that groups the subscribers by the {@link Context} that owns their connection (usually,
+ * an event loop), so each connection is only written from its own thread.</p>
+ *
+ * <p>Each context has its own shard: an {@link EventBroadcast} with the subscribers of that context. Broadcast
+ * messages are queued for each shard, and written by a single task per shard that runs on its context and sends all
+ * the queued messages. So the broadcasting thread does not write to any connection, messages broadcast in bursts are
+ * written in batches, and the shards don't contend among them.</p>
+ *
+ * <p>The queue of each shard is bounded, so a context that falls behind (e.g. a blocked event loop) can't exhaust the
+ * memory. When a message is broadcast to a shard whose queue is full, the {@link OverflowPolicy} applies to the shard
+ * as a whole: {@link OverflowPolicy#DISCONNECT} discards the queued messages and disconnects all the subscribers of
+ * the shard, with a 'retry' hint, and the next subscribers of that context are added to a new shard.</p>
+ *
+ * <p>The subscribers must be added from the context that handles their request (e.g. from the request handler).</p>
+ *
+ * @author <a href="http://github.com/mariomac">Mario Macías</a>
+ */
+public class VertxEventBroadcast {
+
+    private static final MessageEvent DISCONNECT_MESSAGE = new MessageEvent.Builder()
+            .setRetry(EventBroadcast.Builder.DEFAULT_DISCONNECT_RETRY)
+            .build();
+
+    private final Supplier<? extends EventBroadcast> shardFactory;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ConcurrentMap<Context, Shard> shards = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates a broadcaster whose shards are default {@link EventBroadcast} instances
+     */
+    public VertxEventBroadcast() {
+        this(EventBroadcast::new);
+    }
+
+    /**
+     * Instantiates a broadcaster whose shards are provided by the given factory, e.g.
+     * <code>() -&gt; new EventBroadcast.Builder().setMetrics(metrics).build()</code>. As each shard is only
+     * accessed from its context, the shards don't need the fan-out mode. Replay buffers must not be shared between
+     * shards. Each shard queues up to {@link EventBroadcast.Builder#DEFAULT_QUEUE_CAPACITY} messages, and is
+     * disconnected when its queue is full.
+     * @param shardFactory the factory that instantiates a new shard
+     */
+    public VertxEventBroadcast(Supplier<? extends EventBroadcast> shardFactory) {
+        this(shardFactory, EventBroadcast.Builder.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DISCONNECT);
+    }
+
+    /**
+     * Instantiates a broadcaster whose shards are provided by the given factory, with a bounded queue of messages
+     * for each shard.
+     * @param shardFactory the factory that instantiates a new shard
+     * @param queueCapacity the maximum number of messages queued for each shard and not yet written from its context
+     * @param overflowPolicy what to do when a message is broadcast to a shard whose queue is full
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public VertxEventBroadcast(Supplier<? extends EventBroadcast> shardFactory, int queueCapacity,
+                               OverflowPolicy overflowPolicy) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        if (overflowPolicy == null) {
+            throw new NullPointerException("overflowPolicy");
+        }
+        this.shardFactory = shardFactory;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Adds a subscriber to the shard of the current context
+     * @param eventTarget an event target to be subscribed to the broadcast messages
+     * @throws IOException if there was an error during the acknowledge process between broadcaster and subscriber
+     * @throws IllegalStateException if the current thread is not running on a Vert.x context
+     */
+    public void addSubscriber(EventTarget eventTarget) throws IOException {
+        shard().broadcast.addSubscriber(eventTarget);
+    }
+
+    /**
+     * Adds a subscriber to the shard of the current context, and sends it a welcome message
+     * @param eventTarget an event target to be subscribed to the broadcast messages
+     * @param welcomeMessage The welcome message
+     * @throws IOException if there was an error during the acknowledge process between broadcaster and subscriber, or
+     *         if the subscriber immediately closed the connection before receiving the welcome message
+     * @throws IllegalStateException if the current thread is not running on a Vert.x context
+     */
+    public void addSubscriber(EventTarget eventTarget, MessageEvent welcomeMessage) throws IOException {
+        shard().broadcast.addSubscriber(eventTarget, welcomeMessage);
+    }
+
+    private Shard shard() {
+        Context context = Vertx.currentContext();
+        if (context == null) {
+            throw new IllegalStateException("Subscribers must be added from a Vert.x context");
+        }
+        return shards.computeIfAbsent(context, Shard::new);
+    }
+
+    /**
+     * Get total count of subscribers. Actual number of active subscribers may be less that this.
+     * @return the number of subscribers of all the shards
+     */
+    public int getSubscriberCount() {
+        int count = 0;
+        for (Shard shard : shards.values()) {
+            count += shard.broadcast.getSubscriberCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if subscriber count is greater than zero
+     * @return true if subscriber count is greater than zero
+     */
+    public boolean hasSubscribers() {
+        for (Shard shard : shards.values()) {
+            if (shard.broadcast.hasSubscribers()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of shards, that is the number of contexts from which subscribers have been added
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Broadcasts a {@link MessageEvent} to all the subscribers, containing only 'event' and 'data' fields.
+     * @param event The descriptor of the 'event' field.
+     * @param data The content of the 'data' field.
+     */
+    public void broadcast(String event, String data) {
+        broadcast(new MessageEvent.Builder()
+                .setEvent(event)
+                .setData(data)
+                .build());
+    }
+
+    /**
+     * Broadcasts a {@link MessageEvent} to all the subscribers. This method returns immediately: the message is
+     * written to the subscribers of each shard from the context of the shard. The messages broadcast from the same
+     * thread are received in the same order.
+     * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
+     */
+    public void broadcast(MessageEvent messageEvent) {
+        for (Shard shard : shards.values()) {
+            shard.enqueue(messageEvent);
+        }
+    }
+
+    /**
+     * Closes all the connections between the broadcaster and the subscribers, from the context of each shard, and
+     * removes all the shards.
+     */
+    public void close() {
+        for (Shard shard : shards.values()) {
+            shards.remove(shard.context, shard);
+            shard.context.removeCloseHook(shard);
+            shard.context.runOnContext(v -> shard.broadcast.close());
+        }
+    }
+
+    /**
+     * Subscribers of a context, and the messages pending to be sent to them
+     */
+    private class Shard implements Closeable {
+        private final Context context;
+        private final EventBroadcast broadcast;
+        private final Queue<MessageEvent> pending = new ConcurrentLinkedQueue<>();
+        // number of messages in the pending queue, whose size() is not constant
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        Shard(Context context) {
+            this.context = context;
+            this.broadcast = shardFactory.get();
+            // the shard is discarded when its context is closed (e.g. the verticle is undeployed)
+            context.addCloseHook(this);
+        }
+
+        void enqueue(MessageEvent messageEvent) {
+            if (size.incrementAndGet() > queueCapacity) {
+                if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                    size.decrementAndGet();
+                    return;
+                } else if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                    size.decrementAndGet();
+                    disconnect();
+                    return;
+                } else if (pending.poll() != null) {
+                    // DROP_OLDEST: the new message takes the place of the oldest one
+                    size.decrementAndGet();
+                }
+            }
+            pending.add(messageEvent);
+            if (scheduled.compareAndSet(false, true)) {
+                context.runOnContext(v -> flush());
+            }
+        }
+
+        private void flush() {
+            scheduled.set(false);
+            MessageEvent messageEvent;
+            while ((messageEvent = poll()) != null) {
+                broadcast.broadcast(messageEvent);
+            }
+        }
+
+        private MessageEvent poll() {
+            MessageEvent messageEvent = pending.poll();
+            if (messageEvent != null) {
+                size.decrementAndGet();
+            }
+            return messageEvent;
+        }
+
+        private void clearPending() {
+            while (poll() != null) {
+                // discarded
+            }
+        }
+
+        // the context fell behind: its subscribers are disconnected, and the next ones go to a new shard
+        private void disconnect() {
+            if (!shards.remove(context, this)) {
+                return;
+            }
+            context.removeCloseHook(this);
+            clearPending();
+            context.runOnContext(v -> {
+                clearPending();
+                broadcast.broadcast(DISCONNECT_MESSAGE);
+                broadcast.close();
+            });
+        }
+
+        @Override
+        public void close(Handler<AsyncResult<Void>> completionHandler) {
+            shards.remove(context, this);
+            clearPending();
+            broadcast.close();
+            completionHandler.handle(Future.succeededFuture());
+        }
+    }
+}
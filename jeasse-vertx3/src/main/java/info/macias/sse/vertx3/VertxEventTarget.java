@@ -17,19 +17,70 @@ limitations under the License.
 package info.macias.sse.vertx3;
 
 import info.macias.sse.EventTarget;
+import info.macias.sse.compression.StreamCompression;
+import info.macias.sse.compression.StreamCompressor;
 import info.macias.sse.events.MessageEvent;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
 
 /**
- * SSE dispatcher for one-to-one connections from Server to client-side subscriber
+ * <p>SSE dispatcher for one-to-one connections from Server to client-side subscriber</p>
+ *
+ * <p>Vert.x writes are asynchronous: the messages are kept in the write queue of the connection until the client
+ * receives them. The target is not writable (see {@link #isWritable()}) while the write queue holds more than
+ * {@link #setMaxBufferedBytes(int) maxBufferedBytes}, so the broadcasters can skip or disconnect a slow subscriber.
+ * If messages keep being sent while the target is not writable, and they exceed <code>maxBufferedBytes</code> again,
+ * the connection is closed, so a client that does not read can't exhaust the memory of the server.</p>
+ *
+ * <p>The target sets the drain and close handlers of the response, when it is open. It must be created from the
+ * Vert.x context that handles the request, whose timers bound the time that {@link #close()} waits for the client to
+ * read the buffered messages.</p>
+ *
+ * <p>In compressed mode (see {@link #setCompression(StreamCompression)}), the messages are compressed with the
+ * coding accepted by the client, if any.</p>
  *
  * @author <a href="http://github.com/mariomac">Mario Macías</a>
  */
 public class VertxEventTarget implements EventTarget {
 
+	/**
+	 * Default maximum number of bytes in the write queue of the connection before the target is not writable
+	 */
+	public static final int DEFAULT_MAX_BUFFERED_BYTES = 1024 * 1024;
+
+	/**
+	 * Default time that {@link #close()} waits for the client to read the buffered messages, in milliseconds
+	 */
+	public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 30_000;
+
+	private static final long NO_TIMER = -1;
+
+	private static final Buffer OPEN_EVENT = Buffer.buffer("event: open\n\n");
+
 	private HttpServerRequest request;
+	// null if the target was not created from a Vert.x context
+	private final Context context = Vertx.currentContext();
+
+	private int maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+	// guarded by this. Bytes sent since the write queue became full
+	private long bytesWhileFull = 0;
+	private Runnable writableHandler = null;
+
+	private long closeTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
+	// guarded by this. Timer that closes the connection if the client does not read the messages buffered on close
+	private long closeTimer = NO_TIMER;
+
+	private StreamCompression compression = null;
+	// guarded by this. Null if the stream is not compressed
+	private StreamCompressor compressor = null;
 
     /**
      * Builds a new dispatcher from an {@link HttpServerRequest} object.
@@ -37,6 +88,37 @@ public class VertxEventTarget implements EventTarget {
      */
     public VertxEventTarget(HttpServerRequest request) {
 		this.request = request;
+		request.response().setWriteQueueMaxSize(maxBufferedBytes);
+    }
+
+    /**
+     * Sets the maximum number of bytes in the write queue of the connection before the target is not writable.
+     * Defaults to {@link #DEFAULT_MAX_BUFFERED_BYTES}.
+     * @param maxBufferedBytes the maximum number of buffered bytes
+     * @return The same {@link VertxEventTarget} object that received the method call
+     */
+    public VertxEventTarget setMaxBufferedBytes(int maxBufferedBytes) {
+		if (maxBufferedBytes <= 0) {
+			throw new IllegalArgumentException("maxBufferedBytes must be positive: " + maxBufferedBytes);
+		}
+		this.maxBufferedBytes = maxBufferedBytes;
+		request.response().setWriteQueueMaxSize(maxBufferedBytes);
+		return this;
+    }
+
+    /**
+     * Sets the time that {@link #close()} waits for the client to read the buffered messages, before closing the
+     * connection. Defaults to {@link #DEFAULT_CLOSE_TIMEOUT_MILLIS}.
+     * @param closeTimeout the maximum time to wait
+     * @param unit the time unit of <code>closeTimeout</code>
+     * @return The same {@link VertxEventTarget} object that received the method call
+     */
+    public VertxEventTarget setCloseTimeout(long closeTimeout, TimeUnit unit) {
+		if (closeTimeout <= 0) {
+			throw new IllegalArgumentException("closeTimeout must be positive: " + closeTimeout);
+		}
+		this.closeTimeoutMillis = unit.toMillis(closeTimeout);
+		return this;
     }
 
     /**
@@ -55,9 +137,42 @@ public class VertxEventTarget implements EventTarget {
 		request.response().headers().add("Connection", "keep-alive");
 		request.response().setStatusCode(200);
 		request.response().setChunked(true);
+		if (compression != null) {
+			request.response().headers().add("Vary", "Accept-Encoding");
+			StreamCompressor compressor = compression.open(request.getHeader("Accept-Encoding"));
+			if (compressor != null) {
+				request.response().headers().add("Content-Encoding", compressor.getCoding().getToken());
+				synchronized (this) {
+					this.compressor = compressor;
+				}
+			}
+		}
         return this;
     }
 
+    /**
+     * <p>Enables the compressed mode: if the client accepts a coding supported by the provided
+     * {@link StreamCompression} (see the <code>Accept-Encoding</code> header) and its maximum number of compressed
+     * connections has not been reached, the messages are compressed and the <code>Content-Encoding</code> header is
+     * sent. Otherwise, the messages are sent uncompressed.</p>
+     *
+     * <p>This method must be invoked before {@link #ok()}. Compression should not be enabled if the HTTP server
+     * already compresses the responses (see <code>HttpServerOptions.setCompressionSupported</code>).</p>
+     *
+     * @param compression the compression configuration. It can be shared by many targets
+     * @return The same {@link VertxEventTarget} object that received the method call
+     */
+    public VertxEventTarget setCompression(StreamCompression compression) {
+		this.compression = compression;
+		return this;
+    }
+
+	private synchronized void releaseCompressor() {
+		if (compressor != null) {
+			compressor.close();
+		}
+	}
+
     /**
      * Responds to the client-side subscriber that the connection has been open
      *
@@ -67,7 +182,19 @@ public class VertxEventTarget implements EventTarget {
      */
 	@Override
     public VertxEventTarget open() throws IOException {
-		request.response().write("event: open\n\n");
+		request.response().drainHandler(v -> drained());
+		request.response().closeHandler(v -> connectionClosed());
+		try {
+			synchronized (this) {
+				if (compressor == null) {
+					request.response().write(OPEN_EVENT);
+				} else {
+					request.response().write(compress(OPEN_EVENT.getBytes()));
+				}
+			}
+		} catch (IllegalStateException e) {
+			throw new IOException(e);
+		}
 		return this;
     }
 
@@ -81,41 +208,192 @@ public class VertxEventTarget implements EventTarget {
      */
 	@Override
     public VertxEventTarget send(String event, String data) throws IOException {
-		request.response().write(
-                new MessageEvent.Builder()
+		return send(new MessageEvent.Builder()
                     .setData(data)
                     .setEvent(event)
-                    .build()
-                    .toString()
-        );
-        return this;
+                    .build());
     }
 
     /**
-     * Sends a {@link MessageEvent} to the subscriber
+     * Sends a {@link MessageEvent} to the subscriber. The pre-encoded UTF-8 bytes of the message are wrapped
+     * without copying, so broadcasting the same instance to many subscribers does not encode it again for each of them.
      * @param messageEvent The instance that encapsulates all the desired fields for the {@link MessageEvent}
      * @return The same {@link VertxEventTarget} object that received the method call
-     * @throws IOException if there was an error writing into the response's {@link java.io.OutputStream}. This may be
-     * a common exception: e.g. it will be thrown when the SSE subscriber closes the connection
+     * @throws IOException if the connection is closed, or the bytes sent while the target is not writable exceed
+     * the maximum number of buffered bytes. In the last case, the connection is closed.
      */
 	@Override
     public VertxEventTarget send(MessageEvent messageEvent) throws IOException {
-		request.response().write(messageEvent.toString());
-
+		HttpServerResponse response = request.response();
+		try {
+			if (response.writeQueueFull()) {
+				synchronized (this) {
+					bytesWhileFull += messageEvent.getByteLength();
+					if (bytesWhileFull > maxBufferedBytes) {
+						completed = true;
+						closed = true;
+						response.close();
+						throw new IOException("Write queue is full. Disconnecting");
+					}
+				}
+			}
+			if (compression == null) {
+				response.write(Buffer.buffer(Unpooled.wrappedBuffer(messageEvent.toByteBuffer())));
+			} else {
+				// the messages must be written in the same order they are compressed
+				synchronized (this) {
+					if (compressor == null) {
+						response.write(Buffer.buffer(Unpooled.wrappedBuffer(messageEvent.toByteBuffer())));
+					} else {
+						Buffer compressed = Buffer.buffer();
+						compressor.write(messageEvent, new BufferOutputStream(compressed));
+						response.write(compressed);
+					}
+				}
+			}
+		} catch (IllegalStateException e) {
+			// the response has been closed
+			throw new IOException(e);
+		}
 		return this;
     }
 
+	// invoked holding the lock of this
+	private Buffer compress(byte[] bytes) throws IOException {
+		Buffer compressed = Buffer.buffer();
+		compressor.write(bytes, new BufferOutputStream(compressed));
+		return compressed;
+	}
+
+    /**
+     * Returns <code>false</code> while the write queue of the connection holds more than the maximum number of
+     * buffered bytes. Returns <code>true</code> if the connection is closed, so the next message fails immediately
+     * and the subscriber is detached.
+     * @return whether the target can accept more messages
+     */
+	@Override
+	public boolean isWritable() {
+		if (closed) {
+			return true;
+		}
+		// the close handler runs after the response is closed, and the write queue can't be queried anymore
+		HttpServerResponse response = request.response();
+		return response.closed() || response.ended() || !response.writeQueueFull();
+	}
+
+	@Override
+	public void setWritableHandler(Runnable handler) {
+		synchronized (this) {
+			writableHandler = handler;
+		}
+	}
+
+	// invoked from the event loop when the connection has been closed, by any of the sides
+	private void connectionClosed() {
+		Runnable handler;
+		synchronized (this) {
+			closed = true;
+			releaseCompressor();
+			if (closeTimer != NO_TIMER) {
+				context.owner().cancelTimer(closeTimer);
+				closeTimer = NO_TIMER;
+			}
+			handler = writableHandler;
+		}
+		// a target that was not writable is writable now, so the next message fails and the subscriber is detached
+		if (handler != null) {
+			handler.run();
+		}
+	}
+
+	// invoked from the event loop when the write queue has been drained
+	private void drained() {
+		Runnable handler;
+		synchronized (this) {
+			bytesWhileFull = 0;
+			handler = writableHandler;
+		}
+		if (handler != null) {
+			handler.run();
+		}
+	}
+
+    /**
+     * Returns the value of the <code>Last-Event-ID</code> header sent by a reconnecting subscriber, to be passed to
+     * {@link info.macias.sse.EventBroadcast#addSubscriber(EventTarget, String)}.
+     * @return the 'id' field of the last event received by the subscriber, or <code>null</code> if the header is
+     * not present
+     */
+    public String getLastEventId() {
+        return request.getHeader("Last-Event-ID");
+    }
+
     private boolean completed = false;
+	// the connection has been closed. Set from the close handler of the response, or when closing the target
+	private volatile boolean closed = false;
 
     /**
-     * Closes the connection between the server and the client.
+     * <p>Ends the response and closes the connection between the server and the client, once the buffered messages
+     * have been written into it.</p>
+     *
+     * <p>If the client does not read the buffered messages within the close timeout (see
+     * {@link #setCloseTimeout(long, TimeUnit)}), the connection is closed anyway and the messages are discarded.</p>
      */
 	@Override
-    public void close() {
+    public synchronized void close() {
         if(!completed) {
 			completed = true;
-			request.response().close();
-			request.response().end();
+			closed = true;
+			HttpServerResponse response = request.response();
+			if (!response.closed()) {
+				if (!response.ended()) {
+					if (compressor != null) {
+						try {
+							Buffer trailer = Buffer.buffer();
+							compressor.finish(new BufferOutputStream(trailer));
+							response.write(trailer);
+						} catch (IOException e) {
+							// the connection is being closed anyway
+						}
+					}
+					if (context != null && response.writeQueueFull()) {
+						closeTimer = context.owner().setTimer(closeTimeoutMillis, this::closeTimedOut);
+					}
+					response.end();
+				}
+				// the connection is closed after the queued writes
+				response.close();
+			}
+			releaseCompressor();
         }
     }
+
+	// invoked from the event loop when the client has not read the buffered messages within the close timeout
+	private synchronized void closeTimedOut(long timer) {
+		if (closeTimer == timer) {
+			closeTimer = NO_TIMER;
+			request.connection().close();
+		}
+	}
+
+	/**
+	 * Appends the written bytes to a Vert.x {@link Buffer}
+	 */
+	private static class BufferOutputStream extends OutputStream {
+		private final Buffer buffer;
+
+		BufferOutputStream(Buffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void write(int b) {
+			buffer.appendByte((byte) b);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			buffer.appendBytes(bytes, offset, length);
+		}
+	}
 }
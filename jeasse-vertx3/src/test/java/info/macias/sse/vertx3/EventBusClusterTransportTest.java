@@ -0,0 +1,152 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.vertx3;
+
+import info.macias.sse.cluster.ClusterBroadcast;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventBusClusterTransportTest {
+
+    private static final int TIMEOUT_SECONDS = 10;
+    private static final int NODES = 3;
+
+    private Vertx vertx;
+    private final List<ClusterBroadcast> broadcasts = new ArrayList<>();
+    // the data of the messages received by each node
+    private final List<List<String>> received = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broadcasts.forEach(ClusterBroadcast::close);
+        CountDownLatch closed = new CountDownLatch(1);
+        vertx.close(v -> closed.countDown());
+        assertTrue(closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    // all the nodes share the same Vert.x instance, as each transport is a node
+    private ClusterBroadcast node(String address) throws IOException {
+        List<String> node = new CopyOnWriteArrayList<>();
+        ClusterBroadcast broadcast = new ClusterBroadcast(new EventBusClusterTransport(vertx, address),
+                messageEvent -> node.add(messageEvent.getData()));
+        received.add(node);
+        broadcasts.add(broadcast);
+        return broadcast;
+    }
+
+    private void startCluster() throws IOException {
+        for (int i = 0; i < NODES; i++) {
+            node(EventBusClusterTransport.DEFAULT_ADDRESS);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testBroadcastReachesAllNodesOnce() throws Exception {
+        startCluster();
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 999; i++) {
+            broadcasts.get(i % NODES).broadcast("message", String.valueOf(i));
+            expected.add(String.valueOf(i));
+        }
+        for (List<String> node : received) {
+            await(() -> node.size() == expected.size());
+        }
+        // the transport does not deliver the messages back to the node that published them
+        Thread.sleep(100);
+        for (List<String> node : received) {
+            assertEquals(expected.size(), node.size());
+            assertEquals(expected, new HashSet<>(node));
+        }
+    }
+
+    @Test
+    public void testMessagesFromSameNodeAreOrdered() throws Exception {
+        startCluster();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            broadcasts.get(0).broadcast("message", String.valueOf(i));
+            expected.add(String.valueOf(i));
+        }
+        for (List<String> node : received) {
+            await(() -> node.size() == expected.size());
+            assertEquals(expected, node);
+        }
+    }
+
+    @Test
+    public void testNodesOnOtherAddressesDoNotReceive() throws Exception {
+        ClusterBroadcast publisher = node("cluster.a");
+        node("cluster.a");
+        node("cluster.b");
+        publisher.broadcast("message", "hello");
+        await(() -> received.get(1).size() == 1);
+        Thread.sleep(100);
+        assertEquals(Collections.singletonList("hello"), received.get(0));
+        assertEquals(Collections.singletonList("hello"), received.get(1));
+        assertEquals(Collections.emptyList(), received.get(2));
+    }
+
+    @Test
+    public void testClosedNodesStopReceiving() throws Exception {
+        startCluster();
+        broadcasts.get(2).close();
+        broadcasts.get(0).broadcast("message", "hello");
+        await(() -> received.get(1).size() == 1);
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), received.get(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTransportCanOnlyBeStartedOnce() throws Exception {
+        EventBusClusterTransport transport = new EventBusClusterTransport(vertx);
+        try {
+            transport.start(message -> { });
+            transport.start(message -> { });
+        } finally {
+            transport.close();
+        }
+    }
+}
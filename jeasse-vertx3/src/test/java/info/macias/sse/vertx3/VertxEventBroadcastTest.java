@@ -0,0 +1,315 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.vertx3;
+
+import info.macias.sse.EventBroadcast;
+import info.macias.sse.EventTarget;
+import info.macias.sse.OverflowPolicy;
+import info.macias.sse.events.MessageEvent;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VertxEventBroadcastTest {
+
+    private static final int TIMEOUT_SECONDS = 10;
+
+    private Vertx vertx;
+    private VertxEventBroadcast broadcast;
+    // the subscribers added by the verticles
+    private final List<RecordingEventTarget> targets = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        broadcast = new VertxEventBroadcast();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        vertx.close(v -> closed.countDown());
+        assertTrue(closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Subscriber that records the messages it receives, and whether they were written from another context than
+     * the one that added it
+     */
+    private static class RecordingEventTarget implements EventTarget {
+        final Context context = Vertx.currentContext();
+        final List<String> received = new CopyOnWriteArrayList<>();
+        volatile boolean wrongContext = false;
+        volatile boolean closed = false;
+
+        @Override
+        public EventTarget ok() {
+            return this;
+        }
+
+        @Override
+        public EventTarget open() {
+            return this;
+        }
+
+        @Override
+        public EventTarget send(String event, String data) throws IOException {
+            return send(new MessageEvent.Builder().setEvent(event).setData(data).build());
+        }
+
+        @Override
+        public EventTarget send(MessageEvent messageEvent) {
+            checkContext();
+            received.add(messageEvent.getData());
+            return this;
+        }
+
+        @Override
+        public void close() {
+            checkContext();
+            closed = true;
+        }
+
+        private void checkContext() {
+            if (Vertx.currentContext() != context) {
+                wrongContext = true;
+            }
+        }
+    }
+
+    // each instance of the verticle runs on its own event loop
+    private class SubscriberVerticle extends AbstractVerticle {
+        @Override
+        public void start() throws Exception {
+            RecordingEventTarget target = new RecordingEventTarget();
+            broadcast.addSubscriber(target);
+            targets.add(target);
+        }
+    }
+
+    private String deploy(int instances) throws Exception {
+        CompletableFuture<String> deployment = new CompletableFuture<>();
+        vertx.deployVerticle(SubscriberVerticle::new, new DeploymentOptions().setInstances(instances), result -> {
+            if (result.succeeded()) {
+                deployment.complete(result.result());
+            } else {
+                deployment.completeExceptionally(result.cause());
+            }
+        });
+        return deployment.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!condition.getAsBoolean()) {
+            assertTrue("timeout", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSubscribersAreWrittenFromTheirContext() throws Exception {
+        deploy(2);
+        assertEquals(2, broadcast.getShardCount());
+        assertEquals(2, broadcast.getSubscriberCount());
+        Set<Context> contexts = new HashSet<>();
+        for (RecordingEventTarget target : targets) {
+            contexts.add(target.context);
+        }
+        assertEquals(2, contexts.size());
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+            expected.add(String.valueOf(i));
+        }
+        for (RecordingEventTarget target : targets) {
+            await(() -> target.received.size() == expected.size());
+            // the messages broadcast from the same thread keep their order
+            assertEquals(expected, target.received);
+            assertFalse(target.wrongContext);
+        }
+    }
+
+    @Test
+    public void testCloseClosesSubscribersFromTheirContext() throws Exception {
+        deploy(2);
+        broadcast.close();
+        for (RecordingEventTarget target : targets) {
+            await(() -> target.closed);
+            assertFalse(target.wrongContext);
+        }
+        assertEquals(0, broadcast.getShardCount());
+        assertFalse(broadcast.hasSubscribers());
+    }
+
+    @Test
+    public void testUndeployRemovesTheShards() throws Exception {
+        String deployment = deploy(2);
+        CompletableFuture<Void> undeployed = new CompletableFuture<>();
+        vertx.undeploy(deployment, result -> undeployed.complete(null));
+        undeployed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals(0, broadcast.getShardCount());
+        for (RecordingEventTarget target : targets) {
+            assertTrue(target.closed);
+            assertFalse(target.wrongContext);
+        }
+        // nothing is written to the discarded shards
+        broadcast.broadcast("message", "after");
+        Thread.sleep(50);
+        for (RecordingEventTarget target : targets) {
+            assertEquals(Collections.emptyList(), target.received);
+        }
+    }
+
+    // broadcasts ten messages while the context of the only subscriber is blocked, with room for four of them
+    private RecordingEventTarget overflow(OverflowPolicy overflowPolicy) throws Exception {
+        broadcast = new VertxEventBroadcast(EventBroadcast::new, 4, overflowPolicy);
+        deploy(1);
+        RecordingEventTarget target = targets.get(0);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        target.context.runOnContext(v -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            broadcast.broadcast("message", String.valueOf(i));
+        }
+        release.countDown();
+        return target;
+    }
+
+    @Test
+    public void testFullShardDropsTheOldestMessages() throws Exception {
+        RecordingEventTarget target = overflow(OverflowPolicy.DROP_OLDEST);
+        await(() -> target.received.size() == 4);
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("6", "7", "8", "9"), target.received);
+        assertEquals(1, broadcast.getShardCount());
+    }
+
+    @Test
+    public void testFullShardDropsTheNewestMessages() throws Exception {
+        RecordingEventTarget target = overflow(OverflowPolicy.DROP_NEWEST);
+        await(() -> target.received.size() == 4);
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("0", "1", "2", "3"), target.received);
+        assertEquals(1, broadcast.getShardCount());
+    }
+
+    @Test
+    public void testFullShardDisconnectsItsSubscribers() throws Exception {
+        RecordingEventTarget target = overflow(OverflowPolicy.DISCONNECT);
+        assertEquals(0, broadcast.getShardCount());
+        await(() -> target.closed);
+        assertFalse(target.wrongContext);
+        // the queued messages are discarded, and only the retry hint is sent
+        assertEquals(Collections.singletonList(null), target.received);
+
+        // the next subscribers of the context are added to a new shard
+        target.context.runOnContext(v -> {
+            try {
+                broadcast.addSubscriber(new RecordingEventTarget());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        await(() -> broadcast.getShardCount() == 1);
+    }
+
+    @Test
+    public void testHttpSubscribers() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        CompletableFuture<Void> listening = new CompletableFuture<>();
+        // two instances of the server, so the connections are handled by two event loops
+        vertx.deployVerticle(() -> new AbstractVerticle() {
+            @Override
+            public void start(Future<Void> startFuture) {
+                vertx.createHttpServer()
+                        .requestHandler(request -> {
+                            try {
+                                broadcast.addSubscriber(new VertxEventTarget(request));
+                            } catch (IOException e) {
+                                request.response().setStatusCode(500).end();
+                            }
+                        })
+                        .listen(port, result -> {
+                            if (result.succeeded()) {
+                                startFuture.complete();
+                            } else {
+                                startFuture.fail(result.cause());
+                            }
+                        });
+            }
+        }, new DeploymentOptions().setInstances(2), result -> {
+            if (result.succeeded()) {
+                listening.complete(null);
+            } else {
+                listening.completeExceptionally(result.cause());
+            }
+        });
+        listening.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        HttpClient client = vertx.createHttpClient();
+        List<StringBuffer> streams = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            StringBuffer stream = new StringBuffer();
+            streams.add(stream);
+            client.getNow(port, "localhost", "/", response -> response.handler(buffer -> stream.append(buffer)));
+        }
+        await(() -> broadcast.getSubscriberCount() == 2);
+
+        broadcast.broadcast("message", "hello");
+        for (StringBuffer stream : streams) {
+            await(() -> stream.toString().equals("event: open\n\nevent: message\ndata: hello\n\n"));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+Copyright 2016 - Mario Macias Lloret
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package info.macias.sse.vertx3;
+
+import info.macias.sse.events.MessageEvent;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VertxEventTargetTest {
+
+    private static final int TIMEOUT_SECONDS = 10;
+    private static final int MAX_BUFFERED_BYTES = 4096;
+
+    private Vertx vertx;
+    // the target created by the server for the connection of the client
+    private CompletableFuture<VertxEventTarget> target;
+    private Socket client;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        target = new CompletableFuture<>();
+        CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+        // small socket buffers, so the write queue fills up soon when the client does not read
+        vertx.createHttpServer(new HttpServerOptions().setSendBufferSize(4096))
+                .requestHandler(request -> {
+                    try {
+                        VertxEventTarget eventTarget = new VertxEventTarget(request)
+                                .setMaxBufferedBytes(MAX_BUFFERED_BYTES)
+                                .setCloseTimeout(200, TimeUnit.MILLISECONDS);
+                        eventTarget.ok().open();
+                        target.complete(eventTarget);
+                    } catch (IOException e) {
+                        target.completeExceptionally(e);
+                    }
+                })
+                .listen(0, result -> {
+                    if (result.succeeded()) {
+                        listening.complete(result.result());
+                    } else {
+                        listening.completeExceptionally(result.cause());
+                    }
+                });
+        int port = listening.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).actualPort();
+
+        client = new Socket();
+        client.setReceiveBufferSize(4096);
+        client.connect(new InetSocketAddress("localhost", port));
+        OutputStream request = client.getOutputStream();
+        request.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        request.flush();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        CountDownLatch closed = new CountDownLatch(1);
+        vertx.close(v -> closed.countDown());
+        assertTrue(closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static MessageEvent message(int i) {
+        StringBuilder data = new StringBuilder(String.valueOf(i));
+        while (data.length() < 500) {
+            data.append('.');
+        }
+        return new MessageEvent.Builder().setData(data.toString()).build();
+    }
+
+    // sends messages to the client, which does not read them, until the write queue is full
+    private VertxEventTarget fillWriteQueue() throws Exception {
+        VertxEventTarget eventTarget = target.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        for (int i = 0; ; i++) {
+            assertTrue("the write queue never fills up", i < 100_000);
+            if (eventTarget.isWritable()) {
+                eventTarget.send(message(i));
+            } else {
+                // the queue stays full once the socket buffers are full too
+                Thread.sleep(100);
+                if (!eventTarget.isWritable()) {
+                    return eventTarget;
+                }
+            }
+        }
+    }
+
+    // reads the response from the client socket until the server ends or closes it
+    private String readResponse() throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        InputStream in = client.getInputStream();
+        client.setSoTimeout(TIMEOUT_SECONDS * 1000);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            response.write(buffer, 0, read);
+            if (response.toString("UTF-8").endsWith("\r\n0\r\n\r\n")) {
+                break;
+            }
+        }
+        return response.toString("UTF-8");
+    }
+
+    private void readInBackground(CompletableFuture<String> response) {
+        new Thread(() -> {
+            try {
+                response.complete(readResponse());
+            } catch (IOException e) {
+                response.completeExceptionally(e);
+            }
+        }).start();
+    }
+
+    @Test
+    public void testFullWriteQueueIsNotWritableUntilDrained() throws Exception {
+        VertxEventTarget eventTarget = fillWriteQueue();
+        assertFalse(eventTarget.isWritable());
+        CountDownLatch writable = new CountDownLatch(1);
+        eventTarget.setWritableHandler(writable::countDown);
+        // still not writable while the client does not read
+        assertFalse(writable.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(eventTarget.isWritable());
+
+        readInBackground(new CompletableFuture<>());
+        assertTrue(writable.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(eventTarget.isWritable());
+        eventTarget.send(new MessageEvent.Builder().setData("after").build());
+    }
+
+    @Test
+    public void testCloseWritesTheBufferedMessages() throws Exception {
+        VertxEventTarget eventTarget = fillWriteQueue();
+        eventTarget.send(new MessageEvent.Builder().setRetry(1000).build());
+        eventTarget.close();
+        assertTrue(eventTarget.isWritable());
+
+        CompletableFuture<String> response = new CompletableFuture<>();
+        readInBackground(response);
+        String text = response.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertTrue(text.contains("data: 0."));
+        // the last message is written before the end of the response, and then the connection is closed
+        assertTrue(text.endsWith("retry: 1000\n\n\r\n0\r\n\r\n"));
+        assertEquals(-1, client.getInputStream().read());
+    }
+
+    @Test
+    public void testCloseDiscardsTheBufferedMessagesAfterTheTimeout() throws Exception {
+        VertxEventTarget eventTarget = fillWriteQueue();
+        eventTarget.close();
+        // the connection is closed when the client does not read within the close timeout
+        Thread.sleep(500);
+        String text = readResponse();
+        assertTrue(text.contains("data: 0."));
+        assertFalse(text.endsWith("\r\n0\r\n\r\n"));
+        assertEquals(-1, client.getInputStream().read());
+    }
+}